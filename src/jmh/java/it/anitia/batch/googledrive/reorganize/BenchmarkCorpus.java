@@ -0,0 +1,102 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+
+/**
+ * Corpus sintetico di nomi file realistici per i benchmark, generato con seme fisso
+ * (stesso corpus a ogni esecuzione): flussi CAMS "D20240101...", log "YYYY-MM-DD" con
+ * estensioni multiple (.log.gz), copie "_1"/"_2" create da resolveConflict, PDF provinciali
+ * e nomi senza data.
+ */
+final class BenchmarkCorpus {
+
+	private static final String[] SERVICES = { "wsorder", "wsinvoice", "gateway", "batch-export", "sync_anagrafiche", "mailer" };
+	private static final String[] CAMS_FLOWS = { "FLUSSO", "ESITI", "RENDICONTO", "ANAGRAFE" };
+	private static final String[] PROVINCES = { "MI", "RM", "TO", "NA", "BO", "FI" };
+	private static final String[] PLAIN_NAMES = { "report_finale", "verbale assemblea", "IMG_4821", "contratto-firmato", "preventivo v2", "README" };
+	private static final String[] EXTENSIONS = { ".log.gz", ".log", ".csv", ".txt", ".pdf", ".xml.zip" };
+
+	static final String PARENT_ID = "1AbCdEfGhIjKlMnOpQrStUvWxYz012345";
+
+	private BenchmarkCorpus() {
+	}
+
+	static List<String> names(int count, long seed) {
+		Random random = new Random(seed);
+		List<String> names = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			names.add(name(random));
+		}
+		return names;
+	}
+
+	static List<File> files(int count, long seed) {
+		Random random = new Random(seed);
+		List<File> files = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			files.add(file(random));
+		}
+		return files;
+	}
+
+	/**
+	 * Stesso corpus di {@link #files(int, long)} nella forma compatta usata dall'applicazione
+	 * (ogni File e' convertito e subito rilasciato, come avviene per le pagine elencate).
+	 */
+	static List<FileEntry> entries(int count, long seed) {
+		Random random = new Random(seed);
+		List<FileEntry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(FileEntry.of(file(random), PARENT_ID));
+		}
+		return entries;
+	}
+
+	private static File file(Random random) {
+		File file = new File();
+		file.setId(Long.toHexString(random.nextLong()));
+		file.setName(name(random));
+		file.setSize((long) random.nextInt(4 * 1024 * 1024));
+		file.setModifiedTime(new DateTime(1_577_836_800_000L + (long) (random.nextDouble() * 157_680_000_000L)));
+		file.setMd5Checksum(String.format("%016x%016x", random.nextLong(), random.nextLong()));
+		file.setParents(Collections.singletonList(PARENT_ID));
+		return file;
+	}
+
+	static String name(Random random) {
+		int year = 2019 + random.nextInt(7);
+		int month = 1 + random.nextInt(12);
+		int day = 1 + random.nextInt(28);
+		String copy = random.nextInt(10) == 0 ? "_" + (1 + random.nextInt(3)) : "";
+		switch (random.nextInt(5)) {
+		case 0:
+			// CAMS: D + YYYYMMDD + HHmmss
+			return String.format("%s_D%04d%02d%02d%02d%02d%02d%s.csv", CAMS_FLOWS[random.nextInt(CAMS_FLOWS.length)],
+					year, month, day, random.nextInt(24), random.nextInt(60), random.nextInt(60), copy);
+		case 1:
+			// Log applicativi YYYY-MM-DD con estensioni multiple
+			return String.format("%s-%04d-%02d-%02d%s%s", SERVICES[random.nextInt(SERVICES.length)],
+					year, month, day, copy, EXTENSIONS[random.nextInt(2)]);
+		case 2:
+			// YYYY_MM_DD e YYYYMMDD compatti
+			return random.nextBoolean()
+					? String.format("%s_%04d_%02d_%02d%s%s", SERVICES[random.nextInt(SERVICES.length)], year, month, day, copy,
+							EXTENSIONS[random.nextInt(EXTENSIONS.length)])
+					: String.format("%s%04d%02d%02d%s%s", SERVICES[random.nextInt(SERVICES.length)], year, month, day, copy,
+							EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+		case 3:
+			// PDF provinciali XX-NN-ANNO-SEQ.pdf
+			return String.format("%s-%02d-%04d-%06d.pdf", PROVINCES[random.nextInt(PROVINCES.length)],
+					random.nextInt(100), year, random.nextInt(1_000_000));
+		default:
+			// Senza data
+			return PLAIN_NAMES[random.nextInt(PLAIN_NAMES.length)] + copy + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.services.drive.Drive;
+
+/**
+ * Esecuzioni complete di reorganize e glacier contro {@link FakeDriveServer} (nessuna quota Drive):
+ * <ul>
+ * <li>flat: 1M file in un'unica cartella (reorganize);</li>
+ * <li>deepTree: albero di 6 livelli con 3 sottocartelle e 40 file per cartella (reorganize,
+ * con ricreazione del percorso relativo nella destinazione);</li>
+ * <li>glacierMonths: 12 cartelle YYYY/MM da 1500 log di 1-8 KB, 10% di duplicati (glacier).</li>
+ * </ul>
+ * Il tempo riportato e' la durata dell'esecuzione; i contatori ausiliari riportano file/s e chiamate
+ * API per file. Latenza ed errori iniettati si impostano con -p latencyMillis, -p quotaErrorRate e
+ * -p serverErrorRate; -p files riduce (o aumenta) il numero di file dello scenario.
+ * <p>
+ * Con -p accounts=N le chiamate sono firmate da N service account generati (token emessi dal
+ * server), con -p accountQps la quota di richieste al secondo di ciascuno: il throughput con
+ * quota scala con il numero di account (serviceAccountKeyFiles).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class DriveThroughputBenchmark {
+
+	static final String GLACIER_UNTIL = "2023-12";
+	private static final int DEEP_TREE_DEPTH = 6;
+	private static final int DEEP_TREE_FANOUT = 3;
+	private static final int DEEP_TREE_FILES_PER_FOLDER = 40;
+	private static final int GLACIER_MONTHS = 12;
+
+	@Param({ "flat", "deepTree", "glacierMonths" })
+	public String scenario;
+
+	/**
+	 * Numero di file dello scenario (0 = dimensione predefinita).
+	 */
+	@Param({ "0" })
+	public int files;
+
+	@Param({ "10" })
+	public int threads;
+
+	@Param({ "0" })
+	public int latencyMillis;
+
+	@Param({ "0" })
+	public double quotaErrorRate;
+
+	@Param({ "0" })
+	public double serverErrorRate;
+
+	/**
+	 * Service account su cui ripartire le chiamate (0 = richieste non autenticate).
+	 */
+	@Param({ "0" })
+	public int accounts;
+
+	/**
+	 * Quota di richieste al secondo per account (0 = illimitata).
+	 */
+	@Param({ "0" })
+	public int accountQps;
+
+	private FakeDriveServer server;
+	private Drive service;
+	private Path workingDir;
+	private int scenarioFiles;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Throughput {
+		public long filesDone;
+		public double filesPerSecond;
+		public double apiCallsPerFile;
+		public long quotaErrors;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			filesDone = 0;
+			filesPerSecond = 0;
+			apiCallsPerFile = 0;
+			quotaErrors = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void startServer() throws IOException {
+		server = new FakeDriveServer().start()
+				.latency(latencyMillis, latencyMillis / 2)
+				.quotaErrorRate(quotaErrorRate)
+				.serverErrorRate(serverErrorRate)
+				.accountQuota(accountQps);
+		workingDir = Files.createTempDirectory("drive-benchmark");
+		StringBuilder keyFiles = new StringBuilder();
+		for (int i = 1; i <= accounts; i++) {
+			if (keyFiles.length() > 0) {
+				keyFiles.append(',');
+			}
+			keyFiles.append(server.writeServiceAccountKey(workingDir, "reorganize-" + i + "@fake-project.iam.gserviceaccount.com"));
+		}
+		Settings.serviceAccountKeyFiles = keyFiles.length() > 0 ? keyFiles.toString() : null;
+		Settings.drive.throttleCooldownSeconds = 1;
+
+		Settings.drive.rootUrl = server.rootUrl();
+		Settings.serviceAccountKeyFile = workingDir.resolve("no-credentials.json").toString();
+		Settings.workingDir = workingDir.toString();
+		Settings.operation.maxThreads = threads;
+		Settings.operation.retry = 5;
+		Settings.operation.sleepRetry = 0;
+		Settings.folder.source.recursive = true;
+		Settings.metrics.jmx = false;
+		Settings.progress.intervalSeconds = 0;
+		service = App.getDriveService();
+	}
+
+	@Setup(Level.Invocation)
+	public void populate() {
+		server.reset();
+		App.resetState();
+		Settings.folder.source.id = server.createFolder(null, "source");
+		Settings.folder.destination.id = server.createFolder(null, "destination");
+		Settings.folder.glacier.id = server.createFolder(null, "glacier");
+		Random random = new Random(20240101L);
+		switch (scenario) {
+		case "flat":
+			scenarioFiles = populateFlat(Settings.folder.source.id, files > 0 ? files : 1_000_000, random);
+			break;
+		case "deepTree":
+			int perFolder = DEEP_TREE_FILES_PER_FOLDER;
+			if (files > 0) {
+				int folders = 0;
+				for (int level = 0, width = 1; level <= DEEP_TREE_DEPTH; level++, width *= DEEP_TREE_FANOUT) {
+					folders += width;
+				}
+				perFolder = Math.max(1, files / folders);
+			}
+			scenarioFiles = populateTree(Settings.folder.source.id, DEEP_TREE_DEPTH, perFolder, random);
+			break;
+		case "glacierMonths":
+			scenarioFiles = populateGlacier(Settings.folder.source.id, files > 0 ? files / GLACIER_MONTHS : 1500, random);
+			break;
+		default:
+			throw new IllegalArgumentException("Scenario sconosciuto: " + scenario);
+		}
+	}
+
+	@Benchmark
+	public void run(Throughput throughput) throws IOException {
+		long callsBefore = server.requestCount();
+		long start = System.nanoTime();
+		if ("glacierMonths".equals(scenario)) {
+			App.glacier(service, GLACIER_UNTIL);
+		} else {
+			App.reorganize(service);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long calls = server.requestCount() - callsBefore;
+		throughput.filesDone = scenarioFiles;
+		throughput.filesPerSecond = scenarioFiles / seconds;
+		throughput.apiCallsPerFile = (double) calls / scenarioFiles;
+		throughput.quotaErrors = server.throttledCountsByAccount().values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() throws IOException {
+		server.close();
+		try (Stream<Path> paths = Files.walk(workingDir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private int populateFlat(String folderId, int count, Random random) {
+		for (int i = 0; i < count; i++) {
+			server.createFile(folderId, BenchmarkCorpus.name(random), modifiedMillis(random), 1 + random.nextInt(64 * 1024));
+		}
+		return count;
+	}
+
+	private int populateTree(String folderId, int depth, int filesPerFolder, Random random) {
+		int count = populateFlat(folderId, filesPerFolder, random);
+		if (depth > 0) {
+			for (int i = 0; i < DEEP_TREE_FANOUT; i++) {
+				count += populateTree(server.createFolder(folderId, "dir-" + depth + "-" + i), depth - 1, filesPerFolder, random);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Cartelle 2023/01..12 con log testuali di 1-8 KB di sei servizi; un file su dieci e' la copia
+	 * identica del precedente (reinvio).
+	 */
+	private int populateGlacier(String folderId, int filesPerMonth, Random random) {
+		String yearId = server.createFolder(folderId, "2023");
+		String[] services = { "wsorder", "wsinvoice", "gateway", "batch-export", "sync_anagrafiche", "mailer" };
+		int count = 0;
+		for (int month = 1; month <= GLACIER_MONTHS; month++) {
+			String monthId = server.createFolder(yearId, String.format("%02d", month));
+			byte[] previous = null;
+			for (int i = 0; i < filesPerMonth; i++) {
+				String service = services[random.nextInt(services.length)];
+				int day = 1 + random.nextInt(28);
+				String name = String.format("%s-2023-%02d-%02d_%d.log", service, month, day, i);
+				byte[] content = previous != null && random.nextInt(10) == 0 ? previous : logContent(service, random);
+				server.createFile(monthId, name, modifiedMillis(random), content);
+				previous = content;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static byte[] logContent(String service, Random random) {
+		int lines = 16 + random.nextInt(112);
+		StringBuilder text = new StringBuilder(lines * 64);
+		for (int i = 0; i < lines; i++) {
+			text.append(String.format("%02d:%02d:%02d INFO [%s] richiesta %08x completata in %d ms%n",
+					random.nextInt(24), random.nextInt(60), random.nextInt(60), service, random.nextInt(), random.nextInt(2000)));
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static long modifiedMillis(Random random) {
+		return 1_577_836_800_000L + (long) (random.nextDouble() * 157_680_000_000L);
+	}
+}
@@ -0,0 +1,75 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Heap trattenuto da N file in memoria: File del client Drive (model=drive) contro FileEntry
+ * (model=compact). Il tempo riportato e' quello di costruzione; i contatori ausiliari
+ * retainedMB e bytesPerFile riportano la memoria occupata misurata dopo una GC completa.
+ * Il modello drive con 10M file richiede circa 6 GB di heap.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms16g", "-Xmx16g" })
+@State(Scope.Benchmark)
+public class FileEntryMemoryBenchmark {
+
+	@Param({ "1000000", "10000000" })
+	public int count;
+
+	@Param({ "drive", "compact" })
+	public String model;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Retained {
+		public long retainedMB;
+		public long bytesPerFile;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			retainedMB = 0;
+			bytesPerFile = 0;
+		}
+	}
+
+	@Benchmark
+	public void retainedHeap(Retained retained, Blackhole bh) {
+		long before = usedHeapAfterGc();
+		List<?> files = "drive".equals(model)
+				? BenchmarkCorpus.files(count, 20240101L)
+				: BenchmarkCorpus.entries(count, 20240101L);
+		long after = usedHeapAfterGc();
+		retained.retainedMB = (after - before) / (1024 * 1024);
+		retained.bytesPerFile = (after - before) / count;
+		bh.consume(files);
+	}
+
+	private static long usedHeapAfterGc() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
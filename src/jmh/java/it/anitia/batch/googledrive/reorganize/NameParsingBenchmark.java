@@ -0,0 +1,106 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput (nomi/secondo) delle funzioni eseguite per ogni file: estrazione date,
+ * normalizzazione pattern/groupKey, nomi entry ZIP e ordinamento glacier.
+ * Per il tasso di allocazione eseguire con "-prof gc" (gc.alloc.rate.norm = byte per nome).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NameParsingBenchmark {
+
+	static final int CORPUS_SIZE = 10_000;
+
+	private String[] names;
+	private List<FileEntry> files;
+
+	@Setup
+	public void setup() {
+		names = BenchmarkCorpus.names(CORPUS_SIZE, 20240101L).toArray(new String[0]);
+		files = BenchmarkCorpus.entries(CORPUS_SIZE, 20240101L);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void extractDateFromFileName(Blackhole bh) {
+		for (String name : names) {
+			bh.consume(App.extractDatePacked(name, false));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void extractDateCompactFromFileName(Blackhole bh) {
+		for (String name : names) {
+			bh.consume(App.extractDateCompactFromFileName(name));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void getYearMonthFromGDriveFile(Blackhole bh) {
+		for (FileEntry file : files) {
+			bh.consume(App.getYearMonthFromGDriveFile(file));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void normalizeFileName(Blackhole bh) {
+		for (String name : names) {
+			bh.consume(App.normalizeFileName(name));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void normalizeToGroupKey(Blackhole bh) {
+		for (String name : names) {
+			bh.consume(App.normalizeToGroupKey(name));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void resolveZipEntryName(Blackhole bh) {
+		// Il corpus contiene nomi ripetuti: esercita anche il ramo di rinomina _N
+		Set<String> usedNames = new HashSet<>();
+		for (String name : names) {
+			bh.consume(App.resolveZipEntryName(name, usedNames));
+		}
+	}
+
+	/**
+	 * Ordinamento glacier per data (include la copia della lista, necessaria perche' l'ordinamento e' in place).
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CORPUS_SIZE)
+	public void glacierSortByDate(Blackhole bh) {
+		List<FileEntry> copy = new ArrayList<>(files);
+		bh.consume(App.sortByDate(copy));
+		bh.consume(copy);
+	}
+}
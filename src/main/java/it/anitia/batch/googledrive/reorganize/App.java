@@ -1,44 +1,79 @@
 package it.anitia.batch.googledrive.reorganize;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
 
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
-import com.google.api.client.util.DateTime;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.DriveScopes;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import com.google.auth.http.HttpCredentialsAdapter;
@@ -49,34 +84,97 @@ public class App {
 	final static Logger logger = LogManager.getLogger(App.class);
 	private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
 	private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
-	// Pattern per riconoscere date nel nome file
-	// 1) YYYY-MM-DD o YYYY_MM_DD (con separatori)
-	private static final Pattern DATE_PATTERN = Pattern.compile("(\\d{4})[-_](\\d{2})[-_](\\d{2})");
-	// 2) YYYYMMDD compatto (8 cifre consecutive, anche precedute da D come in CAMS)
-	private static final Pattern DATE_COMPACT_PATTERN = Pattern.compile("D?(\\d{4})(\\d{2})(\\d{2})");
-	// 2b) Come sopra ma con opzionale HHmmss (per normalizzazione groupKey)
-	private static final Pattern DATE_COMPACT_HHMMSS_PATTERN = Pattern.compile("D?(\\d{4})(\\d{2})(\\d{2})(?:\\d{6})?");
+	// Segnaposto per le date nei pattern di analisi (YYYY-MM-DD / YYYY_MM_DD e [D]YYYYMMDD)
+	private static final char[] SEPARATED_DATE_PLACEHOLDER = "YYYY-MM-DD".toCharArray();
+	private static final char[] COMPACT_DATE_PLACEHOLDER = "YYYYMMDD".toCharArray();
+	private static final char[] EMPTY_REPLACEMENT = new char[0];
+	// Buffer di lavoro per la normalizzazione dei nomi, uno per thread
+	private static final ThreadLocal<char[]> NORMALIZE_BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+	// Intervallo di anni accettato per le date estratte dai nomi file
+	private static final int MIN_YEAR = 1900;
+	private static final int MAX_YEAR = 2100;
+	// Stringhe precalcolate per anni e mesi (evitano String.format/valueOf per ogni file)
+	private static final String[] YEAR_STRINGS = new String[MAX_YEAR - MIN_YEAR + 1];
+	private static final String[] MONTH_STRINGS = new String[13];
+	static {
+		for (int y = MIN_YEAR; y <= MAX_YEAR; y++) {
+			YEAR_STRINGS[y - MIN_YEAR] = String.valueOf(y).intern();
+		}
+		for (int m = 0; m <= 12; m++) {
+			MONTH_STRINGS[m] = String.format("%02d", m).intern();
+		}
+	}
+	// Fuso di sistema letto una sola volta (e relativo offset se fisso)
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+	private static final int FIXED_ZONE_OFFSET_SECONDS = ZONE.getRules().isFixedOffset()
+			? ZONE.getRules().getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+	// MD5 del contenuto vuoto (file di dimensione 0)
+	private static final String EMPTY_MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	// Local file header ZIP: firma e dimensione della parte fissa
+	private static final int ZIP_LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int ZIP_LOCAL_HEADER_SIZE = 30;
+	// Margine per un eventuale extra field nel local header (ZipOutputStream normalmente non lo scrive)
+	private static final int ZIP_EXTRA_FIELD_SLACK = 256;
+	// Lunghezza massima di una query files.list di ricerca per nome (recover a blocchi)
+	private static final int RECOVER_QUERY_MAX_LENGTH = 2000;
+	// Byte scaricati per misurare il throughput in modalita' -estimate
+	private static final long ESTIMATE_SAMPLE_BYTES = 4L * 1024 * 1024;
 	private static boolean executeReorganize = false;
 	private static boolean executeList = false;
 	private static boolean executeAnalyze = false;
 	private static boolean executeRecover = false;
 	private static boolean executeGlacier = false;
+	private static boolean executeRecoverGlacier = false;
 	private static String glacierUntilYearMonth = null;
 	private static boolean dryRun = false;
-
-	private static Map<String, String> folderCache = new ConcurrentHashMap<>();
-	private static AtomicInteger filesProcessed = new AtomicInteger(0);
-	private static AtomicInteger filesMoved = new AtomicInteger(0);
-	private static AtomicInteger filesError = new AtomicInteger(0);
-	private static AtomicInteger glacierFilesArchived = new AtomicInteger(0);
-	private static AtomicInteger glacierZipsCreated = new AtomicInteger(0);
-	private static ExecutorService executorService;
+	private static boolean estimate = false;
+	private static boolean daemonMode = false;
+	// Stima di capacita' (-estimate): valorizzata solo in quella modalita'
+	private static CapacityEstimate capacityEstimate;
+
+	// Cartelle di destinazione gia' risolte, condivise tra i job (chiave: ID padre/nome); LRU entro
+	// cache.folderMaxEntries, acceduta solo da createFolderIfNotExists e resetState (synchronized)
+	private static final Map<String, String> folderCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > Settings.cache.folderMaxEntries;
+		}
+	};
+	// Nomi scelti da resolveConflict e non ancora spostati (chiave: ID cartella/nome): due file
+	// con lo stesso nome tra gli stadi resolve e mutate non ricevono lo stesso nome libero
+	private static final Set<String> reservedNames = ConcurrentHashMap.newKeySet();
+	// Job dell'ultima esecuzione di reorganize o glacier, con i relativi contatori
+	private static List<Job> jobs = Collections.emptyList();
+	// Transport delle chiamate Drive (chiuso a fine esecuzione: archivio del traffico)
+	private static HttpTransport driveTransport;
+	// Service account su cui sono ripartite le chiamate (solo con serviceAccountKeyFiles)
+	private static ServiceAccountPool serviceAccountPool;
+	// Lease del lavoro condiviso con altri processi (solo con workers.leaseDir, durante reorganize e glacier)
+	private static WorkLeases workLeases;
+	// Pool dedicato ai download a intervalli paralleli (creato alla prima necessita')
+	private static ExecutorService rangeExecutorService;
 
 	public static void main(String[] args) {
 		if (!checkArgs(args)) {
 			return;
 		}
 
+		// Sostituisce lo shutdown hook di log4j (disattivato in log4j2.component.properties): con
+		// -daemon, a SIGTERM attende che main completi l'arresto e ne scriva i log, poi chiude log4j
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			if (daemonMode) {
+				DaemonStatus.requestStop();
+				if (!DaemonStatus.awaitStopped(Settings.daemon.shutdownSeconds)) {
+					// log4j e' ancora attivo: viene chiuso solo sotto
+					logger.error("Arresto del daemon non completato entro {} secondi", Settings.daemon.shutdownSeconds);
+				}
+			}
+			LogManager.shutdown();
+		}, "shutdown"));
+
 		logger.info("INIZIO Google Drive Reorganize");
 		logger.trace("Lettura configurazione");
 
@@ -86,11 +184,46 @@ public class App {
 			logger.fatal("Errore di configurazione: {}", e.getMessage());
 			System.exit(-1);
 		}
+		configureLogging();
+
+		// Con jobs.file le modalita' di sola sorgente (-l, -a, -rec) usano comunque folder.source.id
+		if ((executeList || executeAnalyze || executeRecover)
+				&& (Settings.folder.source.id == null || Settings.folder.source.id.isBlank())) {
+			logger.fatal("Configurazione \"folder.source.id\" assente, necessaria per le modalita' -l, -a e -rec");
+			System.exit(-1);
+		}
+
+		// Con jobs.file la destinazione di ogni job e' verificata alla lettura del file
+		if (executeReorganize && !Settings.hasJobsFile()
+				&& (Settings.folder.destination.id == null || Settings.folder.destination.id.isBlank())) {
+			logger.fatal("Configurazione \"folder.destination.id\" assente, necessaria per le modalita' -r e -daemon");
+			System.exit(-1);
+		}
+
+		if (daemonMode && Settings.hasLeaseDir()) {
+			logger.fatal("Configurazione \"workers.leaseDir\" non utilizzabile con -daemon");
+			System.exit(-1);
+		}
+
+		// Un default diverso tra i worker (es. la data, a cavallo della mezzanotte) dividerebbe il lavoro in due esecuzioni
+		if ((executeReorganize || executeGlacier) && !estimate && Settings.hasLeaseDir()
+				&& (Settings.workers.runId == null || Settings.workers.runId.isBlank())) {
+			logger.fatal("Configurazione \"workers.runId\" assente, necessaria con workers.leaseDir (la stessa per tutti i worker dell'esecuzione)");
+			System.exit(-1);
+		}
 
+		DriveMetrics.start();
 		try {
+			if (estimate) {
+				capacityEstimate = new CapacityEstimate();
+			}
 			Drive driveService = getDriveService();
 
-			if (executeAnalyze) {
+			if (estimate) {
+				logger.info("=== Modalita' ESTIMATE {} (maxThreads={}) ===",
+						executeGlacier ? "GLACIER fino a " + glacierUntilYearMonth : "REORGANIZE", Settings.operation.maxThreads);
+				estimateCapacity(driveService);
+			} else if (executeAnalyze) {
 				logger.info("=== Modalita' ANALYZE ===");
 				analyzeFolder(driveService, Settings.folder.source.id, Settings.folder.source.recursive);
 			} else if (executeList) {
@@ -98,58 +231,247 @@ public class App {
 				listFolderContents(driveService, Settings.folder.source.id, "", Settings.folder.source.recursive);
 			} else if (executeRecover) {
 				logger.info("=== Modalita' RECOVER ===");
+				ProgressReporter.start();
 				recoverFiles(driveService, Settings.folder.source.id, Settings.folder.source.recursive);
+			} else if (executeRecoverGlacier) {
+				logger.info("=== Modalita' RECOVER GLACIER ===");
+				ProgressReporter.start();
+				recoverFromGlacier(driveService);
+			} else if (executeReorganize && daemonMode) {
+				logger.info("=== Modalita' DAEMON {} (maxThreads={}, pollSeconds={}) ===",
+						dryRun ? "(DRY RUN)" : "", Settings.operation.maxThreads, Settings.daemon.pollSeconds);
+				ProgressReporter.start();
+				daemon(driveService, Job.configured(false));
 			} else if (executeReorganize) {
 				logger.info("=== Modalita' REORGANIZE {} (maxThreads={}) ===",
 						dryRun ? "(DRY RUN)" : "", Settings.operation.maxThreads);
-				executorService = Executors.newFixedThreadPool(Settings.operation.maxThreads);
-				reorganizeFolder(driveService, Settings.folder.source.id, "");
-				executorService.shutdown();
-				try {
-					executorService.awaitTermination(24, TimeUnit.HOURS);
-				} catch (InterruptedException e) {
-					Thread.currentThread().interrupt();
-					logger.error("Attesa completamento thread interrotta");
-				}
-				// Pulizia cartelle vuote nella source
-				logger.info("=== Pulizia cartelle vuote ===");
-				int foldersDeleted = deleteEmptyFolders(driveService, Settings.folder.source.id, Settings.folder.source.recursive);
-				logger.info("=== RIEPILOGO ===");
-				logger.info("File elaborati:     {}", filesProcessed.get());
-				logger.info("File spostati:      {}", filesMoved.get());
-				logger.info("File in errore:     {}", filesError.get());
-				logger.info("Cartelle eliminate: {}", foldersDeleted);
+				ProgressReporter.start();
+				reorganize(driveService);
 			} else if (executeGlacier) {
-				if (Settings.folder.glacier.id == null || Settings.folder.glacier.id.isBlank()) {
-					logger.fatal("Configurazione \"folder.glacier.id\" assente, necessaria per la modalita' glacier");
+				List<Job> jobList = Job.configured(true);
+				if (jobList.isEmpty()) {
+					logger.fatal("Configurazione \"{}\" assente, necessaria per la modalita' glacier",
+							Settings.hasJobsFile() ? "NOME.glacier.id" : "folder.glacier.id");
 					System.exit(-1);
 				}
-				logger.info("=== Modalita' GLACIER fino a {} (maxZipSizeMB={}) ===",
-						glacierUntilYearMonth, Settings.glacier.maxZipSizeMB);
-				glacierFolder(driveService, Settings.folder.source.id, "", glacierUntilYearMonth);
-				logger.info("=== Pulizia cartelle vuote ===");
-				int foldersDeleted = deleteEmptyFolders(driveService, Settings.folder.source.id, true);
-				logger.info("=== RIEPILOGO GLACIER ===");
-				logger.info("File archiviati:    {}", glacierFilesArchived.get());
-				logger.info("ZIP creati:         {}", glacierZipsCreated.get());
-				logger.info("Cartelle eliminate: {}", foldersDeleted);
+				logger.info("=== Modalita' GLACIER fino a {} {}(maxZipSizeMB={}) ===",
+						glacierUntilYearMonth, dryRun ? "(DRY RUN) " : "", Settings.glacier.maxZipSizeMB);
+				ProgressReporter.start();
+				glacier(driveService, jobList, glacierUntilYearMonth);
 			}
 		} catch (IOException e) {
 			logger.fatal("Eccezione {}: {}", e.getClass().getName(), e.getMessage());
+		} finally {
+			ProgressReporter.stop();
+			shutdownDriveTransport();
+			DriveMetrics.stop();
 		}
 
 		logger.info("FINE Google Drive Reorganize");
+		DaemonStatus.stopped();
+	}
+
+	/**
+	 * Modalita' reorganize completa per i job configurati (folder.* o jobs.file).
+	 */
+	static void reorganize(Drive driveService) throws IOException {
+		reorganize(driveService, Job.configured(false));
+	}
+
+	/**
+	 * Modalita' reorganize completa: spostamento dei file nella struttura ANNO/MESE della
+	 * destinazione, attesa del completamento, pulizia delle cartelle vuote e riepilogo, per ogni job.
+	 */
+	static void reorganize(Drive driveService, List<Job> jobList) throws IOException {
+		runJobs(driveService, jobList, null);
+	}
+
+	/**
+	 * Modalita' glacier completa per i job configurati (folder.* o jobs.file).
+	 */
+	static void glacier(Drive driveService, String untilYearMonth) throws IOException {
+		glacier(driveService, Job.configured(true), untilYearMonth);
+	}
+
+	/**
+	 * Modalita' glacier completa: archiviazione dei mesi fino a untilYearMonth (YYYY-MM),
+	 * pulizia delle cartelle vuote e riepilogo, per ogni job.
+	 */
+	static void glacier(Drive driveService, List<Job> jobList, String untilYearMonth) throws IOException {
+		runJobs(driveService, jobList, untilYearMonth);
+		logger.info("Entry spoolate:     {}", GlacierSpool.summary());
+	}
+
+	/**
+	 * Esegue i job insieme, uno per thread, con lo stesso client Drive e la stessa cache delle
+	 * cartelle. File e gruppi glacier sono elaborati dagli stadi condivisi ({@link Stages}), che
+	 * servono a turno le code dei job. Con un solo job l'esecuzione resta sul thread chiamante e
+	 * un'eccezione si propaga; con piu' job l'errore di un job e' riportato nel suo riepilogo e
+	 * gli altri proseguono. untilYearMonth null: reorganize, altrimenti glacier.
+	 */
+	private static void runJobs(Drive driveService, List<Job> jobList, String untilYearMonth) throws IOException {
+		jobs = jobList;
+		boolean glacier = untilYearMonth != null;
+		Stages stages = new Stages(glacier);
+		ProgressReporter.setStages(stages);
+		AtomicInteger crawlsPending = new AtomicInteger(jobList.size());
+		if (Settings.hasLeaseDir() && capacityEstimate == null) {
+			workLeases = WorkLeases.open(dryRun);
+		}
+		try {
+			if (jobList.size() == 1) {
+				runJob(driveService, jobList.get(0), stages, untilYearMonth, crawlsPending);
+			} else {
+				ExecutorService jobThreads = Executors.newFixedThreadPool(jobList.size());
+				List<Future<?>> results = new ArrayList<>(jobList.size());
+				for (Job job : jobList) {
+					results.add(jobThreads.submit(() -> {
+						Thread.currentThread().setName("job-" + job.name);
+						runJob(driveService, job, stages, untilYearMonth, crawlsPending);
+						return null;
+					}));
+				}
+				jobThreads.shutdown();
+				for (int i = 0; i < jobList.size(); i++) {
+					Job job = jobList.get(i);
+					try {
+						results.get(i).get();
+					} catch (ExecutionException e) {
+						job.failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+						logger.error("Job \"{}\" interrotto: {}", job.name, e.getCause().toString());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						logger.error("Attesa completamento job interrotta");
+						break;
+					}
+				}
+			}
+		} finally {
+			stages.shutdown();
+			ProgressReporter.setStages(null);
+			if (workLeases != null) {
+				workLeases.close();
+				workLeases.logSummary();
+				workLeases = null;
+			}
+		}
+		FailureReport.write(jobList);
+		logSummaries(jobList, glacier);
+		stages.logSummary();
+	}
+
+	private static void logSummaries(List<Job> jobList, boolean glacier) {
+		if (jobList.size() == 1) {
+			jobList.get(0).logSummary(glacier, "");
+		} else {
+			for (Job job : jobList) {
+				job.logSummary(glacier, " JOB \"" + job.name + "\"");
+			}
+			Job.total(jobList).logSummary(glacier, " COMPLESSIVO (" + jobList.size() + " job)");
+		}
+	}
+
+	/**
+	 * Un job: scansione della sorgente (con i file accodati nella coda del job), attesa del
+	 * completamento e pulizia delle cartelle vuote.
+	 */
+	private static void runJob(Drive driveService, Job job, Stages stages, String untilYearMonth,
+			AtomicInteger crawlsPending) throws IOException {
+		long start = System.nanoTime();
+		if (jobs.size() > 1) {
+			logger.info("=== Job \"{}\": sorgente {} -> {} ===", job.name, job.sourceId,
+					untilYearMonth != null ? job.glacierId : job.destinationId);
+		}
+		boolean recursive = untilYearMonth != null || job.sourceRecursive;
+		if (recursive && workLeases == null) {
+			job.tree = newFolderTree(driveService, job);
+		}
+		try {
+			job.lanes = stages.newLanes(job.name);
+			try {
+				if (untilYearMonth != null && workLeases != null) {
+					// Con piu' worker ogni cartella mese e' un'unita' di lavoro
+					List<WorkLeases.Unit> months = new ArrayList<>();
+					glacierFolder(driveService, job, job.sourceId, "", untilYearMonth, null, months);
+					workLeases.runAll(job, months);
+				} else if (untilYearMonth != null) {
+					glacierFolder(driveService, job, job.sourceId, "", untilYearMonth);
+					submitGlacierParts(driveService, job);
+				} else if (workLeases != null) {
+					reorganizeUnits(driveService, job);
+				} else {
+					reorganizeFolder(driveService, job, job.sourceId, "");
+				}
+			} finally {
+				crawlCompleted(crawlsPending);
+				// Anche se la scansione fallisce: i task gia' accodati vengono completati
+				try {
+					job.lanes.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					logger.error("Attesa completamento thread interrotta");
+				}
+			}
+			awaitLanes(job);
+			// Pulizia cartelle vuote nella source
+			if (workLeases != null) {
+				// Un solo worker, dopo il completamento di tutte le unita'
+				workLeases.runAll(job, Collections.singletonList(new WorkLeases.Unit(
+						(untilYearMonth != null ? "glacier-cleanup-" : "reorganize-cleanup-") + job.name, () -> {
+							logger.info("=== Pulizia cartelle vuote{} ===", jobs.size() > 1 ? " job \"" + job.name + "\"" : "");
+							job.foldersDeleted = deleteEmptyFolders(driveService, job.sourceId, recursive);
+						})));
+			} else {
+				logger.info("=== Pulizia cartelle vuote{} ===", jobs.size() > 1 ? " job \"" + job.name + "\"" : "");
+				job.foldersDeleted = job.tree != null
+						? deleteEmptyFolders(driveService, job.tree)
+						: deleteEmptyFolders(driveService, job.sourceId, recursive);
+			}
+		} finally {
+			job.tree = null;
+			job.elapsedNanos = System.nanoTime() - start;
+		}
+	}
+
+	private static void crawlCompleted(AtomicInteger crawlsPending) {
+		if (crawlsPending.decrementAndGet() == 0) {
+			ProgressReporter.crawlCompleted();
+		}
+	}
+
+	/**
+	 * Azzera la cache delle cartelle e i job dell'ultima esecuzione, per eseguire piu' volte una
+	 * modalita' nello stesso processo (benchmark end-to-end).
+	 */
+	static synchronized void resetState() {
+		folderCache.clear();
+		jobs = Collections.emptyList();
+	}
+
+	static int getFilesMoved() {
+		return Job.total(jobs).filesMoved.get();
+	}
+
+	static int getFilesError() {
+		return Job.total(jobs).filesError.get();
+	}
+
+	static int getGlacierFilesArchived() {
+		return Job.total(jobs).glacierFilesArchived.get();
 	}
 
 	private static boolean checkArgs(String[] args) {
 		if (args.length < 1) {
-			logger.fatal("Uso corretto: java -jar googledrivereorganize.jar [-r|-l|-a|-rec|-g YYYY-MM] [-dry]");
+			logger.fatal("Uso corretto: java -jar googledrivereorganize.jar [-r|-l|-a|-rec|-recg|-g YYYY-MM] [-dry] [-estimate] [-daemon]");
 			logger.fatal("  -r          : Reorganize - sposta i file nella struttura ANNO/MESE");
 			logger.fatal("  -l          : List - elenca il contenuto della cartella sorgente");
 			logger.fatal("  -a          : Analyze - analizza i pattern dei nomi file");
 			logger.fatal("  -rec        : Recover - scarica i file elencati in torecover.txt");
+			logger.fatal("  -recg       : Recover glacier - estrae dagli archivi glacier i file elencati in torecover.txt");
 			logger.fatal("  -g YYYY-MM  : Glacier - archivia in ZIP i file con data <= YYYY-MM");
 			logger.fatal("  -dry        : Dry run - simula le operazioni senza modificare nulla");
+			logger.fatal("  -estimate   : Con -r o -g, stima file, byte, ZIP, chiamate API e durata leggendo solo i metadati");
+			logger.fatal("  -daemon     : Con -r, resta attivo e sposta i file nuovi o modificati (feed delle modifiche di Drive)");
 			return false;
 		}
 
@@ -163,6 +485,8 @@ public class App {
 				executeAnalyze = true;
 			} else if (arg.equals("-rec")) {
 				executeRecover = true;
+			} else if (arg.equals("-recg")) {
+				executeRecoverGlacier = true;
 			} else if (arg.equals("-g")) {
 				executeGlacier = true;
 				if (i + 1 >= args.length) {
@@ -176,32 +500,403 @@ public class App {
 				}
 			} else if (arg.equals("-dry")) {
 				dryRun = true;
+			} else if (arg.equals("-estimate")) {
+				estimate = true;
+			} else if (arg.equals("-daemon")) {
+				daemonMode = true;
 			}
 		}
 
-		if (!executeReorganize && !executeList && !executeAnalyze && !executeRecover && !executeGlacier) {
-			logger.fatal("Errore: specificare -r (reorganize), -l (list), -a (analyze), -rec (recover) o -g (glacier)");
+		if (!executeReorganize && !executeList && !executeAnalyze && !executeRecover && !executeRecoverGlacier && !executeGlacier) {
+			logger.fatal("Errore: specificare -r (reorganize), -l (list), -a (analyze), -rec (recover), -recg (recover glacier) o -g (glacier)");
 			return false;
 		}
 
 		int modeCount = (executeReorganize ? 1 : 0) + (executeList ? 1 : 0) + (executeAnalyze ? 1 : 0)
-				+ (executeRecover ? 1 : 0) + (executeGlacier ? 1 : 0);
+				+ (executeRecover ? 1 : 0) + (executeRecoverGlacier ? 1 : 0) + (executeGlacier ? 1 : 0);
 		if (modeCount > 1) {
-			logger.fatal("Errore: specificare solo una modalita' tra -r, -l, -a, -rec e -g");
+			logger.fatal("Errore: specificare solo una modalita' tra -r, -l, -a, -rec, -recg e -g");
+			return false;
+		}
+
+		if (estimate && !executeReorganize && !executeGlacier) {
+			logger.fatal("Errore: -estimate e' utilizzabile solo con -r o -g");
+			return false;
+		}
+
+		if (daemonMode && (!executeReorganize || estimate)) {
+			logger.fatal("Errore: -daemon e' utilizzabile solo con -r (senza -estimate)");
 			return false;
 		}
 
 		return true;
 	}
 
+	/**
+	 * Applica il profilo di logging (logging.profile): "default" lascia la configurazione
+	 * indicata all'avvio, altrimenti carica config/log4j-{profilo}.xml (es. "async").
+	 */
+	private static void configureLogging() {
+		String profile = Settings.logging.profile;
+		if (profile == null || profile.isBlank() || "default".equals(profile)) {
+			return;
+		}
+		Path config = Paths.get("config", "log4j-" + profile + ".xml");
+		if (!Files.exists(config)) {
+			logger.warn("Profilo di logging \"{}\": file {} non trovato, configurazione invariata", profile, config);
+			return;
+		}
+		Configurator.reconfigure(config.toUri());
+		logger.info("Profilo di logging \"{}\" attivo ({})", profile, config);
+	}
+
 	public static Drive getDriveService() throws IOException {
-		GoogleCredentials credentials = GoogleCredentials.fromStream(
-				java.nio.file.Files.newInputStream(Paths.get(Settings.serviceAccountKeyFile)))
-				.createScoped(Collections.singleton(DriveScopes.DRIVE));
+		HttpRequestInitializer requestInitializer;
+		List<String> keyFiles = Settings.getServiceAccountKeyFiles();
+		serviceAccountPool = null;
+		if (Settings.hasTrafficReplay()) {
+			// Replay: nessuna chiamata a Drive, credenziali non necessarie
+			requestInitializer = request -> { };
+		} else if (Settings.hasCustomRootUrl() && !Files.exists(Paths.get(keyFiles.get(0)))) {
+			// Endpoint di test senza credenziali: richieste non autenticate
+			logger.warn("Endpoint Drive {} senza file delle credenziali: richieste non autenticate", Settings.drive.rootUrl);
+			requestInitializer = request -> { };
+		} else if (Settings.serviceAccountKeyFiles != null) {
+			// serviceAccountKeyFiles: chiamate ripartite, con cambio di account (o attesa) sul rate limit
+			serviceAccountPool = ServiceAccountPool.load(keyFiles, Settings.drive.throttleCooldownSeconds);
+			requestInitializer = serviceAccountPool;
+		} else {
+			GoogleCredentials credentials = GoogleCredentials.fromStream(
+					java.nio.file.Files.newInputStream(Paths.get(keyFiles.get(0))))
+					.createScoped(Collections.singleton(DriveScopes.DRIVE));
+			requestInitializer = new HttpCredentialsAdapter(credentials);
+		}
+		if (capacityEstimate != null) {
+			requestInitializer = capacityEstimate.wrap(requestInitializer);
+		}
+
+		// Tutte le chiamate Drive passano dal transport strumentato (metriche per operazione);
+		// sotto di esso la rete, la rete con registrazione del traffico o il replay di un archivio
+		HttpTransport transport;
+		if (Settings.hasTrafficReplay()) {
+			transport = new ReplayHttpTransport(Paths.get(Settings.traffic.replay));
+		} else if (Settings.hasTrafficRecord()) {
+			transport = new RecordingHttpTransport(new NetHttpTransport(), Paths.get(Settings.traffic.record), Settings.traffic.randomContent,
+					Settings.traffic.maxBodyMB * 1024L * 1024L);
+		} else {
+			transport = new NetHttpTransport();
+		}
+		driveTransport = new MetricsHttpTransport(transport);
+		Drive.Builder builder = new Drive.Builder(driveTransport, JSON_FACTORY, requestInitializer)
+				.setApplicationName("Drive API Java Reorganize");
+		if (Settings.hasCustomRootUrl()) {
+			String rootUrl = Settings.drive.rootUrl.endsWith("/") ? Settings.drive.rootUrl : Settings.drive.rootUrl + "/";
+			builder.setRootUrl(rootUrl);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Chiude il transport Drive: completa l'archivio del traffico registrato o riporta il
+	 * riepilogo del replay. Riporta anche le chiamate per service account.
+	 */
+	static void shutdownDriveTransport() {
+		if (serviceAccountPool != null) {
+			serviceAccountPool.logSummary();
+		}
+		if (driveTransport == null) {
+			return;
+		}
+		try {
+			driveTransport.shutdown();
+		} catch (IOException e) {
+			logger.error("Errore in chiusura del transport Drive: {}", e.getMessage());
+		}
+		driveTransport = null;
+	}
+
+	// ==================== DAEMON ====================
+
+	/**
+	 * Modalita' daemon (-r -daemon): una scansione completa delle sorgenti, poi ogni
+	 * daemon.pollSeconds la lettura del feed delle modifiche di Drive (changes.list) e lo
+	 * spostamento dei soli file nuovi o modificati nelle cartelle della sorgente. Ogni
+	 * daemon.resyncHours la scansione completa viene ripetuta (modifiche perse, cartelle spostate,
+	 * pulizia delle cartelle vuote). Termina alla richiesta di arresto (SIGTERM): i file in coda non
+	 * ancora avviati vengono scartati (li riprende la scansione del prossimo avvio), quelli avviati
+	 * completati entro daemon.shutdownSeconds.
+	 */
+	static void daemon(Drive service, List<Job> jobList) throws IOException {
+		jobs = jobList;
+		Stages stages = new Stages(false);
+		ProgressReporter.setStages(stages);
+		for (Job job : jobList) {
+			job.sourceFolders = new ConcurrentHashMap<>();
+			job.lanes = stages.newLanes(job.name);
+			job.failures.disableDefer();
+		}
+		DaemonStatus.started();
+		long start = System.nanoTime();
+		String pageToken = null;
+		long nextResyncNanos = start;
+		try {
+			while (!DaemonStatus.isStopRequested()) {
+				try {
+					if (pageToken == null || (Settings.daemon.resyncHours > 0 && System.nanoTime() - nextResyncNanos >= 0)) {
+						pageToken = resync(service, jobList);
+						nextResyncNanos = System.nanoTime() + TimeUnit.HOURS.toNanos(Settings.daemon.resyncHours);
+						ProgressReporter.crawlCompleted();
+					} else {
+						pageToken = pollChanges(service, jobList, pageToken);
+					}
+				} catch (IOException e) {
+					DaemonStatus.pollFailed(e);
+					logger.error("Errore nel controllo delle modifiche: {}", e.getMessage());
+				}
+				// Fallimenti del ciclo nel report subito, senza accumularli fino all'arresto
+				FailureReport.write(jobList);
+				DaemonStatus.awaitStop(Settings.daemon.pollSeconds);
+			}
+			stopLanes(jobList);
+		} finally {
+			stages.shutdown();
+			ProgressReporter.setStages(null);
+			for (Job job : jobList) {
+				job.elapsedNanos = System.nanoTime() - start;
+			}
+		}
+		FailureReport.write(jobList);
+		logSummaries(jobList, false);
+		stages.logSummary();
+	}
+
+	/**
+	 * Scansione completa delle sorgenti (come reorganize) con la registrazione delle loro
+	 * cartelle; restituisce il token del feed delle modifiche letto prima della scansione, cosi'
+	 * nessuna modifica avvenuta durante la scansione va persa.
+	 */
+	private static String resync(Drive service, List<Job> jobList) throws IOException {
+		DaemonStatus.resyncStarted();
+		String pageToken = service.changes().getStartPageToken()
+				.setSupportsAllDrives(true)
+				.execute()
+				.getStartPageToken();
+		logger.info("=== Scansione completa delle sorgenti ===");
+		synchronized (App.class) {
+			folderCache.clear();
+		}
+		for (Job job : jobList) {
+			job.sourceFolders.clear();
+			job.sourceFolders.put(job.sourceId, "");
+			reorganizeFolder(service, job, job.sourceId, "", true);
+		}
+		if (!awaitLanes(jobList)) {
+			return pageToken;
+		}
+		for (Job job : jobList) {
+			job.foldersDeleted += deleteEmptyFolders(service, job.sourceId, job.sourceRecursive);
+		}
+		DaemonStatus.resyncCompleted();
+		int folders = 0;
+		for (Job job : jobList) {
+			folders += job.sourceFolders.size();
+		}
+		logger.info("Scansione completa terminata: {} cartelle sorgente seguite", folders);
+		return pageToken;
+	}
+
+	/**
+	 * Legge il feed delle modifiche da pageToken e accoda i file nuovi o modificati nelle
+	 * cartelle della sorgente; restituisce il token da cui riprendere.
+	 */
+	private static String pollChanges(Drive service, List<Job> jobList, String pageToken) throws IOException {
+		int changeCount = 0;
+		int queued = 0;
+		String newStartPageToken = null;
+		while (pageToken != null && !DaemonStatus.isStopRequested()) {
+			ChangeList result = service.changes().list(pageToken)
+					.setSpaces("drive")
+					.setFields("nextPageToken, newStartPageToken, changes(fileId, removed, file(id, name, mimeType, modifiedTime, size, parents, trashed))")
+					.setPageSize(1000)
+					.setSupportsAllDrives(true)
+					.setIncludeItemsFromAllDrives(true)
+					.execute();
+			List<Change> changes = result.getChanges() != null ? result.getChanges() : Collections.emptyList();
+			changeCount += changes.size();
+			// Prima le cartelle: un file creato in una cartella nuova della stessa pagina va gia' accodato
+			for (Change change : changes) {
+				if (isRemoved(change) || FOLDER_MIME_TYPE.equals(change.getFile().getMimeType())) {
+					for (Job job : jobList) {
+						folderChanged(service, job, change);
+					}
+				}
+			}
+			for (Change change : changes) {
+				if (!isRemoved(change) && !FOLDER_MIME_TYPE.equals(change.getFile().getMimeType())) {
+					for (Job job : jobList) {
+						if (fileChanged(service, job, change.getFile())) {
+							queued++;
+						}
+					}
+				}
+			}
+			newStartPageToken = result.getNewStartPageToken();
+			pageToken = result.getNextPageToken();
+		}
+		if (pageToken != null) {
+			// Arresto richiesto a meta' feed: il token non avanza
+			return pageToken;
+		}
+		DaemonStatus.pollSucceeded(changeCount, queued);
+		if (queued > 0) {
+			logger.info("Modifiche lette: {}, file accodati: {}", changeCount, queued);
+		} else {
+			logger.debug("Modifiche lette: {}, nessun file da spostare", changeCount);
+		}
+		return newStartPageToken;
+	}
+
+	private static boolean isRemoved(Change change) {
+		return Boolean.TRUE.equals(change.getRemoved()) || change.getFile() == null
+				|| Boolean.TRUE.equals(change.getFile().getTrashed());
+	}
+
+	/**
+	 * Cartella creata, spostata, rinominata o eliminata: le nuove cartelle della sorgente vengono
+	 * registrate e scansionate, quelle uscite dalla sorgente non sono piu' seguite (le loro
+	 * sottocartelle fino alla prossima scansione completa).
+	 */
+	private static void folderChanged(Drive service, Job job, Change change) throws IOException {
+		String folderId = change.getFileId();
+		if (folderId.equals(job.sourceId)) {
+			return;
+		}
+		String parentId = isRemoved(change) ? null : trackedParent(job, change.getFile());
+		if (parentId == null || !job.sourceRecursive || !isTrackable(job, folderId, change.getFile().getName())) {
+			if (job.sourceFolders.remove(folderId) != null) {
+				logger.info("Cartella {} non piu' nella sorgente{}", folderId, jobSuffix(job));
+			}
+			return;
+		}
+		String folderName = change.getFile().getName();
+		String parentPath = job.sourceFolders.get(parentId);
+		String relativePath = isYearFolder(folderName) || isMonthFolder(folderName) ? parentPath
+				: parentPath.isEmpty() ? folderName : parentPath + "/" + folderName;
+		if (job.sourceFolders.put(folderId, relativePath) == null) {
+			logger.info("Nuova cartella \"{}\" nella sorgente{}: scansione", relativePath, jobSuffix(job));
+			reorganizeFolder(service, job, folderId, relativePath, true);
+		}
+	}
+
+	/**
+	 * Accoda il file se si trova in una cartella della sorgente del job.
+	 */
+	private static boolean fileChanged(Drive service, Job job, File file) {
+		String parentId = trackedParent(job, file);
+		if (parentId == null) {
+			return false;
+		}
+		if (!submitFile(service, job, FileEntry.of(file, parentId), job.sourceFolders.get(parentId))) {
+			return false;
+		}
+		ProgressReporter.discovered(1);
+		return true;
+	}
+
+	private static String trackedParent(Job job, File file) {
+		if (file.getParents() != null) {
+			for (String parentId : file.getParents()) {
+				if (job.sourceFolders.containsKey(parentId)) {
+					return parentId;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cartelle da non seguire: la destinazione (se interna alla sorgente) e, con sorgente e
+	 * destinazione coincidenti, le cartelle anno e mese, dove il daemon stesso sposta i file.
+	 */
+	private static boolean isTrackable(Job job, String folderId, String folderName) {
+		if (folderId.equals(job.destinationId)) {
+			return false;
+		}
+		return !job.sourceId.equals(job.destinationId) || !(isYearFolder(folderName) || isMonthFolder(folderName));
+	}
+
+	private static String jobSuffix(Job job) {
+		return jobs.size() > 1 ? " del job \"" + job.name + "\"" : "";
+	}
+
+	/**
+	 * Attende il completamento dei file in coda; false se nel frattempo e' richiesto l'arresto.
+	 */
+	private static boolean awaitLanes(List<Job> jobList) {
+		try {
+			for (Job job : jobList) {
+				while (!job.lanes.await(1, TimeUnit.SECONDS)) {
+					if (DaemonStatus.isStopRequested()) {
+						return false;
+					}
+				}
+			}
+			return !DaemonStatus.isStopRequested();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Arresto: scarta i file in coda non ancora avviati e attende quelli in corso.
+	 */
+	private static void stopLanes(List<Job> jobList) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Settings.daemon.shutdownSeconds);
+		int discarded = 0;
+		for (Job job : jobList) {
+			discarded += job.lanes.cancel();
+		}
+		logger.info("Arresto del daemon: {} task in coda scartati, attesa di quelli in corso", discarded);
+		try {
+			for (Job job : jobList) {
+				if (!job.lanes.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+					logger.warn("File del job \"{}\" ancora in corso allo scadere di daemon.shutdownSeconds", job.name);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// ==================== ESTIMATE ====================
+
+	/**
+	 * Stima di capacita' per -r o -g: percorre la sorgente come l'esecuzione reale ma legge solo
+	 * i metadati (nessuno spostamento, download, upload o eliminazione). La latenza media delle
+	 * chiamate di scansione e un campione di download (Range request sul file piu' grande)
+	 * servono a proiettare la durata dell'esecuzione reale.
+	 */
+	private static void estimateCapacity(Drive service) throws IOException {
+		for (Job job : Job.configured(executeGlacier)) {
+			if (executeGlacier) {
+				glacierFolder(service, job, job.sourceId, "", glacierUntilYearMonth);
+			} else {
+				reorganizeFolder(service, job, job.sourceId, "");
+			}
+		}
+		long crawlCalls = capacityEstimate.getMeasuredCalls();
+		long crawlNanos = capacityEstimate.getMeasuredNanos();
+
+		String sampleFileId = capacityEstimate.getLargestFileId();
+		if (executeGlacier && sampleFileId != null) {
+			long sampleSize = Math.min(capacityEstimate.getLargestFileSize(), ESTIMATE_SAMPLE_BYTES);
+			long start = System.nanoTime();
+			byte[] sample = downloadDriveRange(service, sampleFileId, 0, sampleSize - 1);
+			capacityEstimate.setThroughputSample(sample.length, System.nanoTime() - start);
+		}
 
-		return new Drive.Builder(new NetHttpTransport(), JSON_FACTORY, new HttpCredentialsAdapter(credentials))
-				.setApplicationName("Drive API Java Reorganize")
-				.build();
+		capacityEstimate.report(executeGlacier, crawlCalls, crawlNanos);
 	}
 
 	public static void listFolderContents(Drive service, String folderId, String indent, boolean recursive) throws IOException {
@@ -223,9 +918,9 @@ public class App {
 			if (files != null && !files.isEmpty()) {
 				hasFiles = true;
 				for (File file : files) {
-					String[] yearMonth = getYearMonthFromGDriveFile(file);
+					int yearMonth = getYearMonthFromGDriveFile(FileEntry.of(file, folderId));
 					logger.info("{}- [FILE] {} (ID: {}, Modified: {}/{}, Size: {})",
-							indent, file.getName(), file.getId(), yearMonth[0], yearMonth[1],
+							indent, file.getName(), file.getId(), yearString(yearMonth), monthString(yearMonth),
 							file.getSize() != null ? file.getSize() : "N/A");
 				}
 			}
@@ -264,33 +959,58 @@ public class App {
 		}
 	}
 
-	public static void reorganizeFolder(Drive service, String folderId, String relativePath) throws IOException {
-		// Process files in current folder (con paginazione)
-		String pageToken = null;
-		do {
-			String fileQuery = String.format("'%s' in parents and mimeType!='%s' and trashed=false", folderId, FOLDER_MIME_TYPE);
-			FileList fileResult = service.files().list()
-					.setQ(fileQuery)
-					.setSpaces("drive")
-					.setFields("nextPageToken, files(id, name, mimeType, modifiedTime, size)")
-					.setPageToken(pageToken)
-					.setSupportsAllDrives(true)
-					.setIncludeItemsFromAllDrives(true)
-					.execute();
+	public static void reorganizeFolder(Drive service, Job job, String folderId, String relativePath) throws IOException {
+		reorganizeFolder(service, job, folderId, relativePath, job.sourceFolders != null);
+	}
 
-			List<File> files = fileResult.getFiles();
-			if (files != null && !files.isEmpty()) {
-				for (File file : files) {
-					final String rp = relativePath;
-					executorService.submit(() -> processFile(service, file, rp));
-				}
-			}
-			pageToken = fileResult.getNextPageToken();
-		} while (pageToken != null);
+	/**
+	 * track: in modalita' daemon registra le sottocartelle visitate tra quelle della sorgente
+	 * (la cartella stessa e' registrata dal chiamante). Le sottocartelle sono lette in parallelo
+	 * nello stadio discover; ritorna al termine della scansione, con i file accodati negli stadi
+	 * successivi. Senza code (stima) la scansione e' ricorsiva sul thread chiamante.
+	 */
+	private static void reorganizeFolder(Drive service, Job job, String folderId, String relativePath, boolean track) throws IOException {
+		if (job.lanes == null) {
+			scanFolder(service, job, folderId, relativePath, track);
+			return;
+		}
+		discoverFolder(service, job, folderId, relativePath, track);
+		try {
+			job.lanes.discover.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Attesa della scansione interrotta");
+		}
+		job.rethrowStageFailure();
+	}
+
+	/**
+	 * Accoda la lettura della cartella nello stadio discover; con la coda piena la cartella e'
+	 * letta dal thread chiamante (un thread dello stadio non attende mai lo stadio stesso).
+	 */
+	private static void discoverFolder(Drive service, Job job, String folderId, String relativePath, boolean track) {
+		Runnable scan = () -> {
+			try {
+				scanFolder(service, job, folderId, relativePath, track);
+			} catch (IOException e) {
+				logger.error("Errore durante la scansione della cartella {}: {}", folderId, e.getMessage());
+				job.stageFailed(e);
+			}
+		};
+		if (!job.lanes.discover.offer(scan)) {
+			scan.run();
+		}
+	}
+
+	private static void scanFolder(Drive service, Job job, String folderId, String relativePath, boolean track) throws IOException {
+		if (DaemonStatus.isStopRequested() || job.isLeaseLost()) {
+			return;
+		}
+		reorganizeFiles(service, job, folderId, relativePath);
 
 		// Process subfolders if recursive (con paginazione)
-		if (Settings.folder.source.recursive) {
-			pageToken = null;
+		if (job.sourceRecursive) {
+			String pageToken = null;
 			do {
 				String folderQuery = String.format("'%s' in parents and mimeType='%s' and trashed=false", folderId, FOLDER_MIME_TYPE);
 				FileList folderResult = service.files().list()
@@ -306,17 +1026,29 @@ public class App {
 				if (folders != null && !folders.isEmpty()) {
 					for (File folder : folders) {
 						String folderName = folder.getName();
+						String childPath;
 						if (isYearFolder(folderName)) {
 							// Entro nella cartella anno ma non la aggiungo al relativePath
 							logger.debug("Entro nella cartella anno \"{}\" (non aggiunta al relativePath)", folderName);
-							reorganizeFolder(service, folder.getId(), relativePath);
+							childPath = relativePath;
 						} else if (isMonthFolder(folderName)) {
 							// Entro nella cartella mese ma non la aggiungo al relativePath
 							logger.debug("Entro nella cartella mese \"{}\" (non aggiunta al relativePath)", folderName);
-							reorganizeFolder(service, folder.getId(), relativePath);
+							childPath = relativePath;
+						} else {
+							childPath = relativePath.isEmpty() ? folderName : relativePath + "/" + folderName;
+						}
+						if (job.tree != null) {
+							job.tree.folder(folderId, folder.getId(), folderName, true);
+						}
+						boolean trackChild = track && isTrackable(job, folder.getId(), folderName);
+						if (trackChild) {
+							job.sourceFolders.put(folder.getId(), childPath);
+						}
+						if (job.lanes != null) {
+							discoverFolder(service, job, folder.getId(), childPath, trackChild);
 						} else {
-							String newRelativePath = relativePath.isEmpty() ? folderName : relativePath + "/" + folderName;
-							reorganizeFolder(service, folder.getId(), newRelativePath);
+							scanFolder(service, job, folder.getId(), childPath, trackChild);
 						}
 					}
 				}
@@ -325,50 +1057,240 @@ public class App {
 		}
 	}
 
-	private static void processFile(Drive service, File file, String relativePath) {
-		filesProcessed.incrementAndGet();
-		String fileName = file.getName();
+	/**
+	 * Reorganize diviso in unita' tra i worker (workers.leaseDir): i file della cartella sorgente
+	 * e ogni sua sottocartella di primo livello. Un'unita' e' completata quando i suoi file sono
+	 * stati elaborati, quindi un worker terminato in modo anomalo non lascia file indietro.
+	 */
+	private static void reorganizeUnits(Drive service, Job job) throws IOException {
+		String prefix = "reorganize-" + job.name + "-";
+		List<WorkLeases.Unit> units = new ArrayList<>();
+		units.add(new WorkLeases.Unit(prefix + job.sourceId, () -> {
+			reorganizeFiles(service, job, job.sourceId, "");
+			awaitLanes(job);
+		}));
+		if (job.sourceRecursive) {
+			String pageToken = null;
+			do {
+				String folderQuery = String.format("'%s' in parents and mimeType='%s' and trashed=false", job.sourceId, FOLDER_MIME_TYPE);
+				FileList folderResult = service.files().list()
+						.setQ(folderQuery)
+						.setSpaces("drive")
+						.setFields("nextPageToken, files(id, name)")
+						.setPageToken(pageToken)
+						.setSupportsAllDrives(true)
+						.setIncludeItemsFromAllDrives(true)
+						.execute();
+
+				if (folderResult.getFiles() != null) {
+					for (File folder : folderResult.getFiles()) {
+						String folderName = folder.getName();
+						// Cartelle anno e mese non aggiunte al relativePath, come in reorganizeFolder
+						String relativePath = isYearFolder(folderName) || isMonthFolder(folderName) ? "" : folderName;
+						units.add(new WorkLeases.Unit(prefix + folder.getId(), () -> {
+							reorganizeFolder(service, job, folder.getId(), relativePath);
+							awaitLanes(job);
+						}));
+					}
+				}
+				pageToken = folderResult.getNextPageToken();
+			} while (pageToken != null);
+		}
+		logger.info("Reorganize{}: {} unita' di lavoro", jobSuffix(job), units.size());
+		workLeases.runAll(job, units);
+	}
+
+	/**
+	 * Attende i task del job in tutti gli stadi, esegue il ripasso finale delle operazioni fallite
+	 * e propaga l'eventuale errore che interrompe il job.
+	 */
+	private static void awaitLanes(Job job) throws IOException {
+		try {
+			job.lanes.await();
+			retryFailures(job);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Attesa completamento thread interrotta");
+		}
+		job.rethrowStageFailure();
+	}
 
-		// Extract year/month from modifiedTime
-		String[] yearMonth = getYearMonthFromGDriveFile(file);
-		String year = yearMonth[0];
-		String month = yearMonth[1];
+	/**
+	 * Ripasso finale: con gli stadi del job ormai fermi, le operazioni fallite dopo tutti i
+	 * tentativi vengono ripetute una volta (con gli stessi tentativi); quelle che falliscono
+	 * ancora sono definitive e finiscono nel report (operation.failureReport).
+	 */
+	private static void retryFailures(Job job) throws InterruptedException {
+		List<FailureReport.Failure> failures = job.failures.startFinalPass();
+		if (failures.isEmpty()) {
+			return;
+		}
+		logger.info("Ripasso finale{}: {} operazioni fallite dopo {} tentativi", jobSuffix(job), failures.size(),
+				Settings.operation.retry);
+		try {
+			for (FailureReport.Failure failure : failures) {
+				failure.retry.run();
+			}
+			job.lanes.await();
+		} finally {
+			job.failures.endFinalPass();
+		}
+	}
 
-		// Build destination path: ANNO/MESE/relativePath (YYYY/MM in testa)
-		List<String> pathSegments = new ArrayList<>();
-		pathSegments.add(year);
-		pathSegments.add(month);
-		if (relativePath != null && !relativePath.isEmpty()) {
-			for (String segment : relativePath.split("/")) {
-				if (!segment.isEmpty() && !".".equals(segment) && !"..".equals(segment)) {
-					pathSegments.add(segment);
+	/**
+	 * Accoda i file della cartella (non delle sottocartelle) nella coda del job.
+	 */
+	private static void reorganizeFiles(Drive service, Job job, String folderId, String relativePath) throws IOException {
+		if (capacityEstimate != null) {
+			capacityEstimate.addSourceFolder();
+		}
+		// Process files in current folder (con paginazione)
+		String pageToken = null;
+		do {
+			String fileQuery = String.format("'%s' in parents and mimeType!='%s' and trashed=false", folderId, FOLDER_MIME_TYPE);
+			FileList fileResult = service.files().list()
+					.setQ(fileQuery)
+					.setSpaces("drive")
+					.setFields("nextPageToken, files(id, name, mimeType, modifiedTime, size)")
+					.setPageToken(pageToken)
+					.setSupportsAllDrives(true)
+					.setIncludeItemsFromAllDrives(true)
+					.execute();
+
+			List<File> files = fileResult.getFiles();
+			if (DaemonStatus.isStopRequested() || job.isLeaseLost()) {
+				return;
+			}
+			if (files != null && !files.isEmpty()) {
+				ProgressReporter.discovered(files.size());
+				if (job.tree != null) {
+					job.tree.items(folderId, files.size());
+				}
+				for (File file : files) {
+					// In coda va solo la forma compatta: il File del client Drive viene rilasciato con la pagina
+					FileEntry entry = FileEntry.of(file, folderId);
+					if (capacityEstimate != null) {
+						int yearMonth = getYearMonthFromGDriveFile(entry);
+						capacityEstimate.addReorganizeFile(entry.id, entry.sizeOrZero(),
+								yearMonth, destinationSegments(yearMonth, relativePath));
+						continue;
+					}
+					submitFile(service, job, entry, relativePath);
 				}
 			}
+			pageToken = fileResult.getNextPageToken();
+		} while (pageToken != null);
+	}
+
+	/**
+	 * Accoda il file nello stadio resolve, gia' classificato (percorso di destinazione calcolato
+	 * dallo stadio discover). In modalita' daemon un file gia' in coda (scansione e feed delle
+	 * modifiche, o piu' modifiche ravvicinate) non viene accodato di nuovo.
+	 */
+	private static boolean submitFile(Drive service, Job job, FileEntry entry, String relativePath) {
+		if (job.sourceFolders != null && !job.pendingFiles.add(entry.id)) {
+			return false;
 		}
+		List<String> pathSegments = destinationSegments(getYearMonthFromGDriveFile(entry), relativePath);
+		job.filesProcessed.incrementAndGet();
+		submitResolve(service, job, entry, pathSegments);
+		return true;
+	}
 
-		String destinationPath = String.join("/", pathSegments);
-		logger.info("Elaborazione file \"{}\" -> {}/{}", fileName, destinationPath, fileName);
+	/**
+	 * Stadio resolve: cartella di destinazione (creata se manca) e nome libero, poi lo
+	 * spostamento viene accodato nello stadio mutate. Un tentativo fallito viene ripianificato
+	 * nello stadio ({@link RetryTask}).
+	 */
+	private static void submitResolve(Drive service, Job job, FileEntry file, List<String> pathSegments) {
+		String fileName = file.name;
+
+		// Il percorso testuale serve solo ai log per file (DEBUG, o INFO in dry run): costruito solo se verra' scritto
+		String destinationPath = dryRun || logger.isDebugEnabled() ? String.join("/", pathSegments) : null;
+
+		RetryTask.submit(job.lanes.resolve, "destinazione del file \"" + fileName + "\"", () -> {
+			logger.debug("Elaborazione file \"{}\" -> {}/{}", fileName, destinationPath, fileName);
 
-		try {
 			// Ensure remote path exists
-			String targetFolderId = ensureRemotePath(service, Settings.folder.destination.id, pathSegments);
+			String targetFolderId = ensureRemotePath(service, job.destinationId, pathSegments);
 
-			// Resolve conflicts
+			// Resolve conflicts (nome riservato fino allo spostamento)
 			String finalFileName = resolveConflict(service, targetFolderId, fileName);
 
+			submitMove(service, job, file, pathSegments, targetFolderId, finalFileName, destinationPath);
+		}, e -> fileFailed(service, job, file, pathSegments, "destinazione", e));
+	}
+
+	/**
+	 * Stadio mutate: spostamento del file nella cartella di destinazione con il nome risolto. Un
+	 * tentativo fallito viene ripianificato nello stadio ({@link RetryTask}) senza occupare il thread.
+	 */
+	private static void submitMove(Drive service, Job job, FileEntry file, List<String> pathSegments,
+			String targetFolderId, String finalFileName, String destinationPath) {
+		String fileName = file.name;
+		RetryTask.submit(job.lanes.mutate, "spostamento file \"" + fileName + "\"", () -> {
+			if (job.isLeaseLost()) {
+				// Unita' ripresa da un altro worker: il file e' suo
+				releaseName(targetFolderId, finalFileName);
+				return;
+			}
 			// Move file
 			if (dryRun) {
 				logger.info("[DRY RUN] Spostamento file \"{}\" in {} come \"{}\"", fileName, destinationPath, finalFileName);
-				filesMoved.incrementAndGet();
 			} else {
-				moveFile(service, file.getId(), targetFolderId, finalFileName);
-				logger.info("File \"{}\" spostato in {} come \"{}\"", fileName, destinationPath, finalFileName);
-				filesMoved.incrementAndGet();
+				moveFile(service, file.id, file.parentId, targetFolderId, finalFileName);
+				logger.debug("File \"{}\" spostato in {} come \"{}\"", fileName, destinationPath, finalFileName);
+			}
+			job.filesMoved.incrementAndGet();
+			if (job.tree != null) {
+				job.tree.removed(file.parentId, 1);
+			}
+			releaseName(targetFolderId, finalFileName);
+			fileCompleted(job, file);
+		}, e -> {
+			releaseName(targetFolderId, finalFileName);
+			fileFailed(service, job, file, pathSegments, "spostamento", e);
+		});
+	}
+
+	/**
+	 * File non spostato: rinviato al ripasso finale del job (di nuovo dallo stadio resolve, con
+	 * cartella e nome verificati di nuovo) o, se il fallimento e' definitivo, in errore.
+	 */
+	private static void fileFailed(Drive service, Job job, FileEntry file, List<String> pathSegments, String operation,
+			IOException e) {
+		if (job.failures.failed(operation, file.id, file.name, e,
+				() -> submitResolve(service, job, file, pathSegments))) {
+			logger.warn("File \"{}\" rinviato al ripasso finale: {}", file.name, e.getMessage());
+			return;
+		}
+		logger.error("Errore durante l'elaborazione del file \"{}\": {}", file.name, e.getMessage());
+		job.filesError.incrementAndGet();
+		fileCompleted(job, file);
+	}
+
+	private static void fileCompleted(Job job, FileEntry file) {
+		if (job.sourceFolders != null) {
+			job.pendingFiles.remove(file.id);
+		}
+		ProgressReporter.processed(1);
+	}
+
+	/**
+	 * Percorso di destinazione: ANNO/MESE/relativePath (YYYY/MM in testa).
+	 */
+	private static List<String> destinationSegments(int yearMonth, String relativePath) {
+		List<String> pathSegments = new ArrayList<>();
+		pathSegments.add(yearString(yearMonth));
+		pathSegments.add(monthString(yearMonth));
+		if (relativePath != null && !relativePath.isEmpty()) {
+			for (String segment : relativePath.split("/")) {
+				if (!segment.isEmpty() && !".".equals(segment) && !"..".equals(segment)) {
+					pathSegments.add(segment);
+				}
 			}
-		} catch (IOException e) {
-			logger.error("Errore durante l'elaborazione del file \"{}\": {}", fileName, e.getMessage());
-			filesError.incrementAndGet();
 		}
+		return pathSegments;
 	}
 
 	private static boolean isYearFolder(String name) {
@@ -395,76 +1317,161 @@ public class App {
 		}
 	}
 
-	private static String[] getYearMonthFromGDriveFile(File file) {
+	/**
+	 * Ritorna anno e mese del file nel formato compatto yyyymm: prima dalla data nel nome,
+	 * altrimenti dal modifiedTime, altrimenti dalla data odierna.
+	 */
+	static int getYearMonthFromGDriveFile(FileEntry file) {
 		// Prima cerca una data nel nome del file
-		String[] fromName = extractDateFromFileName(file.getName());
-		if (fromName != null && !"00".equals(fromName[1])) {
-			// Anno e mese completi dal nome
-			logger.debug("Data estratta dal nome file \"{}\": {}/{}", file.getName(), fromName[0], fromName[1]);
-			return fromName;
-		}
-
-		if (fromName != null && "00".equals(fromName[1])) {
-			// Anno dal nome, mese dal modifiedTime
-			String year = fromName[0];
-			DateTime modifiedTime = file.getModifiedTime();
-			if (modifiedTime != null) {
-				long timestamp = modifiedTime.getValue();
-				Instant instant = Instant.ofEpochMilli(timestamp);
-				LocalDate date = instant.atZone(ZoneId.systemDefault()).toLocalDate();
-				String month = String.format("%02d", date.getMonthValue());
-				logger.debug("File \"{}\": anno {} dal nome, mese {} da modifiedTime", file.getName(), year, month);
-				return new String[]{year, month};
-			}
-			// Nessun modifiedTime, usa mese 01 come fallback
-			logger.debug("File \"{}\": anno {} dal nome, mese non disponibile, uso 01", file.getName(), year);
-			return new String[]{year, "01"};
+		int fromName = extractDatePacked(file.name, false);
+		if (fromName >= 0) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Data estratta dal nome file \"{}\": {}/{}", file.name, yearString(fromName / 100), monthString(fromName / 100));
+			}
+			return fromName / 100;
 		}
 
 		// Fallback: usa modifiedTime
-		DateTime modifiedTime = file.getModifiedTime();
-		if (modifiedTime == null) {
+		if (!file.hasModifiedTime()) {
 			LocalDate now = LocalDate.now();
-			logger.debug("File \"{}\" senza data nel nome e senza modifiedTime, uso data odierna", file.getName());
-			return new String[]{String.valueOf(now.getYear()), String.format("%02d", now.getMonthValue())};
+			logger.debug("File \"{}\" senza data nel nome e senza modifiedTime, uso data odierna", file.name);
+			return now.getYear() * 100 + now.getMonthValue();
 		}
 
-		long timestamp = modifiedTime.getValue();
-		Instant instant = Instant.ofEpochMilli(timestamp);
-		LocalDate date = instant.atZone(ZoneId.systemDefault()).toLocalDate();
-		String year = String.valueOf(date.getYear());
-		String month = String.format("%02d", date.getMonthValue());
-		logger.debug("File \"{}\" senza data nel nome, uso modifiedTime: {}/{}", file.getName(), year, month);
-		return new String[]{year, month};
+		int yearMonth = epochMillisToPackedDate(file.modifiedMillis) / 100;
+		if (logger.isDebugEnabled()) {
+			logger.debug("File \"{}\" senza data nel nome, uso modifiedTime: {}/{}", file.name, yearString(yearMonth), monthString(yearMonth));
+		}
+		return yearMonth;
 	}
 
-	private static String[] extractDateFromFileName(String fileName) {
-		if (fileName == null) {
-			return null;
+	/**
+	 * Anno (come stringa) di una data compatta yyyymm; per gli anni usuali la stringa e' precalcolata.
+	 */
+	static String yearString(int yearMonth) {
+		int year = yearMonth / 100;
+		if (year >= MIN_YEAR && year <= MAX_YEAR) {
+			return YEAR_STRINGS[year - MIN_YEAR];
 		}
+		return String.valueOf(year);
+	}
+
+	/**
+	 * Mese a due cifre ("01".."12") di una data compatta yyyymm.
+	 */
+	static String monthString(int yearMonth) {
+		return MONTH_STRINGS[yearMonth % 100];
+	}
 
-		// 1) YYYY-MM-DD o YYYY_MM_DD
-		Matcher matcher = DATE_PATTERN.matcher(fileName);
-		if (matcher.find()) {
-			int y = Integer.parseInt(matcher.group(1));
-			int m = Integer.parseInt(matcher.group(2));
-			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12) {
-				return new String[]{matcher.group(1), matcher.group(2)};
+	/**
+	 * Cerca una data nel nome file con una sola scansione, senza regex ne' allocazioni.
+	 * Cerca la prima data YYYY-MM-DD o YYYY_MM_DD e, se assente o non valida,
+	 * la prima data compatta [D]YYYYMMDD (8 cifre consecutive, anche precedute da D come in CAMS).
+	 * Ritorna la data nel formato compatto yyyymmdd, oppure -1 se non trovata.
+	 *
+	 * @param checkSeparatedDay se true anche la data con separatori deve avere un giorno valido
+	 */
+	static int extractDatePacked(String fileName, boolean checkSeparatedDay) {
+		if (fileName == null) {
+			return -1;
+		}
+		int length = fileName.length();
+		int separated = -1;
+		int compact = -1;
+		boolean separatedFound = false;
+		boolean compactFound = false;
+
+		for (int i = 0; i + 8 <= length && !(separatedFound && compactFound); i++) {
+			if (!isDigit(fileName.charAt(i))) {
+				continue;
 			}
+			if (!separatedFound && i + 10 <= length
+					&& isDigits(fileName, i, 4) && isDateSeparator(fileName.charAt(i + 4))
+					&& isDigits(fileName, i + 5, 2) && isDateSeparator(fileName.charAt(i + 7))
+					&& isDigits(fileName, i + 8, 2)) {
+				separatedFound = true;
+				separated = parseDigits(fileName, i, 4) * 10000 + parseDigits(fileName, i + 5, 2) * 100 + parseDigits(fileName, i + 8, 2);
+				if (isValidDate(separated, checkSeparatedDay)) {
+					return separated;
+				}
+			}
+			if (!compactFound && isDigits(fileName, i, 8)) {
+				compactFound = true;
+				compact = parseDigits(fileName, i, 8);
+			}
+		}
+
+		if (compactFound && isValidDate(compact, true)) {
+			return compact;
 		}
+		return -1;
+	}
+
+	private static boolean isValidDate(int packed, boolean checkDay) {
+		int y = packed / 10000;
+		int m = (packed / 100) % 100;
+		int d = packed % 100;
+		return y >= MIN_YEAR && y <= MAX_YEAR && m >= 1 && m <= 12 && (!checkDay || (d >= 1 && d <= 31));
+	}
 
-		// 2) YYYYMMDD compatto (anche con prefisso D per CAMS)
-		Matcher compactMatcher = DATE_COMPACT_PATTERN.matcher(fileName);
-		if (compactMatcher.find()) {
-			int y = Integer.parseInt(compactMatcher.group(1));
-			int m = Integer.parseInt(compactMatcher.group(2));
-			int d = Integer.parseInt(compactMatcher.group(3));
-			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12 && d >= 1 && d <= 31) {
-				return new String[]{compactMatcher.group(1), compactMatcher.group(2)};
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isDateSeparator(char c) {
+		return c == '-' || c == '_';
+	}
+
+	private static boolean isDigits(String s, int start, int count) {
+		for (int i = start; i < start + count; i++) {
+			if (!isDigit(s.charAt(i))) {
+				return false;
 			}
 		}
+		return true;
+	}
 
-		return null;
+	private static int parseDigits(String s, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			value = value * 10 + (s.charAt(i) - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Converte un timestamp in data compatta yyyymmdd nel fuso di sistema,
+	 * senza creare Instant/LocalDate quando il fuso ha offset fisso.
+	 */
+	static int epochMillisToPackedDate(long epochMillis) {
+		ZoneRules rules = ZONE.getRules();
+		int offsetSeconds = rules.isFixedOffset()
+				? FIXED_ZONE_OFFSET_SECONDS
+				: rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+		long epochDay = Math.floorDiv(Math.floorDiv(epochMillis, 1000L) + offsetSeconds, 86400L);
+
+		// Conversione giorno epoch -> data civile (calendario gregoriano prolettico, come LocalDate)
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Formatta una data compatta yyyymmdd come stringa di 8 cifre.
+	 */
+	static String formatDateCompact(int packed) {
+		String value = Integer.toString(packed);
+		if (packed >= 10000000 || packed < 0) {
+			return value;
+		}
+		return "00000000".substring(value.length()) + value;
 	}
 
 	private static String ensureRemotePath(Drive service, String startFolderId, List<String> segments) throws IOException {
@@ -492,6 +1499,13 @@ public class App {
 			return fakeFolderId;
 		}
 
+		// Con piu' worker verifica e creazione avvengono con il lock tra processi sulla cartella
+		try (Closeable lock = workLeases != null && !dryRun ? workLeases.lockFolder(parentId, folderName) : null) {
+			return findOrCreateFolder(service, parentId, folderName, cacheKey);
+		}
+	}
+
+	private static String findOrCreateFolder(Drive service, String parentId, String folderName, String cacheKey) throws IOException {
 		String query = String.format("name='%s' and '%s' in parents and mimeType='%s' and trashed=false",
 				folderName, parentId, FOLDER_MIME_TYPE);
 		Drive.Files.List request = service.files().list()
@@ -530,6 +1544,9 @@ public class App {
 		return folder.getId();
 	}
 
+	/**
+	 * Primo nome libero nella cartella (nome_N.ext), riservato fino a {@link #releaseName}.
+	 */
 	private static String resolveConflict(Drive service, String folderId, String fileName) throws IOException {
 		String baseName = fileName;
 		String extension = "";
@@ -542,7 +1559,7 @@ public class App {
 		String currentName = fileName;
 		int counter = 0;
 
-		while (fileExistsInFolder(service, folderId, currentName)) {
+		while (fileExistsInFolder(service, folderId, currentName) || !reservedNames.add(folderId + "/" + currentName)) {
 			counter++;
 			currentName = baseName + "_" + counter + extension;
 			logger.debug("Conflitto rilevato, tentativo con nome: {}", currentName);
@@ -555,6 +1572,13 @@ public class App {
 		return currentName;
 	}
 
+	/**
+	 * Rilascia il nome riservato da resolveConflict (spostamento eseguito o fallito).
+	 */
+	private static void releaseName(String folderId, String fileName) {
+		reservedNames.remove(folderId + "/" + fileName);
+	}
+
 	private static boolean fileExistsInFolder(Drive service, String folderId, String fileName) throws IOException {
 		if (dryRun && folderId.startsWith("dryrun-")) {
 			return false;
@@ -572,26 +1596,78 @@ public class App {
 		return result.getFiles() != null && !result.getFiles().isEmpty();
 	}
 
+	/**
+	 * Analisi dei pattern dei nomi file. La scansione e' parallela (maxThreads cartelle alla volta):
+	 * ogni pagina di risultati viene contata localmente e poi unita nel contatore condiviso.
+	 * Con analyze.topK &gt; 0 vengono tenuti solo i pattern piu' frequenti (Space-Saving, memoria fissa).
+	 */
 	public static void analyzeFolder(Drive service, String folderId, boolean recursive) throws IOException {
-		Map<String, Integer> patternCounts = new HashMap<>();
-		collectFilePatterns(service, folderId, recursive, patternCounts);
-
-		// Sort by count descending
-		Map<String, Integer> sorted = patternCounts.entrySet().stream()
-				.sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+		PatternCounter patternCounts = Settings.analyze.topK > 0
+				? PatternCounter.topK(Settings.analyze.topK)
+				: PatternCounter.exact();
+
+		ExecutorService analyzeExecutor = Executors.newFixedThreadPool(Settings.operation.maxThreads);
+		AtomicInteger pendingFolders = new AtomicInteger(0);
+		AtomicInteger foldersError = new AtomicInteger(0);
+		CountDownLatch completed = new CountDownLatch(1);
+		try {
+			submitFolderAnalysis(analyzeExecutor, service, folderId, recursive, patternCounts, pendingFolders, foldersError, completed);
+			completed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Analisi interrotta", e);
+		} finally {
+			analyzeExecutor.shutdownNow();
+		}
 
-		int totalFiles = sorted.values().stream().mapToInt(Integer::intValue).sum();
+		List<PatternCounter.Result> results = patternCounts.results();
 
 		logger.info("=== ANALISI PATTERN FILE ===");
-		for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
-			logger.info("  {}\t({} file)", entry.getKey(), entry.getValue());
+		if (patternCounts.isApproximate()) {
+			logger.info("(top {} pattern, conteggi stimati: il conteggio reale e' compreso tra conteggio-errore e conteggio)",
+					Settings.analyze.topK);
+			for (PatternCounter.Result result : results) {
+				logger.info("  {}\t({} file, errore max {})", result.pattern, result.count, result.error);
+			}
+		} else {
+			for (PatternCounter.Result result : results) {
+				logger.info("  {}\t({} file)", result.pattern, result.count);
+			}
+		}
+		logger.info("=== TOTALE: {} file, {} pattern ===", patternCounts.total(), patternCounts.size());
+		if (foldersError.get() > 0) {
+			logger.warn("Analisi parziale: {} cartelle non lette per errore", foldersError.get());
 		}
-		logger.info("=== TOTALE: {} file, {} pattern ===", totalFiles, sorted.size());
 	}
 
-	private static void collectFilePatterns(Drive service, String folderId, boolean recursive, Map<String, Integer> patternCounts) throws IOException {
+	private static void submitFolderAnalysis(ExecutorService analyzeExecutor, Drive service, String folderId, boolean recursive,
+			PatternCounter patternCounts, AtomicInteger pendingFolders, AtomicInteger foldersError, CountDownLatch completed) {
+		pendingFolders.incrementAndGet();
+		analyzeExecutor.execute(() -> {
+			try {
+				List<String> subfolderIds = collectFilePatterns(service, folderId, recursive, patternCounts);
+				// Le sottocartelle vengono accodate prima di decrementare: il contatore non arriva a 0 finche' c'e' lavoro
+				for (String subfolderId : subfolderIds) {
+					submitFolderAnalysis(analyzeExecutor, service, subfolderId, recursive, patternCounts, pendingFolders, foldersError, completed);
+				}
+			} catch (Exception e) {
+				logger.error("Errore durante l'analisi della cartella {}: {}", folderId, e.getMessage());
+				foldersError.incrementAndGet();
+			} finally {
+				if (pendingFolders.decrementAndGet() == 0) {
+					completed.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Conta i pattern dei file della cartella e ritorna gli id delle sottocartelle da analizzare
+	 * (lista vuota se non ricorsivo).
+	 */
+	private static List<String> collectFilePatterns(Drive service, String folderId, boolean recursive, PatternCounter patternCounts) throws IOException {
 		int folderFileCount = 0;
+		Map<String, Integer> pageCounts = new HashMap<>();
 		String pageToken = null;
 		do {
 			String fileQuery = String.format("'%s' in parents and mimeType!='%s' and trashed=false", folderId, FOLDER_MIME_TYPE);
@@ -599,6 +1675,7 @@ public class App {
 					.setQ(fileQuery)
 					.setSpaces("drive")
 					.setFields("nextPageToken, files(name)")
+					.setPageSize(1000)
 					.setPageToken(pageToken)
 					.setSupportsAllDrives(true)
 					.setIncludeItemsFromAllDrives(true)
@@ -609,46 +1686,152 @@ public class App {
 				folderFileCount += files.size();
 				for (File file : files) {
 					String pattern = normalizeFileName(file.getName());
-					patternCounts.merge(pattern, 1, Integer::sum);
+					pageCounts.merge(pattern, 1, Integer::sum);
 				}
+				patternCounts.merge(pageCounts);
+				pageCounts.clear();
 			}
 			pageToken = fileResult.getNextPageToken();
 		} while (pageToken != null);
 
-		int totalSoFar = patternCounts.values().stream().mapToInt(Integer::intValue).sum();
-		logger.info("Scansione cartella {} : {} file trovati (totale finora: {})", folderId, folderFileCount, totalSoFar);
+		logger.info("Scansione cartella {} : {} file trovati (totale finora: {})", folderId, folderFileCount, patternCounts.total());
 
+		List<String> subfolderIds = new ArrayList<>();
 		if (recursive) {
 			String folderQuery = String.format("'%s' in parents and mimeType='%s' and trashed=false", folderId, FOLDER_MIME_TYPE);
-			FileList folderResult = service.files().list()
-					.setQ(folderQuery)
-					.setSpaces("drive")
-					.setFields("files(id, name)")
-					.setSupportsAllDrives(true)
-					.setIncludeItemsFromAllDrives(true)
-					.execute();
+			pageToken = null;
+			do {
+				FileList folderResult = service.files().list()
+						.setQ(folderQuery)
+						.setSpaces("drive")
+						.setFields("nextPageToken, files(id, name)")
+						.setPageSize(1000)
+						.setPageToken(pageToken)
+						.setSupportsAllDrives(true)
+						.setIncludeItemsFromAllDrives(true)
+						.execute();
 
-			List<File> folders = folderResult.getFiles();
-			if (folders != null) {
-				for (File folder : folders) {
-					logger.info("Entro nella sottocartella \"{}\"", folder.getName());
-					collectFilePatterns(service, folder.getId(), recursive, patternCounts);
+				List<File> folders = folderResult.getFiles();
+				if (folders != null) {
+					for (File folder : folders) {
+						logger.info("Entro nella sottocartella \"{}\"", folder.getName());
+						subfolderIds.add(folder.getId());
+					}
 				}
-			}
+				pageToken = folderResult.getNextPageToken();
+			} while (pageToken != null);
 		}
+		return subfolderIds;
 	}
 
+	/**
+	 * Sostituisce le date nel nome con i segnaposto "YYYY-MM-DD" e "YYYYMMDD" (pattern per l'analisi).
+	 * Lavora su un buffer riutilizzato per thread: se il nome non contiene date ritorna
+	 * l'istanza originale, altrimenti alloca solo la stringa risultato.
+	 */
 	static String normalizeFileName(String fileName) {
-		String result = DATE_PATTERN.matcher(fileName).replaceAll("YYYY-MM-DD");
-		result = DATE_COMPACT_PATTERN.matcher(result).replaceAll("YYYYMMDD");
-		return result;
+		int length = fileName.length();
+		char[] buffer = normalizeBuffer(length);
+		fileName.getChars(0, length, buffer, 0);
+		int newLength = replaceSeparatedDates(buffer, length, SEPARATED_DATE_PLACEHOLDER);
+		newLength = replaceCompactDates(buffer, newLength, COMPACT_DATE_PLACEHOLDER, false);
+		// I segnaposto non contengono cifre: se il buffer coincide con il nome non c'erano date
+		if (newLength == length && regionEquals(buffer, fileName, length)) {
+			return fileName;
+		}
+		return new String(buffer, 0, newLength);
 	}
 
-	private static void recoverFiles(Drive service, String sourceFolderId, boolean recursive) throws IOException {
+	private static boolean regionEquals(char[] buffer, String value, int length) {
+		for (int i = 0; i < length; i++) {
+			if (buffer[i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static char[] normalizeBuffer(int length) {
+		char[] buffer = NORMALIZE_BUFFER.get();
+		if (buffer.length < length) {
+			buffer = new char[Math.max(length, buffer.length * 2)];
+			NORMALIZE_BUFFER.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Sostituisce (in place, da sinistra a destra, senza sovrapposizioni) ogni data
+	 * YYYY-MM-DD / YYYY_MM_DD con replacement (vuoto o di 10 caratteri). Ritorna la nuova lunghezza.
+	 */
+	private static int replaceSeparatedDates(char[] buffer, int length, char[] replacement) {
+		int read = 0;
+		int write = 0;
+		while (read < length) {
+			if (read + 10 <= length && isSeparatedDateAt(buffer, read)) {
+				System.arraycopy(replacement, 0, buffer, write, replacement.length);
+				write += replacement.length;
+				read += 10;
+			} else {
+				buffer[write++] = buffer[read++];
+			}
+		}
+		return write;
+	}
+
+	/**
+	 * Sostituisce (in place) ogni data compatta [D]YYYYMMDD, con le 6 cifre HHmmss opzionali
+	 * se withTime, con replacement (vuoto o di 8 caratteri). Ritorna la nuova lunghezza.
+	 */
+	private static int replaceCompactDates(char[] buffer, int length, char[] replacement, boolean withTime) {
+		int read = 0;
+		int write = 0;
+		while (read < length) {
+			int start = -1;
+			if (buffer[read] == 'D' && read + 9 <= length && isDigits(buffer, read + 1, 8)) {
+				start = read + 1;
+			} else if (read + 8 <= length && isDigits(buffer, read, 8)) {
+				start = read;
+			}
+			if (start < 0) {
+				buffer[write++] = buffer[read++];
+				continue;
+			}
+			int end = start + 8;
+			if (withTime && end + 6 <= length && isDigits(buffer, end, 6)) {
+				end += 6;
+			}
+			System.arraycopy(replacement, 0, buffer, write, replacement.length);
+			write += replacement.length;
+			read = end;
+		}
+		return write;
+	}
+
+	private static boolean isSeparatedDateAt(char[] buffer, int i) {
+		return isDigits(buffer, i, 4) && isDateSeparator(buffer[i + 4])
+				&& isDigits(buffer, i + 5, 2) && isDateSeparator(buffer[i + 7])
+				&& isDigits(buffer, i + 8, 2);
+	}
+
+	private static boolean isDigits(char[] buffer, int start, int count) {
+		for (int i = start; i < start + count; i++) {
+			if (!isDigit(buffer[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Legge i nomi dei file da recuperare da torecover.txt (righe vuote e commenti # ignorati).
+	 * Ritorna null se il file non esiste o non contiene nomi.
+	 */
+	private static List<String> readRecoverList() throws IOException {
 		Path toRecoverPath = Paths.get("torecover.txt");
 		if (!Files.exists(toRecoverPath)) {
 			logger.fatal("File torecover.txt non trovato nella directory corrente");
-			return;
+			return null;
 		}
 
 		// Read file names from torecover.txt
@@ -665,68 +1848,273 @@ public class App {
 
 		if (fileNames.isEmpty()) {
 			logger.warn("Nessun file da recuperare in torecover.txt");
-			return;
+			return null;
 		}
 
 		logger.info("File da recuperare: {}", fileNames.size());
+		return fileNames;
+	}
+
+	private static void recoverFiles(Drive service, String sourceFolderId, boolean recursive) throws IOException {
+		List<String> fileNames = readRecoverList();
+		if (fileNames == null) {
+			return;
+		}
 
 		// Create recover directory
 		Path recoverDir = Paths.get("recover");
 		Files.createDirectories(recoverDir);
 
-		int found = 0;
-		int notFound = 0;
-
-		for (String fileName : fileNames) {
-			logger.info("Ricerca file \"{}\" ...", fileName);
-			File driveFile = searchFileRecursive(service, sourceFolderId, fileName, recursive);
+		// Ricerca per nome a blocchi: una query OR per piu' nomi invece di una chiamata per nome
+		Map<String, File> driveFiles = searchFilesByName(service, fileNames);
 
-			if (driveFile == null) {
-				logger.warn("File \"{}\" non trovato su Google Drive", fileName);
-				notFound++;
-				continue;
+		// Download in parallelo (una sola volta per nome distinto), con retry per singolo file
+		Map<String, Future<Boolean>> downloads = new LinkedHashMap<>();
+		ExecutorService downloadExecutor = Executors.newFixedThreadPool(Settings.operation.maxThreads);
+		try {
+			for (String fileName : fileNames) {
+				File driveFile = driveFiles.get(fileName);
+				if (driveFile == null || downloads.containsKey(fileName)) {
+					continue;
+				}
+				downloads.put(fileName, downloadExecutor.submit(() -> recoverFile(service, driveFile, recoverDir.resolve(fileName))));
+			}
+			ProgressReporter.setExecutor(downloadExecutor);
+			ProgressReporter.discovered(downloads.size());
+			ProgressReporter.crawlCompleted();
+
+			int found = 0;
+			int notFound = 0;
+			int errors = 0;
+			for (String fileName : fileNames) {
+				Future<Boolean> download = downloads.get(fileName);
+				if (download == null) {
+					logger.warn("File \"{}\" non trovato su Google Drive", fileName);
+					notFound++;
+				} else if (waitDownload(download)) {
+					found++;
+				} else {
+					errors++;
+				}
 			}
 
-			logger.info("File \"{}\" trovato (ID: {}), download in corso...", fileName, driveFile.getId());
-			Path outputPath = recoverDir.resolve(fileName);
-			try (OutputStream out = new FileOutputStream(outputPath.toFile())) {
-				service.files().get(driveFile.getId()).executeMediaAndDownloadTo(out);
+			logger.info("=== RIEPILOGO RECOVER ===");
+			logger.info("File cercati:   {}", fileNames.size());
+			logger.info("File scaricati: {}", found);
+			logger.info("File non trovati: {}", notFound);
+			if (errors > 0) {
+				logger.info("File in errore: {}", errors);
 			}
-			logger.info("File \"{}\" scaricato in {}", fileName, outputPath);
-			found++;
+		} finally {
+			downloadExecutor.shutdownNow();
+		}
+	}
+
+	private static boolean recoverFile(Drive service, File driveFile, Path outputPath) {
+		logger.debug("File \"{}\" trovato (ID: {}), download in corso...", driveFile.getName(), driveFile.getId());
+		try {
+			long size = driveFile.getSize() != null ? driveFile.getSize() : 0;
+			downloadDriveFile(service, driveFile.getId(), size, driveFile.getMd5Checksum(), outputPath);
+			logger.debug("File \"{}\" scaricato in {}", driveFile.getName(), outputPath);
+			return true;
+		} catch (IOException e) {
+			logger.error("Errore durante il download del file \"{}\": {}", driveFile.getName(), e.getMessage());
+			return false;
+		} finally {
+			ProgressReporter.processed(1);
 		}
+	}
 
-		logger.info("=== RIEPILOGO RECOVER ===");
-		logger.info("File cercati:   {}", fileNames.size());
-		logger.info("File scaricati: {}", found);
-		logger.info("File non trovati: {}", notFound);
+	private static boolean waitDownload(Future<Boolean> download) {
+		try {
+			return download.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		}
 	}
 
-	private static File searchFileRecursive(Drive service, String folderId, String fileName, boolean recursive) throws IOException {
-		// Ricerca globale per nome esatto, senza vincolo di parent: una singola chiamata API
-		String escapedName = fileName.replace("\\", "\\\\").replace("'", "\\'");
-		String query = String.format("name='%s' and mimeType!='%s' and trashed=false", escapedName, FOLDER_MIME_TYPE);
+	/**
+	 * Ricerca globale per nome esatto, senza vincolo di parent. I nomi vengono raggruppati in
+	 * query "(name='a' or name='b' ...)" di lunghezza massima RECOVER_QUERY_MAX_LENGTH;
+	 * per ogni nome viene restituito il primo file trovato.
+	 */
+	private static Map<String, File> searchFilesByName(Drive service, List<String> fileNames) throws IOException {
+		Map<String, File> result = new HashMap<>();
+		String suffix = String.format(") and mimeType!='%s' and trashed=false", FOLDER_MIME_TYPE);
+
+		StringBuilder query = new StringBuilder();
+		int namesInQuery = 0;
+		int queries = 0;
+		for (String fileName : new java.util.LinkedHashSet<>(fileNames)) {
+			String escapedName = fileName.replace("\\", "\\\\").replace("'", "\\'");
+			String term = "name='" + escapedName + "'";
+			if (namesInQuery > 0 && query.length() + 4 + term.length() + suffix.length() > RECOVER_QUERY_MAX_LENGTH) {
+				searchFilesByQuery(service, query.append(suffix).toString(), result);
+				queries++;
+				query.setLength(0);
+				namesInQuery = 0;
+			}
+			query.append(namesInQuery == 0 ? "(" : " or ").append(term);
+			namesInQuery++;
+		}
+		if (namesInQuery > 0) {
+			searchFilesByQuery(service, query.append(suffix).toString(), result);
+			queries++;
+		}
+
+		logger.info("Ricerca completata: {} nomi distinti trovati con {} query", result.size(), queries);
+		return result;
+	}
 
+	private static void searchFilesByQuery(Drive service, String query, Map<String, File> result) throws IOException {
 		String pageToken = null;
 		do {
-			FileList result = service.files().list()
+			FileList fileList = service.files().list()
 					.setQ(query)
 					.setCorpora("allDrives")
 					.setSpaces("drive")
-					.setFields("nextPageToken, files(id, name)")
+					.setFields("nextPageToken, files(id, name, size, md5Checksum)")
+					.setPageSize(1000)
 					.setPageToken(pageToken)
 					.setSupportsAllDrives(true)
 					.setIncludeItemsFromAllDrives(true)
 					.execute();
 
-			List<File> files = result.getFiles();
-			if (files != null && !files.isEmpty()) {
-				return files.get(0);
+			if (fileList.getFiles() != null) {
+				for (File file : fileList.getFiles()) {
+					result.putIfAbsent(file.getName(), file);
+				}
 			}
-			pageToken = result.getNextPageToken();
+			pageToken = fileList.getNextPageToken();
 		} while (pageToken != null);
+	}
 
-		return null;
+	/**
+	 * Albero delle cartelle per la pulizia del job, con il token del feed delle modifiche letto
+	 * prima della scansione; null se il token non e' disponibile (pulizia con listing su Drive).
+	 */
+	private static FolderTree newFolderTree(Drive service, Job job) {
+		try {
+			String token = service.changes().getStartPageToken()
+					.setSupportsAllDrives(true)
+					.execute()
+					.getStartPageToken();
+			return new FolderTree(job.sourceId, token);
+		} catch (IOException e) {
+			logger.warn("Feed delle modifiche non disponibile ({}): pulizia cartelle vuote con scansione della sorgente",
+					e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Elimina le cartelle vuote dall'albero raccolto durante la scansione, senza ripercorrere la
+	 * sorgente: prima le cartelle modificate dopo la scansione (feed delle modifiche) vengono
+	 * segnate come non vuote, poi le cartelle vuote sono eliminate un livello alla volta dal piu'
+	 * profondo, in parallelo (operation.maxThreads). Una cartella eliminata libera il padre;
+	 * un'eliminazione fallita lo lascia non vuoto. Se il feed non e' leggibile la pulizia ripercorre
+	 * la sorgente. Ritorna il numero di cartelle eliminate.
+	 */
+	private static int deleteEmptyFolders(Drive service, FolderTree tree) throws IOException {
+		int changes;
+		try {
+			changes = markChangedFolders(service, tree);
+		} catch (IOException e) {
+			logger.warn("Lettura del feed delle modifiche non riuscita ({}): pulizia con scansione della sorgente",
+					e.getMessage());
+			return deleteEmptyFolders(service, tree.rootId, true);
+		}
+		logger.info("Pulizia: {} cartelle nell'albero della sorgente, {} modifiche dopo la scansione",
+				tree.size() - 1, changes);
+
+		AtomicInteger deleted = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(Settings.operation.maxThreads);
+		try {
+			for (int depth = tree.maxDepth(); depth > 0; depth--) {
+				List<Callable<Void>> deletions = new ArrayList<>();
+				for (FolderTree.Node node : tree.level(depth)) {
+					if (node.isEmpty()) {
+						deletions.add(() -> {
+							if (deleteEmptyFolder(service, node)) {
+								tree.removed(node.parent.id, 1);
+								deleted.incrementAndGet();
+							}
+							return null;
+						});
+					}
+				}
+				pool.invokeAll(deletions);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Pulizia cartelle vuote interrotta");
+		} finally {
+			pool.shutdown();
+		}
+		return deleted.get();
+	}
+
+	/**
+	 * Legge il feed delle modifiche dal token dell'albero: le cartelle dell'albero con nuovi
+	 * elementi, e quelle eliminate o spostate altrove, non vengono eliminate. Comprende gli
+	 * spostamenti fatti da questa esecuzione (quando la destinazione e' dentro la sorgente).
+	 */
+	private static int markChangedFolders(Drive service, FolderTree tree) throws IOException {
+		int changeCount = 0;
+		String pageToken = tree.changesToken;
+		while (pageToken != null) {
+			ChangeList result = service.changes().list(pageToken)
+					.setSpaces("drive")
+					.setFields("nextPageToken, changes(fileId, removed, file(id, parents, trashed))")
+					.setPageSize(1000)
+					.setSupportsAllDrives(true)
+					.setIncludeItemsFromAllDrives(true)
+					.execute();
+			if (result.getChanges() != null) {
+				for (Change change : result.getChanges()) {
+					changeCount++;
+					List<String> parents = isRemoved(change) || change.getFile().getParents() == null
+							? Collections.emptyList() : change.getFile().getParents();
+					FolderTree.Node node = tree.get(change.getFileId());
+					if (node != null && node.parent != null && !parents.contains(node.parent.id)) {
+						tree.added(node.id);
+					}
+					for (String parentId : parents) {
+						tree.added(parentId);
+					}
+				}
+			}
+			pageToken = result.getNextPageToken();
+		}
+		return changeCount;
+	}
+
+	/**
+	 * Elimina una cartella vuota dell'albero (verificata su Drive se la scansione non ne ha letto
+	 * i file); false se non vuota o in errore.
+	 */
+	private static boolean deleteEmptyFolder(Drive service, FolderTree.Node node) {
+		try {
+			if (node.verify && !isFolderEmpty(service, node.id)) {
+				return false;
+			}
+			if (dryRun) {
+				logger.info("[DRY RUN] Eliminazione cartella vuota \"{}\" (ID: {})", node.name, node.id);
+			} else {
+				service.files().delete(node.id)
+						.setSupportsAllDrives(true)
+						.execute();
+				logger.info("Cartella vuota \"{}\" eliminata (ID: {})", node.name, node.id);
+			}
+			return true;
+		} catch (IOException e) {
+			logger.error("Errore durante l'eliminazione della cartella \"{}\" (ID: {}): {}", node.name, node.id,
+					e.getMessage());
+			return false;
+		}
 	}
 
 	/**
@@ -802,84 +2190,203 @@ public class App {
 
 	// ==================== GLACIER ====================
 
+	/**
+	 * Chiave di raggruppamento glacier: nome senza estensioni (anche multiple come .log.gz),
+	 * senza date (YYYY-MM-DD, YYYY_MM_DD, [D]YYYYMMDD[HHmmss]), senza suffisso progressivo
+	 * finale (_1, _23) e con i separatori residui ripuliti. Lavora su un buffer riutilizzato
+	 * per thread e alloca solo la stringa risultato.
+	 */
 	static String normalizeToGroupKey(String fileName) {
 		if (fileName == null) return "";
-		// Rimuovi estensioni (anche multiple come .log.gz)
-		String result = fileName;
-		// Rimuovi tutte le estensioni
-		while (result.contains(".")) {
-			result = result.substring(0, result.lastIndexOf('.'));
-		}
+		// Rimuovi tutte le estensioni: resta il prefisso prima del primo punto
+		int dot = fileName.indexOf('.');
+		int length = dot >= 0 ? dot : fileName.length();
+		char[] buffer = normalizeBuffer(length);
+		fileName.getChars(0, length, buffer, 0);
+
 		// Rimuovi date dai pattern conosciuti (incluso opzionale HHmmss per il formato compatto)
-		result = DATE_PATTERN.matcher(result).replaceAll("");
-		result = DATE_COMPACT_HHMMSS_PATTERN.matcher(result).replaceAll("");
-		// Rimuovi suffissi progressivi finali (es. _1, _2, _23)
-		result = result.replaceAll("_\\d+$", "");
-		// Pulisci separatori residui (trattini/underscore in coda o doppi)
-		result = result.replaceAll("[-_]+$", "");
-		result = result.replaceAll("^[-_]+", "");
-		result = result.replaceAll("[-_]{2,}", "-");
-		return result.isEmpty() ? "noname" : result;
-	}
+		length = replaceSeparatedDates(buffer, length, EMPTY_REPLACEMENT);
+		length = replaceCompactDates(buffer, length, EMPTY_REPLACEMENT, true);
 
-	static String extractDateCompactFromFileName(String fileName) {
-		if (fileName == null) return null;
+		// Fine logica del nome: come "$" delle regex esclude un eventuale terminatore di riga finale
+		int end = endBeforeLineTerminator(buffer, length);
+
+		// Rimuovi suffisso progressivo finale (es. _1, _2, _23)
+		int digitsStart = end;
+		while (digitsStart > 0 && isDigit(buffer[digitsStart - 1])) {
+			digitsStart--;
+		}
+		if (digitsStart < end && digitsStart > 0 && buffer[digitsStart - 1] == '_') {
+			length = removeRange(buffer, length, digitsStart - 1, end);
+			end = endBeforeLineTerminator(buffer, length);
+		}
+
+		// Pulisci separatori residui in coda
+		int separatorsStart = end;
+		while (separatorsStart > 0 && isDateSeparator(buffer[separatorsStart - 1])) {
+			separatorsStart--;
+		}
+		if (separatorsStart < end) {
+			length = removeRange(buffer, length, separatorsStart, end);
+		}
 
-		// 1) YYYY-MM-DD o YYYY_MM_DD
-		Matcher matcher = DATE_PATTERN.matcher(fileName);
-		if (matcher.find()) {
-			int y = Integer.parseInt(matcher.group(1));
-			int m = Integer.parseInt(matcher.group(2));
-			int d = Integer.parseInt(matcher.group(3));
-			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12 && d >= 1 && d <= 31) {
-				return matcher.group(1) + matcher.group(2) + matcher.group(3);
+		// Pulisci separatori in testa e comprimi quelli doppi in un solo trattino
+		int read = 0;
+		while (read < length && isDateSeparator(buffer[read])) {
+			read++;
+		}
+		int write = 0;
+		while (read < length) {
+			char c = buffer[read];
+			if (isDateSeparator(c) && read + 1 < length && isDateSeparator(buffer[read + 1])) {
+				while (read < length && isDateSeparator(buffer[read])) {
+					read++;
+				}
+				buffer[write++] = '-';
+			} else {
+				buffer[write++] = c;
+				read++;
 			}
 		}
+		return write == 0 ? "noname" : new String(buffer, 0, write);
+	}
 
-		// 2) YYYYMMDD compatto
-		Matcher compactMatcher = DATE_COMPACT_PATTERN.matcher(fileName);
-		if (compactMatcher.find()) {
-			int y = Integer.parseInt(compactMatcher.group(1));
-			int m = Integer.parseInt(compactMatcher.group(2));
-			int d = Integer.parseInt(compactMatcher.group(3));
-			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12 && d >= 1 && d <= 31) {
-				return compactMatcher.group(1) + compactMatcher.group(2) + compactMatcher.group(3);
+	/**
+	 * Posizione in cui una regex con "$" (senza MULTILINE) considera finito l'input:
+	 * prima di un eventuale terminatore di riga finale (\n, \r\n, \r, \u0085, \u2028, \u2029).
+	 */
+	private static int endBeforeLineTerminator(char[] buffer, int length) {
+		if (length >= 2 && buffer[length - 2] == '\r' && buffer[length - 1] == '\n') {
+			return length - 2;
+		}
+		if (length >= 1) {
+			char c = buffer[length - 1];
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				return length - 1;
 			}
 		}
+		return length;
+	}
+
+	private static int removeRange(char[] buffer, int length, int from, int to) {
+		System.arraycopy(buffer, to, buffer, from, length - to);
+		return length - (to - from);
+	}
 
+	static String extractDateCompactFromFileName(String fileName) {
+		int packed = extractDatePacked(fileName, true);
+		return packed < 0 ? null : formatDateCompact(packed);
+	}
 
+	static String extractDateCompactFromModifiedTime(FileEntry file) {
+		int packed = extractDatePackedFromModifiedTime(file);
+		return packed < 0 ? null : formatDateCompact(packed);
+	}
 
-		return null;
+	private static int extractDatePackedFromModifiedTime(FileEntry file) {
+		if (!file.hasModifiedTime()) return -1;
+		return epochMillisToPackedDate(file.modifiedMillis);
+	}
+
+	/**
+	 * Chiave di ordinamento glacier: data dal nome, in mancanza dal modifiedTime, -1 se assente.
+	 */
+	private static int glacierDateKey(FileEntry file) {
+		int packed = extractDatePacked(file.name, true);
+		return packed >= 0 ? packed : extractDatePackedFromModifiedTime(file);
+	}
+
+	/**
+	 * Ordina i file per data (decorate-sort-undecorate: la data di ogni file viene calcolata
+	 * una sola volta) e ritorna le chiavi nello stesso ordine. L'ordinamento e' stabile.
+	 */
+	static int[] sortByDate(List<FileEntry> driveFiles) {
+		int n = driveFiles.size();
+		long[] decorated = new long[n];
+		for (int i = 0; i < n; i++) {
+			// chiave nei 32 bit alti, indice originale nei bassi: a parita' di data resta l'ordine originale
+			decorated[i] = ((long) glacierDateKey(driveFiles.get(i)) << 32) | i;
+		}
+		Arrays.sort(decorated);
+
+		List<FileEntry> sorted = new ArrayList<>(n);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			sorted.add(driveFiles.get((int) decorated[i]));
+			keys[i] = (int) (decorated[i] >> 32);
+		}
+		for (int i = 0; i < n; i++) {
+			driveFiles.set(i, sorted.get(i));
+		}
+		return keys;
+	}
+
+	/**
+	 * Scarica il file calcolando l'MD5 durante lo streaming (nessuna lettura aggiuntiva).
+	 * Se expectedMd5 e' valorizzato e non corrisponde, il tentativo e' considerato fallito.
+	 * I file di almeno download.rangeThresholdMB vengono scaricati a intervalli paralleli.
+	 * Ritorna l'MD5 calcolato.
+	 */
+	private static String downloadDriveFile(Drive service, String fileId, long size, String expectedMd5, Path localPath) throws IOException {
+		return downloadDriveFile(service, fileId, size, expectedMd5, localPath, Settings.operation.retry);
 	}
 
-	static String extractDateCompactFromModifiedTime(File file) {
-		DateTime modifiedTime = file.getModifiedTime();
-		if (modifiedTime == null) return null;
-		long timestamp = modifiedTime.getValue();
-		Instant instant = Instant.ofEpochMilli(timestamp);
-		LocalDate date = instant.atZone(ZoneId.systemDefault()).toLocalDate();
-		return String.format("%04d%02d%02d", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	/**
+	 * attempts: tentativi, con operation.sleepRetry secondi di attesa tra l'uno e l'altro (1 negli
+	 * stadi, che ripianificano i nuovi tentativi senza occupare il thread).
+	 */
+	private static String downloadDriveFile(Drive service, String fileId, long size, String expectedMd5, Path localPath,
+			int attempts) throws IOException {
+		if (Settings.download.rangeCount > 1 && Settings.download.rangeThresholdMB > 0
+				&& size >= Settings.download.rangeThresholdMB * 1024L * 1024L) {
+			return downloadDriveFileRanges(service, fileId, size, expectedMd5, localPath, attempts);
+		}
+		return downloadDriveFile(service, fileId, expectedMd5, () -> {
+			// Delete any partial file from previous failed attempt
+			Files.deleteIfExists(localPath);
+			return new FileOutputStream(localPath.toFile());
+		}, attempts);
+	}
+
+	private static String downloadDriveFile(Drive service, String fileId, String expectedMd5, ByteArrayOutputStream content) throws IOException {
+		return downloadDriveFile(service, fileId, expectedMd5, () -> {
+			content.reset();
+			return content;
+		}, Settings.operation.retry);
+	}
+
+	private static String downloadDriveFile(Drive service, String fileId, String expectedMd5, GlacierSpool.Entry spool,
+			int attempts) throws IOException {
+		return downloadDriveFile(service, fileId, expectedMd5, spool::reset, attempts);
 	}
 
-	private static void downloadDriveFile(Drive service, String fileId, Path localPath) throws IOException {
+	private static String downloadDriveFile(Drive service, String fileId, String expectedMd5, OutputOpener opener,
+			int attempts) throws IOException {
 		int retry = 0;
-		while (retry < Settings.operation.retry) {
+		while (true) {
 			try {
 				retry++;
-				// Delete any partial file from previous failed attempt
-				Files.deleteIfExists(localPath);
-				try (OutputStream out = new FileOutputStream(localPath.toFile())) {
+				MessageDigest digest = newMd5Digest();
+				try (OutputStream out = new DigestOutputStream(opener.open(), digest)) {
 					service.files().get(fileId)
 							.setSupportsAllDrives(true)
 							.executeMediaAndDownloadTo(out);
 				}
-				return; // Success
+				String md5 = toHex(digest.digest());
+				if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(md5)) {
+					throw new IOException(String.format("checksum MD5 non corrispondente (atteso %s, calcolato %s)", expectedMd5, md5));
+				}
+				return md5; // Success
 			} catch (IOException e) {
-				logger.warn("Tentativo {}/{} di download fallito: {}", retry, Settings.operation.retry, e.getMessage());
-				if (retry >= Settings.operation.retry) {
+				if (attempts == 1) {
+					throw e;
+				}
+				logger.warn("Tentativo {}/{} di download fallito: {}", retry, attempts, e.getMessage());
+				if (retry >= attempts) {
 					throw e;
 				}
 				logger.info("Nuovo tentativo tra {} secondi", Settings.operation.sleepRetry);
+				ProgressReporter.retryScheduled();
 				try {
 					Thread.sleep(Settings.operation.sleepRetry * 1000L);
 				} catch (InterruptedException ie) {
@@ -890,33 +2397,172 @@ public class App {
 		}
 	}
 
-	private static void deleteDriveFile(Drive service, String fileId, String fileName) throws IOException {
+	/**
+	 * Apre la destinazione di un download; invocato a ogni tentativo.
+	 */
+	private interface OutputOpener {
+		OutputStream open() throws IOException;
+	}
+
+	/**
+	 * Download di un file grande suddiviso in download.rangeCount intervalli scaricati in parallelo
+	 * con Range request e scritti con write posizionali in un file preallocato. Ogni intervallo
+	 * ritenta da solo (riprendendo dall'ultimo byte scritto) senza ripartire dall'intero file.
+	 * L'MD5, non calcolabile in streaming su intervalli fuori ordine, viene calcolato rileggendo il file locale.
+	 * attempts: tentativi di ogni intervallo (1 negli stadi: un intervallo fallito fa fallire il
+	 * tentativo dell'intero file, ripianificato dallo stadio).
+	 */
+	private static String downloadDriveFileRanges(Drive service, String fileId, long size, String expectedMd5, Path localPath,
+			int attempts) throws IOException {
+		int rangeCount = (int) Math.min(Settings.download.rangeCount, size);
+		long rangeSize = (size + rangeCount - 1) / rangeCount;
+		logger.debug("Download file {} ({} byte) in {} intervalli paralleli", fileId, size, rangeCount);
+
+		Files.deleteIfExists(localPath);
+		try (RandomAccessFile raf = new RandomAccessFile(localPath.toFile(), "rw")) {
+			raf.setLength(size);
+		}
+
+		ExecutorService executor = getRangeExecutor();
+		try (FileChannel channel = FileChannel.open(localPath, StandardOpenOption.WRITE)) {
+			List<Future<?>> ranges = new ArrayList<>();
+			for (long first = 0; first < size; first += rangeSize) {
+				long rangeFirst = first;
+				long rangeLast = Math.min(first + rangeSize, size) - 1;
+				ranges.add(executor.submit(() -> {
+					downloadDriveRange(service, fileId, rangeFirst, rangeLast, channel, attempts);
+					return null;
+				}));
+			}
+			IOException failure = null;
+			for (Future<?> range : ranges) {
+				if (failure != null) {
+					// Il tentativo del file e' gia' fallito: gli altri intervalli non servono
+					range.cancel(true);
+					continue;
+				}
+				try {
+					range.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					failure = new IOException("Download interrotto", e);
+				} catch (ExecutionException e) {
+					failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		MessageDigest digest = newMd5Digest();
+		try (InputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(localPath)), digest)) {
+			byte[] buffer = new byte[65536];
+			while (in.read(buffer) >= 0) {
+				// solo calcolo digest
+			}
+		}
+		String md5 = toHex(digest.digest());
+		if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(md5)) {
+			throw new IOException(String.format("checksum MD5 non corrispondente (atteso %s, calcolato %s)", expectedMd5, md5));
+		}
+		return md5;
+	}
+
+	/**
+	 * Scarica l'intervallo [first, last] scrivendolo nel channel alla stessa posizione.
+	 * In caso di errore riprende dall'ultimo byte scritto, fino a attempts tentativi.
+	 */
+	private static void downloadDriveRange(Drive service, String fileId, long first, long last, FileChannel channel,
+			int attempts) throws IOException {
+		long position = first;
 		int retry = 0;
-		while (retry < Settings.operation.retry) {
+		while (true) {
 			try {
 				retry++;
-				logger.debug("Tentativo {}/{} di eliminazione file \"{}\" (ID: {})", retry, Settings.operation.retry, fileName, fileId);
-				service.files().delete(fileId)
-						.setSupportsAllDrives(true)
-						.execute();
+				Drive.Files.Get request = service.files().get(fileId).setSupportsAllDrives(true);
+				request.getRequestHeaders().setRange(String.format("bytes=%d-%d", position, last));
+				HttpResponse response = request.executeMedia();
+				try (InputStream in = response.getContent()) {
+					if (response.getStatusCode() != 206) {
+						throw new IOException(String.format("Range request non supportata (HTTP %d)", response.getStatusCode()));
+					}
+					byte[] buffer = new byte[65536];
+					ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+					int len;
+					while (position <= last && (len = in.read(buffer, 0, (int) Math.min(buffer.length, last - position + 1))) > 0) {
+						wrapper.clear().limit(len);
+						while (wrapper.hasRemaining()) {
+							position += channel.write(wrapper, position);
+						}
+					}
+				} finally {
+					response.disconnect();
+				}
+				if (position <= last) {
+					throw new IOException(String.format("Intervallo %d-%d incompleto (ricevuti fino a %d)", first, last, position - 1));
+				}
 				return; // Success
 			} catch (IOException e) {
-				logger.warn("Tentativo {}/{} di eliminazione file \"{}\" fallito: {}", retry, Settings.operation.retry, fileName, e.getMessage());
-				if (retry >= Settings.operation.retry) {
+				if (attempts == 1) {
+					throw e;
+				}
+				logger.warn("Tentativo {}/{} di download intervallo {}-{} fallito: {}", retry, attempts, first, last, e.getMessage());
+				if (retry >= attempts || Thread.currentThread().isInterrupted()) {
 					throw e;
 				}
 				logger.info("Nuovo tentativo tra {} secondi", Settings.operation.sleepRetry);
+				ProgressReporter.retryScheduled();
 				try {
 					Thread.sleep(Settings.operation.sleepRetry * 1000L);
 				} catch (InterruptedException ie) {
 					Thread.currentThread().interrupt();
-					throw new IOException("Eliminazione interrotta", ie);
+					throw new IOException("Download interrotto", ie);
 				}
 			}
 		}
 	}
 
-	private static String resolveZipEntryName(String fileName, java.util.Set<String> usedNames) {
+	private static synchronized ExecutorService getRangeExecutor() {
+		if (rangeExecutorService == null) {
+			int threads = Math.max(1, Settings.operation.maxThreads * Settings.download.rangeCount);
+			rangeExecutorService = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "range-download");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return rangeExecutorService;
+	}
+
+	private static MessageDigest newMd5Digest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Algoritmo MD5 non disponibile", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Elimina il file da Drive; un solo tentativo (i nuovi tentativi sono ripianificati dallo stadio mutate).
+	 */
+	private static void deleteDriveFile(Drive service, String fileId, String fileName) throws IOException {
+		logger.debug("Eliminazione file \"{}\" (ID: {})", fileName, fileId);
+		service.files().delete(fileId)
+				.setSupportsAllDrives(true)
+				.execute();
+	}
+
+	static String resolveZipEntryName(String fileName, java.util.Set<String> usedNames) {
 		if (usedNames.add(fileName)) {
 			return fileName;
 		}
@@ -936,165 +2582,410 @@ public class App {
 		return candidate;
 	}
 
-	private static List<java.io.File> createZipArchives(Drive service, List<File> driveFiles, String groupKey,
-			long maxZipBytes, Path tempDir) throws IOException {
-		// Sort files by date extracted from name, fallback to modifiedTime
-		driveFiles.sort((a, b) -> {
-			String dateA = extractDateCompactFromFileName(a.getName());
-			if (dateA == null) dateA = extractDateCompactFromModifiedTime(a);
-			String dateB = extractDateCompactFromFileName(b.getName());
-			if (dateB == null) dateB = extractDateCompactFromModifiedTime(b);
-			if (dateA == null) dateA = "";
-			if (dateB == null) dateB = "";
-			return dateA.compareTo(dateB);
-		});
-
-		// Find dateMin and dateMax (fallback to modifiedTime if no date in name)
-		String dateMin = null;
-		String dateMax = null;
-		for (File f : driveFiles) {
-			String d = extractDateCompactFromFileName(f.getName());
-			if (d == null) {
-				d = extractDateCompactFromModifiedTime(f);
-			}
-			if (d != null) {
-				if (dateMin == null || d.compareTo(dateMin) < 0) dateMin = d;
-				if (dateMax == null || d.compareTo(dateMax) > 0) dateMax = d;
+	/**
+	 * Suddivisione dei file (gia' ordinati) in parti ZIP: ritorna per ogni parte l'indice
+	 * (escluso) dell'ultimo file. Una parte si chiude quando il file successivo farebbe
+	 * superare maxZipBytes; ogni parte contiene almeno un file.
+	 */
+	static int[] zipPartEnds(List<FileEntry> driveFiles, long maxZipBytes) {
+		int[] ends = new int[driveFiles.size()];
+		int parts = 0;
+		long currentZipSize = 0;
+		int filesInThisPart = 0;
+		for (int i = 0; i < driveFiles.size(); i++) {
+			long size = driveFiles.get(i).sizeOrZero();
+			if (filesInThisPart > 0 && maxZipBytes > 0 && currentZipSize + size > maxZipBytes) {
+				ends[parts++] = i;
+				currentZipSize = 0;
+				filesInThisPart = 0;
 			}
+			currentZipSize += size;
+			filesInThisPart++;
 		}
-		if (dateMin == null) dateMin = "00000000";
-		if (dateMax == null) dateMax = "00000000";
+		if (filesInThisPart > 0) {
+			ends[parts++] = driveFiles.size();
+		}
+		return Arrays.copyOf(ends, parts);
+	}
 
-		List<java.io.File> zipFiles = new ArrayList<>();
-		int partIndex = 0;
+	/**
+	 * Dimensione (non compressa) di ogni parte ZIP individuata da zipPartEnds.
+	 */
+	private static long[] zipPartSizes(List<FileEntry> driveFiles, int[] partEnds) {
+		long[] sizes = new long[partEnds.length];
 		int fileIndex = 0;
+		for (int part = 0; part < partEnds.length; part++) {
+			for (; fileIndex < partEnds[part]; fileIndex++) {
+				sizes[part] += driveFiles.get(fileIndex).sizeOrZero();
+			}
+		}
+		return sizes;
+	}
 
-		while (fileIndex < driveFiles.size()) {
-			partIndex++;
-			String zipName;
-			if (driveFiles.size() <= 1 || maxZipBytes <= 0) {
-				// Single zip expected
-				zipName = groupKey + "_" + dateMin + "-" + dateMax + ".zip";
-			} else {
-				zipName = groupKey + "_" + dateMin + "-" + dateMax + "_part" + partIndex + ".zip";
+	/**
+	 * Per ogni file (nella lista ordinata) l'indice del primo file del gruppo con lo stesso contenuto
+	 * (md5Checksum e dimensione di Drive), o -1 se e' il primo: i duplicati non vengono riscaricati
+	 * ma registrati nell'indice come riferimenti all'entry del primo.
+	 */
+	static int[] duplicateOf(List<FileEntry> driveFiles) {
+		int[] canonical = new int[driveFiles.size()];
+		Map<String, Integer> firstByMd5 = new HashMap<>();
+		for (int i = 0; i < canonical.length; i++) {
+			canonical[i] = -1;
+			FileEntry file = driveFiles.get(i);
+			String md5 = file.md5();
+			if (md5 == null || file.sizeOrZero() == 0) {
+				continue;
+			}
+			Integer first = firstByMd5.putIfAbsent(md5, i);
+			if (first != null && driveFiles.get(first).size == file.size) {
+				canonical[i] = first;
+			}
+		}
+		return canonical;
+	}
+
+	/**
+	 * File con contenuto distinto (duplicati esclusi), nell'ordine della lista: sono i soli che
+	 * occupano spazio negli ZIP.
+	 */
+	static List<FileEntry> distinctContents(List<FileEntry> driveFiles, int[] duplicateOf) {
+		List<FileEntry> contents = new ArrayList<>(driveFiles.size());
+		for (int i = 0; i < duplicateOf.length; i++) {
+			if (duplicateOf[i] < 0) {
+				contents.add(driveFiles.get(i));
 			}
+		}
+		return contents;
+	}
 
-			Path zipPath = tempDir.resolve(zipName);
-			long currentZipSize = 0;
+	/**
+	 * ZIP della parte del gruppo in tempDir, con l'indice sidecar. I contenuti sono scaricati in
+	 * anticipo nello stadio download; ogni duplicato va nello ZIP del proprio originale.
+	 */
+	private static GlacierZip createZipArchive(Drive service, Job job, GlacierGroup.Part part, Path tempDir)
+			throws IOException {
+		GlacierGroup group = part.group();
+		List<FileEntry> driveFiles = group.files;
+		int[] dateKeys = group.dateKeys;
+		List<Integer> contents = group.contents;
+
+		// Al massimo prefetch download alla volta per parte (file scaricati e non ancora scritti nello ZIP)
+		int prefetch = Math.max(1, Settings.stageThreads(Settings.stages.download.threads)
+				/ Settings.stageThreads(Settings.stages.compress.threads));
+		ArrayDeque<Future<GlacierDownload>> prefetched = new ArrayDeque<>();
+		int nextDownload = part.firstContent();
+		try {
+			Path zipPath = tempDir.resolve(part.zipName());
 			int filesInThisPart = 0;
 			java.util.Set<String> usedEntryNames = new java.util.HashSet<>();
-
-			try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipPath.toFile()))) {
-				while (fileIndex < driveFiles.size()) {
-					File driveFile = driveFiles.get(fileIndex);
-					Long fileSize = driveFile.getSize();
-					long size = (fileSize != null) ? fileSize : 0;
-
-					// Check if adding this file would exceed maxZipBytes (allow at least one file per zip)
-					if (filesInThisPart > 0 && maxZipBytes > 0 && currentZipSize + size > maxZipBytes) {
-						break;
-					}
-
-					// Resolve duplicate entry names within the same zip
-					String entryName = resolveZipEntryName(driveFile.getName(), usedEntryNames);
-					if (!entryName.equals(driveFile.getName())) {
-						logger.info("File duplicato \"{}\" (ID: {}) rinominato in \"{}\" nello zip",
-								driveFile.getName(), driveFile.getId(), entryName);
+			List<GlacierEntry> entries = new ArrayList<>();
+
+			// MD5 dello ZIP e offset delle entry calcolati mentre lo ZIP viene scritto
+			MessageDigest zipDigest = newMd5Digest();
+			byte[] buffer = new byte[8192];
+			CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(
+					new BufferedOutputStream(new FileOutputStream(zipPath.toFile())), zipDigest));
+			try (ZipOutputStream zos = new ZipOutputStream(counter)) {
+				for (int contentIndex = part.firstContent(); contentIndex < part.endContent(); contentIndex++) {
+					int fileIndex = contents.get(contentIndex);
+					while (nextDownload < part.endContent() && prefetched.size() < prefetch) {
+						prefetched.add(submitDownload(service, job, driveFiles.get(contents.get(nextDownload++)), tempDir));
 					}
+					GlacierEntry canonical = addZipEntry(zos, counter, driveFiles.get(fileIndex),
+							dateKeys[fileIndex], usedEntryNames, takeDownload(prefetched.poll()), buffer);
+					entries.add(canonical);
+					filesInThisPart++;
 
-					// Add to zip
-					ZipEntry entry = new ZipEntry(entryName);
-					zos.putNextEntry(entry);
-					if (size > 0) {
-						Path tempFile = tempDir.resolve(driveFile.getName());
-						logger.debug("Download file \"{}\" (ID: {})", driveFile.getName(), driveFile.getId());
-						try {
-							downloadDriveFile(service, driveFile.getId(), tempFile);
-							try (FileInputStream fis = new FileInputStream(tempFile.toFile())) {
-								byte[] buffer = new byte[8192];
-								int len;
-								while ((len = fis.read(buffer)) > 0) {
-									zos.write(buffer, 0, len);
-								}
-							}
-						} catch (HttpResponseException hre) {
-							if (hre.getStatusCode() == 416) {
-								logger.warn("File \"{}\" non scaricabile (HTTP 416), aggiunto entry vuota allo zip", driveFile.getName());
-							} else {
-								throw hre;
-							}
-						} finally {
-							Files.deleteIfExists(tempFile);
+					for (int duplicateIndex : group.duplicatesOf(fileIndex)) {
+						FileEntry duplicate = driveFiles.get(duplicateIndex);
+						if (canonical.md5 != null && canonical.md5.equalsIgnoreCase(duplicate.md5())) {
+							entries.add(addZipReference(job, canonical, duplicate, dateKeys[duplicateIndex], usedEntryNames));
+						} else {
+							// Contenuto archiviato diverso da quello atteso (es. HTTP 416): il duplicato va scaricato,
+							// nello stadio download come gli altri file (tentativi ripianificati senza occupare il thread)
+							entries.add(addZipEntry(zos, counter, duplicate, dateKeys[duplicateIndex], usedEntryNames,
+									takeDownload(submitDownload(service, job, duplicate, tempDir)), buffer));
 						}
-					} else {
-						logger.debug("File \"{}\" ha dimensione 0, aggiunto entry vuota allo zip", driveFile.getName());
+						filesInThisPart++;
 					}
-					zos.closeEntry();
-
-					currentZipSize += size;
-					filesInThisPart++;
-					fileIndex++;
 				}
 			}
 
-			// If we created an empty part due to split logic, rename without _partN
-			if (partIndex == 1 && fileIndex >= driveFiles.size()) {
-				// Only one part was needed, rename to remove _partN suffix
-				String finalName = groupKey + "_" + dateMin + "-" + dateMax + ".zip";
-				Path finalPath = tempDir.resolve(finalName);
-				if (!zipPath.equals(finalPath)) {
-					Files.move(zipPath, finalPath);
-					zipPath = finalPath;
-				}
-			}
+			GlacierZip glacierZip = new GlacierZip(zipPath.toFile());
+			glacierZip.md5 = toHex(zipDigest.digest());
+			glacierZip.entries.addAll(entries);
 
-			zipFiles.add(zipPath.toFile());
-			logger.info("Creato archivio ZIP \"{}\" ({} file)", zipPath.getFileName(), filesInThisPart);
+			// Indice sidecar per il recupero puntuale delle entry (Range request sullo ZIP)
+			Path indexPath = tempDir.resolve(GlacierIndex.indexName(zipPath.getFileName().toString()));
+			MessageDigest indexDigest = newMd5Digest();
+			try (OutputStream out = new DigestOutputStream(new FileOutputStream(indexPath.toFile()), indexDigest)) {
+				GlacierIndex.write(glacierZip, out);
+			}
+			glacierZip.indexFile = indexPath.toFile();
+			glacierZip.indexMd5 = toHex(indexDigest.digest());
+			logger.info("Creato archivio ZIP \"{}\" ({} file, MD5 {})", zipPath.getFileName(), filesInThisPart, glacierZip.md5);
+			return glacierZip;
+		} finally {
+			// Errore: i download in anticipo non ancora scritti vengono annullati o rilasciati
+			for (Future<GlacierDownload> download : prefetched) {
+				discardDownload(download);
+			}
 		}
-
-		return zipFiles;
 	}
 
-	private static void uploadFile(Drive service, String folderId, java.io.File localFile) throws IOException {
-		int retry = 0;
-		boolean done = false;
-
-		while (retry < Settings.operation.retry && !done) {
-			try {
-				retry++;
-				File fileMetadata = new File();
-				fileMetadata.setName(localFile.getName());
-				fileMetadata.setParents(Collections.singletonList(folderId));
+	/**
+	 * File scaricato dallo stadio download, in attesa di essere scritto nello ZIP: in memoria
+	 * (blocchi del pool) o su file temporaneo.
+	 */
+	private static final class GlacierDownload {
+		final GlacierSpool.Entry spool;
+		final Path tempFile;
+		String md5;
+		// HTTP 416: contenuto non recuperabile da Drive
+		boolean unavailable;
+
+		GlacierDownload(GlacierSpool.Entry spool, Path tempFile) {
+			this.spool = spool;
+			this.tempFile = tempFile;
+		}
 
-				com.google.api.client.http.FileContent mediaContent =
-						new com.google.api.client.http.FileContent("application/zip", localFile);
-
-				File uploaded = service.files().create(fileMetadata, mediaContent)
-						.setFields("id")
-						.setSupportsAllDrives(true)
-						.execute();
+		void writeTo(OutputStream out, byte[] buffer) throws IOException {
+			if (spool != null) {
+				spool.writeTo(out, buffer);
+			} else {
+				try (FileInputStream fis = new FileInputStream(tempFile.toFile())) {
+					int len;
+					while ((len = fis.read(buffer)) > 0) {
+						out.write(buffer, 0, len);
+					}
+				}
+			}
+		}
 
-				logger.info("Upload completato: \"{}\" (ID: {})", localFile.getName(), uploaded.getId());
-				done = true;
-			} catch (IOException e) {
-				logger.warn("Tentativo {}/{} di upload fallito: {}", retry, Settings.operation.retry, e.getMessage());
-				if (retry >= Settings.operation.retry) throw e;
-				logger.info("Nuovo tentativo tra {} secondi", Settings.operation.sleepRetry);
+		void release() {
+			if (spool != null) {
+				spool.release();
+			} else {
 				try {
-					Thread.sleep(Settings.operation.sleepRetry * 1000L);
-				} catch (InterruptedException ie) {
-					Thread.currentThread().interrupt();
+					Files.deleteIfExists(tempFile);
+				} catch (IOException e) {
+					logger.debug("File temporaneo {} non eliminato: {}", tempFile, e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accoda il download del file nello stadio download (nessun download per i file vuoti); un
+	 * tentativo fallito viene ripianificato nello stadio, senza occupare il thread nell'attesa.
+	 */
+	private static Future<GlacierDownload> submitDownload(Drive service, Job job, FileEntry driveFile, Path tempDir) {
+		if (driveFile.sizeOrZero() <= 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<GlacierDownload> download = new CompletableFuture<>();
+		RetryTask.submit(job.lanes.download, "download file \"" + driveFile.name + "\"", () -> {
+			if (download.isDone()) {
+				// Annullato: il gruppo e' fallito prima del download
+				return;
+			}
+			GlacierDownload completed = downloadEntry(service, driveFile, tempDir, 1);
+			if (!download.complete(completed) && completed != null) {
+				completed.release();
+			}
+		}, download::completeExceptionally);
+		return download;
+	}
+
+	private static GlacierDownload takeDownload(Future<GlacierDownload> download) throws IOException {
+		try {
+			return download.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Attesa del download interrotta", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static void discardDownload(Future<GlacierDownload> download) {
+		if (download.cancel(false)) {
+			return;
+		}
+		try {
+			GlacierDownload completed = download.get();
+			if (completed != null) {
+				completed.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Download fallito: nulla da rilasciare
+		}
+	}
+
+	/**
+	 * Scarica il file (piccoli file in memoria, gli altri su file temporaneo) verificandone l'MD5;
+	 * null per i file vuoti. attempts: tentativi (vedi downloadDriveFile).
+	 */
+	private static GlacierDownload downloadEntry(Drive service, FileEntry driveFile, Path tempDir, int attempts)
+			throws IOException {
+		long size = driveFile.sizeOrZero();
+		if (size <= 0) {
+			return null;
+		}
+		GlacierSpool.Entry spool = GlacierSpool.reserve(size);
+		// Nome per ID: file omonimi dello stesso gruppo possono essere scaricati insieme
+		GlacierDownload download = new GlacierDownload(spool, spool == null ? tempDir.resolve(driveFile.id) : null);
+		logger.debug("Download file \"{}\" (ID: {})", driveFile.name, driveFile.id);
+		try {
+			download.md5 = spool != null
+					? downloadDriveFile(service, driveFile.id, driveFile.md5(), spool, attempts)
+					: downloadDriveFile(service, driveFile.id, size, driveFile.md5(), download.tempFile, attempts);
+		} catch (HttpResponseException hre) {
+			if (hre.getStatusCode() != 416) {
+				download.release();
+				throw hre;
+			}
+			download.unavailable = true;
+		} catch (IOException | RuntimeException e) {
+			download.release();
+			throw e;
+		}
+		return download;
+	}
+
+	/**
+	 * Aggiunge il file scaricato come entry dello ZIP, calcolandone offset, CRC e MD5
+	 * (download null: file vuoto).
+	 */
+	private static GlacierEntry addZipEntry(ZipOutputStream zos, CountingOutputStream counter, FileEntry driveFile,
+			int entryDate, java.util.Set<String> usedEntryNames, GlacierDownload download, byte[] buffer) throws IOException {
+		String driveMd5 = driveFile.md5();
+
+		// Resolve duplicate entry names within the same zip
+		String entryName = resolveZipEntryName(driveFile.name, usedEntryNames);
+		if (!entryName.equals(driveFile.name)) {
+			logger.info("File duplicato \"{}\" (ID: {}) rinominato in \"{}\" nello zip",
+					driveFile.name, driveFile.id, entryName);
+		}
+
+		GlacierEntry glacierEntry = new GlacierEntry(entryName, driveFile.id, driveFile.name,
+				entryDate >= 0 ? formatDateCompact(entryDate) : "00000000");
+
+		// Add to zip
+		ZipEntry entry = new ZipEntry(entryName);
+		glacierEntry.localHeaderOffset = counter.getCount();
+		zos.putNextEntry(entry);
+		if (download != null) {
+			try {
+				if (download.unavailable) {
+					// Entry vuota: l'originale resta su Drive, salvo che anche Drive lo dichiari vuoto
+					glacierEntry.md5 = EMPTY_MD5;
+					glacierEntry.verified = EMPTY_MD5.equalsIgnoreCase(driveMd5);
+					if (glacierEntry.verified) {
+						logger.warn("File \"{}\" non scaricabile (HTTP 416), aggiunto entry vuota allo zip", driveFile.name);
+					} else {
+						logger.error("File \"{}\" (ID: {}) non scaricabile (HTTP 416), aggiunto entry vuota allo zip: originale NON eliminato",
+								driveFile.name, driveFile.id);
+					}
+				} else {
+					glacierEntry.md5 = download.md5;
+					glacierEntry.verified = driveMd5 != null;
+					if (!glacierEntry.verified) {
+						logger.warn("File \"{}\" (ID: {}) senza md5Checksum su Drive, contenuto non verificabile",
+								driveFile.name, driveFile.id);
+					}
+					download.writeTo(zos, buffer);
 				}
+			} finally {
+				download.release();
 			}
+		} else {
+			logger.debug("File \"{}\" ha dimensione 0, aggiunto entry vuota allo zip", driveFile.name);
+			glacierEntry.md5 = EMPTY_MD5;
+			glacierEntry.verified = driveMd5 == null
+					|| EMPTY_MD5.equalsIgnoreCase(driveMd5);
+		}
+		zos.closeEntry();
+		glacierEntry.compressedSize = entry.getCompressedSize();
+		glacierEntry.size = entry.getSize();
+		glacierEntry.crc = entry.getCrc();
+		ProgressReporter.processed(1);
+		return glacierEntry;
+	}
+
+	/**
+	 * Registra un duplicato come riferimento all'entry gia' scritta con lo stesso contenuto:
+	 * nessun download, nessun byte nello ZIP, una riga nell'indice con la posizione dell'originale.
+	 */
+	private static GlacierEntry addZipReference(Job job, GlacierEntry canonical, FileEntry duplicate, int entryDate,
+			java.util.Set<String> usedEntryNames) {
+		String entryName = resolveZipEntryName(duplicate.name, usedEntryNames);
+		GlacierEntry reference = new GlacierEntry(entryName, duplicate.id, duplicate.name,
+				entryDate >= 0 ? formatDateCompact(entryDate) : "00000000");
+		reference.ref = canonical.entryName;
+		reference.localHeaderOffset = canonical.localHeaderOffset;
+		reference.compressedSize = canonical.compressedSize;
+		reference.size = canonical.size;
+		reference.crc = canonical.crc;
+		reference.md5 = canonical.md5;
+		// L'originale e' eliminabile solo se lo e' la copia archiviata a cui rimanda
+		reference.verified = canonical.verified;
+		logger.debug("File \"{}\" (ID: {}) identico a \"{}\", registrato come riferimento",
+				duplicate.name, duplicate.id, canonical.entryName);
+		job.glacierDuplicates.incrementAndGet();
+		job.glacierDuplicateBytes.addAndGet(duplicate.sizeOrZero());
+		ProgressReporter.processed(1);
+		return reference;
+	}
+
+	/**
+	 * Carica il file e verifica che l'md5Checksum calcolato da Drive coincida con expectedMd5.
+	 * In caso di discordanza la copia caricata viene eliminata e il tentativo e' considerato
+	 * fallito (nuovo tentativo ripianificato dallo stadio upload).
+	 */
+	private static void uploadFile(Drive service, String folderId, java.io.File localFile, String mimeType,
+			String expectedMd5) throws IOException {
+		File fileMetadata = new File();
+		fileMetadata.setName(localFile.getName());
+		fileMetadata.setParents(Collections.singletonList(folderId));
+
+		com.google.api.client.http.FileContent mediaContent =
+				new com.google.api.client.http.FileContent(mimeType, localFile);
+
+		File uploaded = service.files().create(fileMetadata, mediaContent)
+				.setFields("id, md5Checksum")
+				.setSupportsAllDrives(true)
+				.execute();
+
+		if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(uploaded.getMd5Checksum())) {
+			logger.error("Upload \"{}\" (ID: {}): checksum MD5 non corrispondente (atteso {}, su Drive {}), elimino la copia caricata",
+					localFile.getName(), uploaded.getId(), expectedMd5, uploaded.getMd5Checksum());
+			deleteDriveFile(service, uploaded.getId(), localFile.getName());
+			throw new IOException(String.format("checksum MD5 dell'upload \"%s\" non corrispondente", localFile.getName()));
 		}
+
+		logger.info("Upload completato: \"{}\" (ID: {}, MD5 verificato {})", localFile.getName(), uploaded.getId(), uploaded.getMd5Checksum());
 	}
 
-	private static void glacierFolder(Drive service, String folderId, String relativePath, String untilYearMonth) throws IOException {
-		glacierFolder(service, folderId, relativePath, untilYearMonth, null);
+	private static void glacierFolder(Drive service, Job job, String folderId, String relativePath, String untilYearMonth) throws IOException {
+		glacierFolder(service, job, folderId, relativePath, untilYearMonth, null, null);
 	}
 
-	private static void glacierFolder(Drive service, String folderId, String relativePath,
-			String untilYearMonth, String currentYear) throws IOException {
+	/**
+	 * monthUnits: se valorizzato le cartelle mese da archiviare vi vengono aggiunte come unita'
+	 * di lavoro (workers.leaseDir) invece di essere elaborate subito.
+	 */
+	private static void glacierFolder(Drive service, Job job, String folderId, String relativePath,
+			String untilYearMonth, String currentYear, List<WorkLeases.Unit> monthUnits) throws IOException {
+		if (capacityEstimate != null) {
+			capacityEstimate.addSourceFolder();
+		}
 		// List subfolders (con paginazione)
 		String pageToken = null;
 		do {
@@ -1113,22 +3004,46 @@ public class App {
 				for (File folder : folders) {
 					String folderName = folder.getName();
 
+					if (job.tree != null) {
+						// I file sono letti solo dalle cartelle mese da archiviare (e loro sottocartelle)
+						boolean monthToArchive = isMonthFolder(folderName) && currentYear != null
+								&& (currentYear + "-" + folderName).compareTo(untilYearMonth) <= 0;
+						if (monthToArchive || !isMonthFolder(folderName) || currentYear == null) {
+							job.tree.folder(folderId, folder.getId(), folderName, monthToArchive);
+						} else {
+							job.tree.items(folderId, 1);
+						}
+					}
+
 					if (isYearFolder(folderName)) {
 						// Recurse with year context
-						glacierFolder(service, folder.getId(), relativePath, untilYearMonth, folderName);
+						glacierFolder(service, job, folder.getId(), relativePath, untilYearMonth, folderName, monthUnits);
 					} else if (isMonthFolder(folderName) && currentYear != null) {
 						String folderYearMonth = currentYear + "-" + folderName;
 						if (folderYearMonth.compareTo(untilYearMonth) <= 0) {
 							// This folder qualifies for glacier
-							logger.info("Glacier: elaborazione cartella {}/{} (relativePath={})", currentYear, folderName, relativePath);
-							processGlacierMonth(service, folder.getId(), currentYear, folderName, relativePath);
+							String year = currentYear;
+							WorkLeases.Task month = () -> {
+								logger.info("Glacier: elaborazione cartella {}/{} (relativePath={})", year, folderName, relativePath);
+								processGlacierMonth(service, job, folder.getId(), year, folderName, relativePath);
+							};
+							if (monthUnits != null) {
+								// Unita' completata solo dopo upload ed eliminazioni dei suoi gruppi
+								monthUnits.add(new WorkLeases.Unit("glacier-" + job.name + "-" + folder.getId(), () -> {
+									month.run();
+									submitGlacierParts(service, job);
+									awaitLanes(job);
+								}));
+							} else {
+								month.run();
+							}
 						} else {
 							logger.debug("Glacier: skip cartella {}/{} (successiva a {})", currentYear, folderName, untilYearMonth);
 						}
 					} else {
 						// Non-date subfolder: recurse with relativePath
 						String newRelativePath = relativePath.isEmpty() ? folderName : relativePath + "/" + folderName;
-						glacierFolder(service, folder.getId(), newRelativePath, untilYearMonth, currentYear);
+						glacierFolder(service, job, folder.getId(), newRelativePath, untilYearMonth, currentYear, monthUnits);
 					}
 				}
 			}
@@ -1136,32 +3051,197 @@ public class App {
 		} while (pageToken != null);
 	}
 
-	private static void processGlacierMonth(Drive service, String folderId, String year, String month,
+	/**
+	 * Accoda nello stadio compress le parti glacier raccolte dalla scansione, dalla piu' costosa
+	 * (LPT): le parti grandi partono per prime e le piccole riempiono i thread che si liberano.
+	 */
+	private static void submitGlacierParts(Drive service, Job job) {
+		List<GlacierGroup.Part> parts = new ArrayList<>(job.glacierParts);
+		job.glacierParts.clear();
+		if (parts.isEmpty()) {
+			return;
+		}
+		parts.sort(Comparator.comparingLong(GlacierGroup.Part::cost).reversed());
+		long bytes = 0;
+		for (GlacierGroup.Part part : parts) {
+			bytes += part.bytes;
+		}
+		GlacierGroup.Part largest = parts.get(0);
+		logger.info("Glacier{}: {} parti ZIP ({}), la piu' grande \"{}\" ({} file, {})", jobSuffix(job), parts.size(),
+				CapacityEstimate.formatBytes(bytes), largest.zipName(), largest.fileCount,
+				CapacityEstimate.formatBytes(largest.bytes));
+		for (GlacierGroup.Part part : parts) {
+			submitGlacierPart(service, job, part);
+		}
+	}
+
+	/**
+	 * Stadio compress: ZIP della parte in una directory temporanea (con i file scaricati nello
+	 * stadio download), poi upload accodato nello stadio upload. Un errore interrompe la parte,
+	 * non le altre: la parte viene ripetuta nel ripasso finale e, se fallisce ancora, l'errore
+	 * e' propagato al termine del job.
+	 */
+	private static void submitGlacierPart(Drive service, Job job, GlacierGroup.Part part) {
+		GlacierGroup group = part.group();
+		job.lanes.compress.submit(() -> {
+			if (job.isLeaseLost()) {
+				return;
+			}
+			Path tempDir = null;
+			try {
+				// Create temp directory under workingDir/tmp
+				Path tmpBase = Paths.get(Settings.workingDir, "tmp");
+				Files.createDirectories(tmpBase);
+				tempDir = Files.createTempDirectory(tmpBase, "glacier_");
+
+				// Create ZIP archive
+				GlacierZip zip = createZipArchive(service, job, part, tempDir);
+
+				submitGlacierUpload(service, job, group.folderId, part.zipName(), Collections.singletonList(zip),
+						group.pathSegments, tempDir, new AtomicInteger());
+				tempDir = null;
+			} catch (IOException e) {
+				glacierFailed(job, "archiviazione", group.folderId, part.zipName(), e,
+						() -> submitGlacierPart(service, job, part));
+			} finally {
+				if (tempDir != null) {
+					deleteTempDir(tempDir);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stadio upload: ZIP e indici (in tempDir) nella cartella glacier. Un tentativo
+	 * fallito viene ripianificato nello stadio e riprende dal primo file non caricato (uploaded:
+	 * file gia' caricati, ZIP e indici nell'ordine; i tentativi ripartono a ogni file caricato);
+	 * gli ZIP restano su disco fino al completamento o al fallimento definitivo.
+	 */
+	private static void submitGlacierUpload(Drive service, Job job, String folderId, String name,
+			List<GlacierZip> zips, List<String> pathSegments, Path tempDir, AtomicInteger uploaded) {
+		RetryTask.submit(job.lanes.upload, "upload glacier \"" + name + "\"", uploaded::get, () -> {
+			uploadGlacierGroup(service, job, folderId, zips, pathSegments, uploaded);
+			deleteTempDir(tempDir);
+		}, e -> {
+			if (!glacierFailed(job, "upload", folderId, name, e,
+					() -> submitGlacierUpload(service, job, folderId, name, zips, pathSegments, tempDir, uploaded))) {
+				deleteTempDir(tempDir);
+			}
+		});
+	}
+
+	/**
+	 * Upload di ZIP e indici (con verifica MD5) a partire dal file uploaded, poi l'eliminazione
+	 * degli originali verificati accodata nello stadio mutate.
+	 */
+	private static void uploadGlacierGroup(Drive service, Job job, String folderId, List<GlacierZip> zips,
+			List<String> pathSegments, AtomicInteger uploaded) throws IOException {
+		if (job.isLeaseLost()) {
+			logger.warn("Glacier: upload di \"{}\" annullato, unita' ripresa da un altro worker", zips.get(0).file.getName());
+			return;
+		}
+		String glacierFolderId = ensureRemotePath(service, job.glacierId, pathSegments);
+
+		// Upload ZIPs e relativi indici (con verifica MD5 dei file caricati)
+		for (int i = uploaded.get(); i < zips.size() * 2; i = uploaded.incrementAndGet()) {
+			GlacierZip zip = zips.get(i / 2);
+			if (i % 2 == 0) {
+				uploadFile(service, glacierFolderId, zip.file, "application/zip", zip.md5);
+			} else {
+				uploadFile(service, glacierFolderId, zip.indexFile, GlacierIndex.MIME_TYPE, zip.indexMd5);
+				job.glacierZipsCreated.incrementAndGet();
+			}
+		}
+
+		// Delete original files from Drive, solo se il contenuto archiviato e' verificato
+		for (GlacierZip zip : zips) {
+			for (GlacierEntry e : zip.entries) {
+				if (!e.verified) {
+					logger.error("File \"{}\" (ID: {}) non verificato nello ZIP \"{}\", originale NON eliminato",
+							e.driveName, e.driveId, zip.file.getName());
+					continue;
+				}
+				submitGlacierDelete(service, job, folderId, e);
+			}
+		}
+	}
+
+	/**
+	 * Stadio mutate: eliminazione dell'originale archiviato, con i tentativi ripianificati nello stadio.
+	 */
+	private static void submitGlacierDelete(Drive service, Job job, String folderId, GlacierEntry entry) {
+		RetryTask.submit(job.lanes.mutate, "eliminazione file \"" + entry.driveName + "\"", () -> {
+			if (job.isLeaseLost()) {
+				return;
+			}
+			deleteDriveFile(service, entry.driveId, entry.driveName);
+			job.glacierFilesArchived.incrementAndGet();
+			if (job.tree != null) {
+				job.tree.removed(folderId, 1);
+			}
+		}, e -> glacierFailed(job, "eliminazione", entry.driveId, entry.driveName, e,
+				() -> submitGlacierDelete(service, job, folderId, entry)));
+	}
+
+	/**
+	 * Operazione glacier non riuscita: rinviata al ripasso finale (true) o, se il fallimento e'
+	 * definitivo, propagata al termine del job (false).
+	 */
+	private static boolean glacierFailed(Job job, String operation, String id, String name, IOException e, Runnable retry) {
+		if (job.failures.failed(operation, id, name, e, retry)) {
+			logger.warn("Glacier ({} \"{}\"): rinvio al ripasso finale: {}", operation, name, e.getMessage());
+			return true;
+		}
+		logger.error("Glacier ({} \"{}\"): {}", operation, name, e.getMessage());
+		job.stageFailed(e);
+		return false;
+	}
+
+	private static void deleteTempDir(Path tempDir) {
+		try {
+			Files.walk(tempDir)
+					.sorted((a, b) -> b.compareTo(a))
+					.forEach(p -> {
+						try { Files.deleteIfExists(p); } catch (IOException ignored) {}
+					});
+		} catch (IOException ignored) {}
+	}
+
+	private static void processGlacierMonth(Drive service, Job job, String folderId, String year, String month,
 			String relativePath) throws IOException {
-		// Collect files at this level only (con paginazione)
-		List<File> files = new ArrayList<>();
+		if (capacityEstimate != null) {
+			capacityEstimate.addSourceFolder();
+		}
+		// Collect files at this level only (con paginazione), in forma compatta
+		List<FileEntry> files = new ArrayList<>();
 		String pageToken = null;
 		do {
 			String fileQuery = String.format("'%s' in parents and mimeType!='%s' and trashed=false", folderId, FOLDER_MIME_TYPE);
 			FileList fileResult = service.files().list()
 					.setQ(fileQuery)
 					.setSpaces("drive")
-					.setFields("nextPageToken, files(id, name, size, modifiedTime)")
+					.setFields("nextPageToken, files(id, name, size, modifiedTime, md5Checksum)")
 					.setPageToken(pageToken)
 					.setSupportsAllDrives(true)
 					.setIncludeItemsFromAllDrives(true)
 					.execute();
 
 			if (fileResult.getFiles() != null) {
-				files.addAll(fileResult.getFiles());
+				for (File file : fileResult.getFiles()) {
+					files.add(FileEntry.of(file, folderId));
+				}
 			}
 			pageToken = fileResult.getNextPageToken();
 		} while (pageToken != null);
+		if (job.tree != null) {
+			job.tree.items(folderId, files.size());
+		}
 
 		// Process files at this level
 		if (!files.isEmpty()) {
 			logger.info("Trovati {} file in {}/{}{}", files.size(), year, month,
 					relativePath.isEmpty() ? "" : "/" + relativePath);
+			ProgressReporter.discovered(files.size());
 
 			// Group by normalizeToGroupKey; files without date pattern use parent folder name
 			String folderFallbackKey;
@@ -1171,66 +3251,59 @@ public class App {
 			} else {
 				folderFallbackKey = "misc";
 			}
-			Map<String, List<File>> groups = new HashMap<>();
-			for (File f : files) {
-				String dateFromName = extractDateCompactFromFileName(f.getName());
+			Map<String, List<FileEntry>> groups = new HashMap<>();
+			for (FileEntry f : files) {
 				String key;
-				if (dateFromName == null) {
+				if (extractDatePacked(f.name, true) < 0) {
 					key = folderFallbackKey;
 				} else {
-					key = normalizeToGroupKey(f.getName());
+					key = normalizeToGroupKey(f.name);
 				}
 				groups.computeIfAbsent(key, k -> new ArrayList<>()).add(f);
 			}
 
 			long maxZipBytes = Settings.glacier.maxZipSizeMB * 1024L * 1024L;
 
-			for (Map.Entry<String, List<File>> entry : groups.entrySet()) {
+			// Glacier destination path: glacier.id/YYYY/MM/[relativePath]
+			List<String> pathSegments = new ArrayList<>();
+			pathSegments.add(year);
+			pathSegments.add(month);
+			if (!relativePath.isEmpty()) {
+				for (String seg : relativePath.split("/")) {
+					if (!seg.isEmpty()) pathSegments.add(seg);
+				}
+			}
+
+			for (Map.Entry<String, List<FileEntry>> entry : groups.entrySet()) {
 				String groupKey = entry.getKey();
-				List<File> groupFiles = entry.getValue();
+				List<FileEntry> groupFiles = entry.getValue();
 
 				logger.info("Glacier gruppo \"{}\" : {} file", groupKey, groupFiles.size());
 
-				// Create temp directory under workingDir/tmp
-				Path tmpBase = Paths.get(Settings.workingDir, "tmp");
-				Files.createDirectories(tmpBase);
-				Path tempDir = Files.createTempDirectory(tmpBase, "glacier_");
-				try {
-					// Create ZIP archives
-					List<java.io.File> zips = createZipArchives(service, groupFiles, groupKey, maxZipBytes, tempDir);
-
-					// Ensure glacier destination path: glacier.id/YYYY/MM/[relativePath]
-					List<String> pathSegments = new ArrayList<>();
-					pathSegments.add(year);
-					pathSegments.add(month);
-					if (!relativePath.isEmpty()) {
-						for (String seg : relativePath.split("/")) {
-							if (!seg.isEmpty()) pathSegments.add(seg);
+				if (capacityEstimate != null || dryRun) {
+					// Solo pianificazione delle parti ZIP: nessun download, upload o eliminazione
+					sortByDate(groupFiles);
+					List<FileEntry> contents = distinctContents(groupFiles, duplicateOf(groupFiles));
+					int[] partEnds = zipPartEnds(contents, maxZipBytes);
+					if (capacityEstimate != null) {
+						capacityEstimate.addGlacierGroup(groupFiles, contents, Integer.parseInt(year) * 100 + Integer.parseInt(month),
+								zipPartSizes(contents, partEnds), pathSegments);
+					} else {
+						ensureRemotePath(service, job.glacierId, pathSegments);
+						logger.info("[DRY RUN] Glacier gruppo \"{}\": {} file in {} ZIP, originali non eliminati",
+								groupKey, groupFiles.size(), partEnds.length);
+						job.glacierZipsCreated.addAndGet(partEnds.length);
+						job.glacierFilesArchived.addAndGet(groupFiles.size());
+						if (job.tree != null) {
+							job.tree.removed(folderId, groupFiles.size());
 						}
+						ProgressReporter.processed(groupFiles.size());
 					}
-					String glacierFolderId = ensureRemotePath(service, Settings.folder.glacier.id, pathSegments);
-
-					// Upload ZIPs
-					for (java.io.File zip : zips) {
-						uploadFile(service, glacierFolderId, zip);
-						glacierZipsCreated.incrementAndGet();
-					}
-
-					// Delete original files from Drive
-					for (File f : groupFiles) {
-						deleteDriveFile(service, f.getId(), f.getName());
-						glacierFilesArchived.incrementAndGet();
-					}
-				} finally {
-					// Cleanup temp directory
-					try {
-						Files.walk(tempDir)
-								.sorted((a, b) -> b.compareTo(a))
-								.forEach(p -> {
-									try { Files.deleteIfExists(p); } catch (IOException ignored) {}
-								});
-					} catch (IOException ignored) {}
+					continue;
 				}
+
+				// Parti avviate a fine scansione, dalla piu' costosa (submitGlacierParts)
+				job.glacierParts.addAll(new GlacierGroup(folderId, groupKey, groupFiles, maxZipBytes, pathSegments).parts());
 			}
 		}
 
@@ -1250,66 +3323,462 @@ public class App {
 			List<File> folders = folderResult.getFiles();
 			if (folders != null) {
 				for (File folder : folders) {
+					if (job.tree != null) {
+						job.tree.folder(folderId, folder.getId(), folder.getName(), true);
+					}
 					String newRelativePath = relativePath.isEmpty() ? folder.getName() : relativePath + "/" + folder.getName();
-					processGlacierMonth(service, folder.getId(), year, month, newRelativePath);
+					processGlacierMonth(service, job, folder.getId(), year, month, newRelativePath);
 				}
 			}
 			pageToken = folderResult.getNextPageToken();
 		} while (pageToken != null);
 	}
 
-	// ==================== MOVE ====================
+	// ==================== RECOVER GLACIER ====================
 
-	private static void moveFile(Drive service, String fileId, String targetFolderId, String newFileName) throws IOException {
-		int retry = 0;
-		boolean moveDone = false;
+	/**
+	 * Recupera i file elencati in torecover.txt dagli archivi glacier: individua l'entry
+	 * tramite gli indici sidecar e scarica solo i byte dell'entry con una Range request sullo ZIP.
+	 */
+	private static void recoverFromGlacier(Drive service) throws IOException {
+		List<String> fileNames = readRecoverList();
+		if (fileNames == null) {
+			return;
+		}
+
+		Path recoverDir = Paths.get("recover");
+		Files.createDirectories(recoverDir);
+
+		// Indici gia' scaricati (ID file indice -> indice), condivisi tra le ricerche
+		Map<String, GlacierIndex> indexCache = new HashMap<>();
+		int found = 0;
+		int notFound = 0;
+		ProgressReporter.discovered(fileNames.size());
+		ProgressReporter.crawlCompleted();
+
+		for (String fileName : fileNames) {
+			logger.debug("Ricerca file \"{}\" negli indici glacier ...", fileName);
+			// Tutte le copie archiviate con questo nome: la prima come fileName, le altre con suffisso _N
+			Set<String> outputNames = new LinkedHashSet<>();
+			for (File indexFile : searchGlacierIndexes(service, fileName)) {
+				GlacierIndex index = indexCache.get(indexFile.getId());
+				if (index == null) {
+					index = loadGlacierIndex(service, indexFile);
+					indexCache.put(indexFile.getId(), index);
+				}
+				List<GlacierEntry> entries = index.find(fileName);
+				if (entries.isEmpty()) {
+					continue;
+				}
+				if (index.zipDriveId == null) {
+					index.zipDriveId = findFileInFolder(service, index.driveParentId, index.zipName);
+					if (index.zipDriveId == null) {
+						logger.error("Archivio \"{}\" indicato dall'indice non trovato su Google Drive", index.zipName);
+						continue;
+					}
+				}
+				for (GlacierEntry entry : entries) {
+					Path outputPath = recoverDir.resolve(resolveZipEntryName(fileName, outputNames));
+					logger.debug("File \"{}\" trovato in \"{}\" (offset {}, {} byte compressi), download in corso...",
+							fileName, index.zipName, entry.localHeaderOffset, entry.compressedSize);
+					extractGlacierEntry(service, index.zipDriveId, entry, outputPath);
+					logger.debug("File \"{}\" scaricato in {}", fileName, outputPath);
+				}
+			}
+
+			if (outputNames.isEmpty()) {
+				logger.warn("File \"{}\" non trovato negli archivi glacier", fileName);
+				notFound++;
+			} else {
+				if (outputNames.size() > 1) {
+					logger.warn("File \"{}\" presente {} volte negli archivi glacier: estratte tutte le copie ({})",
+							fileName, outputNames.size(), outputNames);
+				}
+				found++;
+			}
+			ProgressReporter.processed(1);
+		}
+
+		logger.info("=== RIEPILOGO RECOVER GLACIER ===");
+		logger.info("File cercati:   {}", fileNames.size());
+		logger.info("File scaricati: {}", found);
+		logger.info("File non trovati: {}", notFound);
+	}
+
+	/**
+	 * Elenca gli indici glacier che possono contenere il file. Se il nome contiene una data
+	 * la ricerca e' limitata agli indici del gruppo (prefisso groupKey) con intervallo di date
+	 * compatibile, altrimenti (gruppo dato dalla cartella) vengono considerati tutti gli indici.
+	 */
+	private static List<File> searchGlacierIndexes(Drive service, String fileName) throws IOException {
+		String date = extractDateCompactFromFileName(fileName);
+		String groupPrefix = date != null ? normalizeToGroupKey(fileName) + "_" : null;
+
+		String query;
+		if (groupPrefix != null) {
+			String escapedPrefix = groupPrefix.replace("\\", "\\\\").replace("'", "\\'");
+			query = String.format("name contains '%s' and mimeType='%s' and trashed=false", escapedPrefix, GlacierIndex.MIME_TYPE);
+		} else {
+			query = String.format("mimeType='%s' and trashed=false", GlacierIndex.MIME_TYPE);
+		}
+
+		List<File> candidates = new ArrayList<>();
+		String pageToken = null;
+		do {
+			FileList result = service.files().list()
+					.setQ(query)
+					.setCorpora("allDrives")
+					.setSpaces("drive")
+					.setFields("nextPageToken, files(id, name, parents)")
+					.setPageToken(pageToken)
+					.setSupportsAllDrives(true)
+					.setIncludeItemsFromAllDrives(true)
+					.execute();
+
+			if (result.getFiles() != null) {
+				for (File f : result.getFiles()) {
+					String name = f.getName();
+					if (!name.endsWith(".zip" + GlacierIndex.SUFFIX)) {
+						continue;
+					}
+					if (groupPrefix != null && !isDateInIndexRange(name, groupPrefix, date)) {
+						continue;
+					}
+					candidates.add(f);
+				}
+			}
+			pageToken = result.getNextPageToken();
+		} while (pageToken != null);
+
+		logger.debug("Indici glacier candidati per \"{}\": {}", fileName, candidates.size());
+		return candidates;
+	}
+
+	/**
+	 * Verifica che il nome indice "{groupKey}_{dataMin}-{dataMax}[_partN].zip.idx" appartenga
+	 * al gruppo e che date sia compresa nell'intervallo.
+	 */
+	private static boolean isDateInIndexRange(String indexName, String groupPrefix, String date) {
+		if (!indexName.startsWith(groupPrefix)) {
+			return false;
+		}
+		int start = groupPrefix.length();
+		if (indexName.length() < start + 17 || indexName.charAt(start + 8) != '-') {
+			return false;
+		}
+		String dateMin = indexName.substring(start, start + 8);
+		String dateMax = indexName.substring(start + 9, start + 17);
+		return date.compareTo(dateMin) >= 0 && date.compareTo(dateMax) <= 0;
+	}
+
+	private static GlacierIndex loadGlacierIndex(Drive service, File indexFile) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		downloadDriveFile(service, indexFile.getId(), null, content);
+		GlacierIndex index = GlacierIndex.read(new ByteArrayInputStream(content.toByteArray()));
+		if (index.zipName == null) {
+			String name = indexFile.getName();
+			index.zipName = name.substring(0, name.length() - GlacierIndex.SUFFIX.length());
+		}
+		if (indexFile.getParents() != null && !indexFile.getParents().isEmpty()) {
+			index.driveParentId = indexFile.getParents().get(0);
+		}
+		return index;
+	}
+
+	private static String findFileInFolder(Drive service, String folderId, String fileName) throws IOException {
+		String escapedName = fileName.replace("\\", "\\\\").replace("'", "\\'");
+		String query = folderId != null
+				? String.format("name='%s' and '%s' in parents and trashed=false", escapedName, folderId)
+				: String.format("name='%s' and trashed=false", escapedName);
+		FileList result = service.files().list()
+				.setQ(query)
+				.setCorpora("allDrives")
+				.setSpaces("drive")
+				.setFields("files(id)")
+				.setSupportsAllDrives(true)
+				.setIncludeItemsFromAllDrives(true)
+				.execute();
+		if (result.getFiles() == null || result.getFiles().isEmpty()) {
+			return null;
+		}
+		return result.getFiles().get(0).getId();
+	}
 
-		while (retry < Settings.operation.retry && !moveDone) {
+	/**
+	 * Estrae una singola entry dallo ZIP su Drive con una sola Range request che copre
+	 * local header, nome ed entry compressa: il contenuto viene decompresso in streaming nel file
+	 * di destinazione, verificando dimensione, CRC e MD5 registrati nell'indice. Un tentativo
+	 * fallito riparte dall'inizio dell'entry.
+	 */
+	private static void extractGlacierEntry(Drive service, String zipId, GlacierEntry entry, Path outputPath) throws IOException {
+		int retry = 0;
+		while (true) {
 			try {
 				retry++;
-				logger.debug("Tentativo {}/{} di spostamento file", retry, Settings.operation.retry);
+				extractGlacierEntryRange(service, zipId, entry, outputPath);
+				return;
+			} catch (IOException e) {
+				logger.warn("Tentativo {}/{} di estrazione dell'entry \"{}\" fallito: {}", retry, Settings.operation.retry,
+						entry.entryName, e.getMessage());
+				if (retry >= Settings.operation.retry) {
+					Files.deleteIfExists(outputPath);
+					throw e;
+				}
+				logger.info("Nuovo tentativo tra {} secondi", Settings.operation.sleepRetry);
+				ProgressReporter.retryScheduled();
+				try {
+					Thread.sleep(Settings.operation.sleepRetry * 1000L);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Download interrotto", ie);
+				}
+			}
+		}
+	}
 
-				// Get current parents
-				File file = service.files().get(fileId)
-						.setFields("parents")
-						.setSupportsAllDrives(true)
-						.execute();
+	private static void extractGlacierEntryRange(Drive service, String zipId, GlacierEntry entry, Path outputPath) throws IOException {
+		// Per i duplicati il local header e' quello dell'entry che contiene il contenuto
+		String zipEntryName = entry.ref != null ? entry.ref : entry.entryName;
+		int nameLength = zipEntryName.getBytes(StandardCharsets.UTF_8).length;
+		long first = entry.localHeaderOffset;
+		long last = first + ZIP_LOCAL_HEADER_SIZE + nameLength + ZIP_EXTRA_FIELD_SLACK + entry.compressedSize - 1;
+		DriveRangeInputStream range = openDriveRange(service, zipId, first, last);
+		Inflater inflater = null;
+		try {
+			byte[] local = range.readNBytes(ZIP_LOCAL_HEADER_SIZE);
+			ByteBuffer header = ByteBuffer.wrap(local).order(ByteOrder.LITTLE_ENDIAN);
+			if (local.length < ZIP_LOCAL_HEADER_SIZE || header.getInt(0) != ZIP_LOCAL_HEADER_SIGNATURE) {
+				throw new IOException(String.format("Local header ZIP non valido all'offset %d", first));
+			}
+			int method = header.getShort(8) & 0xffff;
+			int fileNameLength = header.getShort(26) & 0xffff;
+			int extraLength = header.getShort(28) & 0xffff;
+			if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+				throw new IOException(String.format("Metodo di compressione ZIP %d non supportato", method));
+			}
+			long dataOffset = first + ZIP_LOCAL_HEADER_SIZE + fileNameLength + extraLength;
+			skipFully(range, Math.min(fileNameLength + extraLength, range.remaining()));
+			range.limit(entry.compressedSize);
+
+			InputStream data = range;
+			if (range.remaining() < entry.compressedSize) {
+				// Extra field piu' lungo del previsto: la parte mancante con una seconda Range request
+				data = new SequenceInputStream(range, openDriveRange(service, zipId, dataOffset + range.remaining(),
+						dataOffset + entry.compressedSize - 1));
+			}
+			if (method == ZipEntry.DEFLATED) {
+				// Byte fittizio finale richiesto da Inflater(nowrap)
+				inflater = new Inflater(true);
+				data = new InflaterInputStream(new SequenceInputStream(data, new ByteArrayInputStream(new byte[1])), inflater);
+			}
 
-				StringBuilder previousParents = new StringBuilder();
-				if (file.getParents() != null) {
-					for (String parent : file.getParents()) {
-						if (previousParents.length() > 0) {
-							previousParents.append(',');
-						}
-						previousParents.append(parent);
-					}
+			CRC32 crc = new CRC32();
+			MessageDigest digest = newMd5Digest();
+			long size;
+			try (InputStream in = new CheckedInputStream(data, crc);
+					OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(outputPath.toFile())), digest)) {
+				size = in.transferTo(out);
+			}
+
+			if (size != entry.size) {
+				throw new IOException(String.format("Dimensione dell'entry \"%s\" non corrispondente (attesa %d, estratta %d)",
+						entry.entryName, entry.size, size));
+			}
+			if (crc.getValue() != entry.crc) {
+				throw new IOException(String.format("CRC dell'entry \"%s\" non corrispondente", entry.entryName));
+			}
+			String md5 = toHex(digest.digest());
+			if (entry.md5 != null && !entry.md5.equalsIgnoreCase(md5)) {
+				throw new IOException(String.format("MD5 dell'entry \"%s\" non corrispondente", entry.entryName));
+			}
+		} finally {
+			range.close();
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Apre l'intervallo di byte [first, last] del file con una Range request, da leggere in streaming.
+	 */
+	private static DriveRangeInputStream openDriveRange(Drive service, String fileId, long first, long last) throws IOException {
+		Drive.Files.Get request = service.files().get(fileId).setSupportsAllDrives(true);
+		request.getRequestHeaders().setRange(String.format("bytes=%d-%d", first, last));
+		HttpResponse response = request.executeMedia();
+		try {
+			InputStream in = response.getContent();
+			if (response.getStatusCode() != 206 && first > 0) {
+				// Range ignorato dal server: salta i byte iniziali
+				skipFully(in, first);
+			}
+			return new DriveRangeInputStream(in, response, last - first + 1);
+		} catch (IOException | RuntimeException e) {
+			response.disconnect();
+			throw e;
+		}
+	}
+
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new IOException("Fine del contenuto prima dell'offset richiesto");
 				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
 
-				// Update file: move to new parent and optionally rename
-				File updateMetadata = new File();
-				updateMetadata.setName(newFileName);
+	/**
+	 * Contenuto di una Range request letto in streaming, al massimo length byte; close() chiude
+	 * anche la connessione.
+	 */
+	private static final class DriveRangeInputStream extends FilterInputStream {
+		private final HttpResponse response;
+		private long remaining;
+		private boolean closed;
+
+		DriveRangeInputStream(InputStream in, HttpResponse response, long length) {
+			super(in);
+			this.response = response;
+			this.remaining = length;
+		}
 
-				service.files().update(fileId, updateMetadata)
-						.setAddParents(targetFolderId)
-						.setRemoveParents(previousParents.toString())
-						.setSupportsAllDrives(true)
-						.setFields("id, parents")
-						.execute();
+		long remaining() {
+			return remaining;
+		}
+
+		/**
+		 * Limita la lettura ai successivi length byte.
+		 */
+		void limit(long length) {
+			remaining = Math.min(remaining, length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
 
-				moveDone = true;
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= Math.max(0, skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				in.close();
+			} finally {
+				response.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Scarica in memoria l'intervallo di byte [first, last] del file con una Range request
+	 * (intervalli piccoli, es. il campione di -estimate).
+	 */
+	private static byte[] downloadDriveRange(Drive service, String fileId, long first, long last) throws IOException {
+		int retry = 0;
+		while (true) {
+			try {
+				retry++;
+				try (InputStream in = openDriveRange(service, fileId, first, last)) {
+					return in.readAllBytes();
+				}
 			} catch (IOException e) {
-				logger.warn("Tentativo {}/{} di spostamento fallito: {}", retry, Settings.operation.retry, e.getMessage());
+				logger.warn("Tentativo {}/{} di download parziale fallito: {}", retry, Settings.operation.retry, e.getMessage());
 				if (retry >= Settings.operation.retry) {
 					throw e;
 				}
 				logger.info("Nuovo tentativo tra {} secondi", Settings.operation.sleepRetry);
+				ProgressReporter.retryScheduled();
 				try {
 					Thread.sleep(Settings.operation.sleepRetry * 1000L);
 				} catch (InterruptedException ie) {
 					Thread.currentThread().interrupt();
-					logger.error("Sleep interrotto: {}", ie.getMessage());
+					throw new IOException("Download interrotto", ie);
+				}
+			}
+		}
+	}
+
+	// ==================== MOVE ====================
+
+	/**
+	 * Sposta (e rinomina) il file nella cartella di destinazione. currentParentId e' la cartella in cui
+	 * il file e' stato elencato: se noto viene rimosso solo quello, senza leggere i parents da Drive.
+	 * Un solo tentativo: i nuovi tentativi sono ripianificati dallo stadio mutate ({@link RetryTask}).
+	 */
+	private static void moveFile(Drive service, String fileId, String currentParentId, String targetFolderId, String newFileName) throws IOException {
+		StringBuilder previousParents = new StringBuilder();
+		if (currentParentId != null) {
+			previousParents.append(currentParentId);
+		} else {
+			// Get current parents
+			File file = service.files().get(fileId)
+					.setFields("parents")
+					.setSupportsAllDrives(true)
+					.execute();
+
+			if (file.getParents() != null) {
+				for (String parent : file.getParents()) {
+					if (previousParents.length() > 0) {
+						previousParents.append(',');
+					}
+					previousParents.append(parent);
 				}
 			}
 		}
+
+		// Update file: move to new parent and optionally rename
+		File updateMetadata = new File();
+		updateMetadata.setName(newFileName);
+
+		service.files().update(fileId, updateMetadata)
+				.setAddParents(targetFolderId)
+				.setRemoveParents(previousParents.toString())
+				.setSupportsAllDrives(true)
+				.setFields("id, parents")
+				.execute();
 	}
 }
@@ -0,0 +1,317 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseInterceptor;
+
+/**
+ * Stima di capacita' (modalita' -estimate) per reorganize e glacier: raccoglie durante una
+ * scansione di soli metadati file e byte per YYYY/MM, cartelle di destinazione, ZIP previsti,
+ * chiamate API misurate e latenza media, e proietta chiamate e durata dell'esecuzione reale.
+ * <p>
+ * Modello delle chiamate per l'esecuzione reale:
+ * <ul>
+ * <li>reorganize: 2 per file (verifica conflitto, update; il padre e' noto dalla scansione); le
+ * cartelle sono create in modo serializzato (createFolderIfNotExists e' synchronized);</li>
+ * <li>glacier: 1 download per contenuto distinto non vuoto (rangeCount per i file oltre la
+ * soglia; i duplicati nel gruppo non vengono scaricati), 1 delete per file, 2 upload per ZIP
+ * (archivio e indice);</li>
+ * <li>cartelle di destinazione: 1 ricerca + 1 creazione per cartella (limite superiore);</li>
+ * <li>pulizia cartelle vuote: 1 eliminazione per cartella sorgente (limite superiore) sull'albero
+ * raccolto dalla scansione; con workers.leaseDir la pulizia ripercorre la sorgente: 3 chiamate per
+ * cartella (listing, verifica, eliminazione).</li>
+ * </ul>
+ * La durata segue gli stadi dell'elaborazione ({@link Stages}): ogni stadio lavora in parallelo
+ * agli altri con i propri thread (stages.*) e il piu' lento determina la durata. Per glacier
+ * download e upload di parti diverse procedono insieme, con throughput per thread pari al
+ * campione di download; la compressione non e' stimata.
+ */
+class CapacityEstimate {
+
+	final static Logger logger = LogManager.getLogger(CapacityEstimate.class);
+
+	private static final int CALLS_PER_FOLDER = 2;
+	private static final int CALLS_PER_CLEANUP_FOLDER = 1;
+	private static final int CALLS_PER_CLEANUP_FOLDER_LISTING = 3;
+	private static final int CALLS_PER_ZIP = 2;
+	private static final int[] THREAD_PROJECTIONS = { 1, 2, 5, 10, 20, 50 };
+	// Chiamate per file di reorganize negli stadi resolve (verifica conflitto) e mutate (update)
+	private static final int RESOLVE_CALLS_PER_FILE = 1;
+	private static final int MUTATE_CALLS_PER_FILE = 1;
+	private static final int CALLS_PER_REORGANIZE_FILE = RESOLVE_CALLS_PER_FILE + MUTATE_CALLS_PER_FILE;
+
+	// Chiamate API misurate durante la scansione (intercettate dal request initializer)
+	private final LongAdder measuredCalls = new LongAdder();
+	private final LongAdder measuredNanos = new LongAdder();
+	private static final ThreadLocal<Long> REQUEST_START = new ThreadLocal<>();
+
+	// YYYYMM -> {file, byte}
+	private final Map<Integer, long[]> months = new TreeMap<>();
+	private final Set<String> destinationFolders = new HashSet<>();
+	private long sourceFolders = 0;
+	private long files = 0;
+	private long bytes = 0;
+	// Glacier: contenuti distinti non vuoti da scaricare (i duplicati del gruppo non lo sono)
+	private long downloadFiles = 0;
+	private long downloadBytes = 0;
+	private long rangeFiles = 0;
+	private long duplicateFiles = 0;
+	private long duplicateBytes = 0;
+	private String largestFileId;
+	private long largestFileSize = -1;
+
+	private long glacierGroups = 0;
+	private long zipCount = 0;
+	private long zipBytes = 0;
+	private long zipMinBytes = Long.MAX_VALUE;
+	private long zipMaxBytes = 0;
+
+	private long sampleBytes = 0;
+	private long sampleNanos = 0;
+
+	/**
+	 * Avvolge il request initializer del client Drive per contare le chiamate e misurarne la latenza
+	 * (dall'invio della richiesta alla ricezione della risposta).
+	 */
+	HttpRequestInitializer wrap(HttpRequestInitializer delegate) {
+		return request -> {
+			delegate.initialize(request);
+			HttpExecuteInterceptor interceptor = request.getInterceptor();
+			request.setInterceptor(r -> {
+				if (interceptor != null) {
+					interceptor.intercept(r);
+				}
+				REQUEST_START.set(System.nanoTime());
+			});
+			HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+			request.setResponseInterceptor(response -> {
+				Long start = REQUEST_START.get();
+				if (start != null) {
+					measuredNanos.add(System.nanoTime() - start);
+					measuredCalls.increment();
+				}
+				if (responseInterceptor != null) {
+					responseInterceptor.interceptResponse(response);
+				}
+			});
+		};
+	}
+
+	synchronized void addSourceFolder() {
+		sourceFolders++;
+	}
+
+	/**
+	 * File spostato da reorganize nella cartella destinationSegments (YYYY/MM/relativePath).
+	 */
+	synchronized void addReorganizeFile(String fileId, long size, int yearMonth, List<String> destinationSegments) {
+		addFile(fileId, size, yearMonth);
+		addDestinationPath(destinationSegments);
+	}
+
+	/**
+	 * Gruppo glacier della cartella YYYY/MM: file del gruppo, contenuti distinti (scaricati) e
+	 * dimensioni (non compresse) delle parti ZIP.
+	 */
+	synchronized void addGlacierGroup(List<FileEntry> groupFiles, List<FileEntry> contents, int yearMonth,
+			long[] partSizes, List<String> destinationSegments) {
+		long groupBytes = 0;
+		for (FileEntry file : groupFiles) {
+			addFile(file.id, file.sizeOrZero(), yearMonth);
+			groupBytes += file.sizeOrZero();
+		}
+		long rangeThreshold = Settings.download.rangeThresholdMB * 1024L * 1024L;
+		long contentBytes = 0;
+		for (FileEntry content : contents) {
+			long size = content.sizeOrZero();
+			contentBytes += size;
+			if (size <= 0) {
+				continue;
+			}
+			downloadFiles++;
+			downloadBytes += size;
+			if (rangeThreshold > 0 && size >= rangeThreshold && Settings.download.rangeCount > 1) {
+				rangeFiles++;
+			}
+		}
+		duplicateFiles += groupFiles.size() - contents.size();
+		duplicateBytes += groupBytes - contentBytes;
+		glacierGroups++;
+		for (long partSize : partSizes) {
+			zipCount++;
+			zipBytes += partSize;
+			zipMinBytes = Math.min(zipMinBytes, partSize);
+			zipMaxBytes = Math.max(zipMaxBytes, partSize);
+		}
+		addDestinationPath(destinationSegments);
+	}
+
+	private void addFile(String fileId, long size, int yearMonth) {
+		long[] month = months.computeIfAbsent(yearMonth, k -> new long[2]);
+		month[0]++;
+		month[1] += size;
+		files++;
+		bytes += size;
+		if (size > largestFileSize) {
+			largestFileSize = size;
+			largestFileId = fileId;
+		}
+	}
+
+	private void addDestinationPath(List<String> segments) {
+		StringBuilder path = new StringBuilder();
+		for (String segment : segments) {
+			if (path.length() > 0) {
+				path.append('/');
+			}
+			path.append(segment);
+			destinationFolders.add(path.toString());
+		}
+	}
+
+	synchronized String getLargestFileId() {
+		return largestFileSize > 0 ? largestFileId : null;
+	}
+
+	synchronized long getLargestFileSize() {
+		return largestFileSize;
+	}
+
+	/**
+	 * Registra il campione di throughput di download (Range request sul file piu' grande).
+	 */
+	synchronized void setThroughputSample(long sampleBytes, long sampleNanos) {
+		this.sampleBytes = sampleBytes;
+		this.sampleNanos = sampleNanos;
+	}
+
+	long getMeasuredCalls() {
+		return measuredCalls.sum();
+	}
+
+	long getMeasuredNanos() {
+		return measuredNanos.sum();
+	}
+
+	synchronized void report(boolean glacier, long crawlCalls, long crawlNanos) {
+		double latency = crawlCalls > 0 ? crawlNanos / 1e9 / crawlCalls : 0;
+		double throughput = sampleNanos > 0 ? sampleBytes / (sampleNanos / 1e9) : 0;
+
+		logger.info("=== STIMA {} ===", glacier ? "GLACIER" : "REORGANIZE");
+		for (Map.Entry<Integer, long[]> month : months.entrySet()) {
+			int yearMonth = month.getKey();
+			logger.info("  {}/{} : {} file, {}", App.yearString(yearMonth), App.monthString(yearMonth),
+					month.getValue()[0], formatBytes(month.getValue()[1]));
+		}
+		logger.info("File:                     {} ({})", files, formatBytes(bytes));
+		logger.info("Cartelle sorgente:        {}", sourceFolders);
+		logger.info("Cartelle destinazione:    {} (da verificare/creare, limite superiore)", destinationFolders.size());
+
+		long folderCalls = (long) destinationFolders.size() * CALLS_PER_FOLDER;
+		long cleanupCalls = sourceFolders * (Settings.hasLeaseDir() ? CALLS_PER_CLEANUP_FOLDER_LISTING : CALLS_PER_CLEANUP_FOLDER);
+		long workCalls;
+		if (glacier) {
+			logger.info("Gruppi glacier:           {}", glacierGroups);
+			logger.info("Duplicati nei gruppi:     {} ({}, non scaricati)", duplicateFiles, formatBytes(duplicateBytes));
+			logger.info("ZIP previsti:             {} (+ {} indici), maxZipSizeMB={}", zipCount, zipCount, Settings.glacier.maxZipSizeMB);
+			if (zipCount > 0) {
+				logger.info("Dimensione parti ZIP:     min {}, media {}, max {} (prima della compressione)",
+						formatBytes(zipMinBytes), formatBytes(zipBytes / zipCount), formatBytes(zipMaxBytes));
+			}
+			long downloadCalls = (downloadFiles - rangeFiles) + rangeFiles * Settings.download.rangeCount;
+			workCalls = downloadCalls + files + zipCount * CALLS_PER_ZIP;
+		} else {
+			workCalls = files * CALLS_PER_REORGANIZE_FILE;
+		}
+		long totalCalls = crawlCalls + workCalls + folderCalls + cleanupCalls;
+		logger.info("Chiamate API previste:    {} (scansione {}, elaborazione {}, cartelle {}, pulizia {})",
+				totalCalls, crawlCalls, workCalls, folderCalls, cleanupCalls);
+		logger.info("Latenza media misurata:   {} ms su {} chiamate", String.format("%.1f", latency * 1000), crawlCalls);
+		if (throughput > 0) {
+			logger.info("Throughput download:      {}/s (campione di {})", formatBytes((long) throughput), formatBytes(sampleBytes));
+		}
+
+		// Cartelle create in modo serializzato, pulizia al termine
+		double folderSeconds = folderCalls * latency;
+		double cleanupSeconds = cleanupCalls * latency;
+		if (glacier) {
+			// Parti avviate a fine scansione; download e upload (throughput per thread pari al campione) in parallelo
+			double crawlSeconds = crawlCalls * latency;
+			int downloadThreads = Settings.stageThreads(Settings.stages.download.threads);
+			int uploadThreads = Settings.stageThreads(Settings.stages.upload.threads);
+			int mutateThreads = Settings.stageThreads(Settings.stages.mutate.threads);
+			double downloadSeconds = ((downloadFiles - rangeFiles + rangeFiles * Settings.download.rangeCount) * latency
+					+ (throughput > 0 ? downloadBytes / throughput : 0)) / downloadThreads;
+			double uploadSeconds = (zipCount * CALLS_PER_ZIP * latency
+					+ (throughput > 0 ? zipBytes / throughput : 0)) / uploadThreads;
+			double mutateSeconds = files * latency / mutateThreads;
+			double total = crawlSeconds + Math.max(downloadSeconds, Math.max(uploadSeconds, mutateSeconds))
+					+ folderSeconds + cleanupSeconds;
+			logger.info("Durata stimata:           {} (download {} su {} thread, upload {} su {}, eliminazioni {} su {}{})",
+					formatDuration(total), formatDuration(downloadSeconds), downloadThreads, formatDuration(uploadSeconds),
+					uploadThreads, formatDuration(mutateSeconds), mutateThreads,
+					throughput > 0 ? "" : "; trasferimento non stimato: nessun campione di download");
+		} else {
+			// La scansione (stadio discover) procede in parallelo a resolve e mutate
+			double crawlSeconds = crawlCalls * latency / Settings.stageThreads(Settings.stages.discover.threads);
+			int resolveThreads = Settings.stageThreads(Settings.stages.resolve.threads);
+			int mutateThreads = Settings.stageThreads(Settings.stages.mutate.threads);
+			for (int threads : threadProjections(resolveThreads, mutateThreads)) {
+				boolean current = threads == resolveThreads && threads == mutateThreads;
+				logger.info("Durata stimata con resolve/mutate={}: {}{}", threads,
+						formatDuration(reorganizeSeconds(crawlSeconds, latency, threads, threads) + folderSeconds + cleanupSeconds),
+						current ? " (configurazione attuale)" : "");
+			}
+			if (resolveThreads != mutateThreads) {
+				logger.info("Durata stimata con resolve={}, mutate={}: {} (configurazione attuale)", resolveThreads, mutateThreads,
+						formatDuration(reorganizeSeconds(crawlSeconds, latency, resolveThreads, mutateThreads)
+								+ folderSeconds + cleanupSeconds));
+			}
+		}
+	}
+
+	/**
+	 * Scansione, resolve e mutate in parallelo: conta lo stadio piu' lento.
+	 */
+	private double reorganizeSeconds(double crawlSeconds, double latency, int resolveThreads, int mutateThreads) {
+		double resolve = files * RESOLVE_CALLS_PER_FILE * latency / resolveThreads;
+		double mutate = files * MUTATE_CALLS_PER_FILE * latency / mutateThreads;
+		return Math.max(crawlSeconds, Math.max(resolve, mutate));
+	}
+
+	private static int[] threadProjections(int resolveThreads, int mutateThreads) {
+		Set<Integer> values = new java.util.TreeSet<>();
+		for (int threads : THREAD_PROJECTIONS) {
+			values.add(threads);
+		}
+		if (resolveThreads == mutateThreads) {
+			values.add(resolveThreads);
+		}
+		return values.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	static String formatBytes(long bytes) {
+		if (bytes < 1024L * 1024L) {
+			return String.format("%.1f KB", bytes / 1024.0);
+		}
+		if (bytes < 1024L * 1024L * 1024L) {
+			return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+		}
+		return String.format("%.2f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+	}
+
+	static String formatDuration(double seconds) {
+		long total = Math.round(seconds);
+		return String.format("%dh %02dm %02ds", total / 3600, (total % 3600) / 60, total % 60);
+	}
+}
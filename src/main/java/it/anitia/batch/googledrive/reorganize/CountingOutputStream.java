@@ -0,0 +1,33 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream che conta i byte scritti (usato per ricavare gli offset delle entry ZIP).
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+	private long count = 0;
+
+	CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+}
@@ -0,0 +1,173 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stato della modalita' daemon (-r -daemon): ultimo controllo delle modifiche riuscito, errori
+ * consecutivi, modifiche lette e file accodati. Esposto su "/health" (metrics.httpPort) e nelle
+ * metriche Prometheus; gestisce anche la richiesta di arresto (shutdown hook) e la sua attesa.
+ * Fuori dalla modalita' daemon "/health" risponde sempre 200.
+ */
+class DaemonStatus {
+
+	// Errori consecutivi oltre i quali il daemon non e' piu' in salute
+	private static final int MAX_CONSECUTIVE_FAILURES = 5;
+
+	private static volatile boolean active;
+	private static volatile boolean resyncing;
+	private static volatile long startedMillis;
+	private static volatile long lastSuccessMillis;
+	private static volatile long lastResyncMillis;
+	private static volatile int consecutiveFailures;
+	private static volatile String lastError;
+	private static final LongAdder polls = new LongAdder();
+	private static final LongAdder pollFailures = new LongAdder();
+	private static final LongAdder changes = new LongAdder();
+	private static final LongAdder filesQueued = new LongAdder();
+	private static final CountDownLatch stopRequested = new CountDownLatch(1);
+	private static final CountDownLatch stopped = new CountDownLatch(1);
+
+	private DaemonStatus() {
+	}
+
+	static void started() {
+		startedMillis = System.currentTimeMillis();
+		lastSuccessMillis = startedMillis;
+		active = true;
+	}
+
+	static void resyncStarted() {
+		resyncing = true;
+	}
+
+	static void resyncCompleted() {
+		resyncing = false;
+		lastResyncMillis = System.currentTimeMillis();
+		lastSuccessMillis = lastResyncMillis;
+		consecutiveFailures = 0;
+	}
+
+	static void pollSucceeded(int changeCount, int queued) {
+		polls.increment();
+		changes.add(changeCount);
+		filesQueued.add(queued);
+		lastSuccessMillis = System.currentTimeMillis();
+		consecutiveFailures = 0;
+	}
+
+	static void pollFailed(Exception e) {
+		resyncing = false;
+		polls.increment();
+		pollFailures.increment();
+		consecutiveFailures++;
+		lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+	}
+
+	/**
+	 * In salute se l'ultimo controllo riuscito e' recente (entro 5 intervalli di polling, o una
+	 * scansione completa e' in corso) e gli errori consecutivi sono meno di 5.
+	 */
+	static boolean isHealthy() {
+		if (!active) {
+			return true;
+		}
+		long staleMillis = TimeUnit.SECONDS.toMillis(Math.max(60, 5L * Settings.daemon.pollSeconds));
+		return consecutiveFailures < MAX_CONSECUTIVE_FAILURES
+				&& (resyncing || System.currentTimeMillis() - lastSuccessMillis <= staleMillis);
+	}
+
+	static String healthJson() {
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"status\":\"").append(isHealthy() ? "UP" : "DOWN").append('"');
+		if (active) {
+			json.append(",\"started\":\"").append(Instant.ofEpochMilli(startedMillis)).append('"');
+			json.append(",\"lastSuccess\":\"").append(Instant.ofEpochMilli(lastSuccessMillis)).append('"');
+			if (lastResyncMillis > 0) {
+				json.append(",\"lastResync\":\"").append(Instant.ofEpochMilli(lastResyncMillis)).append('"');
+			}
+			json.append(",\"resyncing\":").append(resyncing);
+			json.append(",\"polls\":").append(polls.sum());
+			json.append(",\"consecutiveFailures\":").append(consecutiveFailures);
+			json.append(",\"changes\":").append(changes.sum());
+			json.append(",\"filesQueued\":").append(filesQueued.sum());
+			String error = lastError;
+			if (error != null) {
+				json.append(",\"lastError\":\"").append(error.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+			}
+		}
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Metriche Prometheus del daemon (nessuna fuori dalla modalita' daemon).
+	 */
+	static void writePrometheus(Writer writer) throws IOException {
+		if (!active) {
+			return;
+		}
+		writer.write("# HELP gdrive_daemon_up Daemon in salute (1) o no (0)\n");
+		writer.write("# TYPE gdrive_daemon_up gauge\n");
+		writer.write(String.format("gdrive_daemon_up %d\n", isHealthy() ? 1 : 0));
+		writer.write("# HELP gdrive_daemon_last_success_timestamp_seconds Ultimo controllo delle modifiche riuscito\n");
+		writer.write("# TYPE gdrive_daemon_last_success_timestamp_seconds gauge\n");
+		writer.write(String.format("gdrive_daemon_last_success_timestamp_seconds %d\n", lastSuccessMillis / 1000));
+		writer.write("# HELP gdrive_daemon_polls_total Controlli delle modifiche\n");
+		writer.write("# TYPE gdrive_daemon_polls_total counter\n");
+		writer.write(String.format("gdrive_daemon_polls_total %d\n", polls.sum()));
+		writer.write("# HELP gdrive_daemon_poll_failures_total Controlli delle modifiche falliti\n");
+		writer.write("# TYPE gdrive_daemon_poll_failures_total counter\n");
+		writer.write(String.format("gdrive_daemon_poll_failures_total %d\n", pollFailures.sum()));
+		writer.write("# HELP gdrive_daemon_changes_total Modifiche lette dal feed di Drive\n");
+		writer.write("# TYPE gdrive_daemon_changes_total counter\n");
+		writer.write(String.format("gdrive_daemon_changes_total %d\n", changes.sum()));
+		writer.write("# HELP gdrive_daemon_files_queued_total File nuovi o modificati accodati per lo spostamento\n");
+		writer.write("# TYPE gdrive_daemon_files_queued_total counter\n");
+		writer.write(String.format("gdrive_daemon_files_queued_total %d\n", filesQueued.sum()));
+	}
+
+	// ==================== ARRESTO ====================
+
+	/**
+	 * Richiesta di arresto (shutdown hook): il daemon termina il controllo in corso ed esce.
+	 */
+	static void requestStop() {
+		stopRequested.countDown();
+	}
+
+	static boolean isStopRequested() {
+		return stopRequested.getCount() == 0;
+	}
+
+	/**
+	 * Attende la richiesta di arresto per al massimo seconds secondi; true se richiesto.
+	 */
+	static boolean awaitStop(long seconds) {
+		try {
+			return stopRequested.await(seconds, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return true;
+		}
+	}
+
+	/**
+	 * Da chiamare a fine esecuzione: sblocca lo shutdown hook in attesa.
+	 */
+	static void stopped() {
+		stopped.countDown();
+	}
+
+	static boolean awaitStopped(long seconds) {
+		try {
+			return stopped.await(seconds, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Metriche delle chiamate Drive raccolte da {@link MetricsHttpTransport}, per tipo di operazione.
+ * Esposte via JMX, come file di testo in formato Prometheus (riscritto ogni metrics.intervalSeconds)
+ * e su un endpoint HTTP locale "/metrics" (con "/health" per la modalita' daemon); alla fine
+ * dell'esecuzione viene stampato un riepilogo.
+ */
+class DriveMetrics {
+
+	final static Logger logger = LogManager.getLogger(DriveMetrics.class);
+
+	static final String LIST = "list";
+	static final String GET = "get";
+	static final String CREATE = "create";
+	static final String UPDATE = "update";
+	static final String DELETE = "delete";
+	static final String DOWNLOAD = "download";
+	static final String UPLOAD = "upload";
+	static final String CHANGES = "changes";
+	static final String OTHER = "other";
+
+	private static final String FILES_PATH = "/drive/v3/files";
+	private static final String UPLOAD_PATH = "/upload/drive/";
+	private static final String CHANGES_PATH = "/drive/v3/changes";
+	private static final String JMX_DOMAIN = "it.anitia.batch.googledrive.reorganize";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final Map<String, DriveOperationMetrics> operations = new ConcurrentHashMap<>();
+	private static final AtomicInteger inFlight = new AtomicInteger(0);
+	private static ScheduledExecutorService fileWriter;
+	private static HttpServer httpServer;
+
+	private DriveMetrics() {
+	}
+
+	static DriveOperationMetrics operation(String name) {
+		DriveOperationMetrics metrics = operations.get(name);
+		if (metrics == null) {
+			metrics = operations.computeIfAbsent(name, DriveMetrics::register);
+		}
+		return metrics;
+	}
+
+	private static DriveOperationMetrics register(String name) {
+		DriveOperationMetrics metrics = new DriveOperationMetrics(name);
+		if (Settings.metrics.jmx) {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=DriveMetrics,operation=" + name);
+				if (!server.isRegistered(objectName)) {
+					server.registerMBean(metrics, objectName);
+				}
+			} catch (JMException e) {
+				logger.warn("Registrazione JMX delle metriche \"{}\" fallita: {}", name, e.getMessage());
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Tipo di operazione dalla richiesta HTTP (metodo effettivo e URL dell'API Drive v3).
+	 */
+	static String classify(String method, String url) {
+		int queryStart = url.indexOf('?');
+		String path = queryStart >= 0 ? url.substring(0, queryStart) : url;
+		if (path.contains(UPLOAD_PATH)) {
+			return UPLOAD;
+		}
+		if (path.contains(CHANGES_PATH)) {
+			return CHANGES;
+		}
+		int filesStart = path.indexOf(FILES_PATH);
+		if (filesStart < 0) {
+			return OTHER;
+		}
+		boolean withFileId = path.length() > filesStart + FILES_PATH.length() + 1;
+		switch (method) {
+		case "GET":
+			if (!withFileId) {
+				return LIST;
+			}
+			return queryStart >= 0 && url.indexOf("alt=media", queryStart) >= 0 ? DOWNLOAD : GET;
+		case "POST":
+			return withFileId ? OTHER : CREATE;
+		case "PATCH":
+		case "PUT":
+			return UPDATE;
+		case "DELETE":
+			return DELETE;
+		default:
+			return OTHER;
+		}
+	}
+
+	static void callStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	static void callEnded() {
+		inFlight.decrementAndGet();
+	}
+
+	static int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Byte trasferiti (ricevuti e inviati) da tutte le operazioni.
+	 */
+	static long totalBytes() {
+		long total = 0;
+		for (DriveOperationMetrics metrics : operations.values()) {
+			total += metrics.getBytesIn() + metrics.getBytesOut();
+		}
+		return total;
+	}
+
+	/**
+	 * Avvia gli esportatori configurati (file Prometheus periodico, endpoint HTTP locale).
+	 */
+	static synchronized void start() {
+		if (Settings.metrics.prometheusFile != null && !Settings.metrics.prometheusFile.isBlank()) {
+			Path file = Paths.get(Settings.metrics.prometheusFile);
+			fileWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "metrics-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long interval = Math.max(1, Settings.metrics.intervalSeconds);
+			fileWriter.scheduleAtFixedRate(() -> writePrometheusFile(file), interval, interval, TimeUnit.SECONDS);
+			logger.info("Metriche Prometheus scritte in \"{}\" ogni {} secondi", file, interval);
+		}
+		if (Settings.metrics.httpPort > 0) {
+			try {
+				httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), Settings.metrics.httpPort), 0);
+				httpServer.createContext("/metrics", exchange -> {
+					byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write(body);
+					}
+				});
+				httpServer.createContext("/health", exchange -> {
+					byte[] body = DaemonStatus.healthJson().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+					exchange.sendResponseHeaders(DaemonStatus.isHealthy() ? 200 : 503, body.length);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write(body);
+					}
+				});
+				httpServer.start();
+				logger.info("Metriche disponibili su http://localhost:{}/metrics", Settings.metrics.httpPort);
+			} catch (IOException e) {
+				logger.warn("Avvio endpoint metriche sulla porta {} fallito: {}", Settings.metrics.httpPort, e.getMessage());
+				httpServer = null;
+			}
+		}
+	}
+
+	/**
+	 * Ferma gli esportatori, scrive l'ultima versione del file Prometheus e stampa il riepilogo.
+	 */
+	static synchronized void stop() {
+		if (fileWriter != null) {
+			fileWriter.shutdownNow();
+			writePrometheusFile(Paths.get(Settings.metrics.prometheusFile));
+			fileWriter = null;
+		}
+		if (httpServer != null) {
+			httpServer.stop(0);
+			httpServer = null;
+		}
+		logSummary();
+	}
+
+	private static void logSummary() {
+		if (operations.isEmpty()) {
+			return;
+		}
+		logger.info("=== METRICHE DRIVE ===");
+		for (DriveOperationMetrics metrics : new TreeMap<>(operations).values()) {
+			Histogram latency = metrics.latencySnapshot();
+			logger.info("  {}\t{} chiamate, {} errori {}, {} in / {} out, latenza p50 {} ms, p99 {} ms, max {} ms",
+					metrics.operation, metrics.getCount(), metrics.getErrorCount(), metrics.getErrorsByStatus(),
+					CapacityEstimate.formatBytes(metrics.getBytesIn()), CapacityEstimate.formatBytes(metrics.getBytesOut()),
+					latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000, latency.getMaxValue() / 1000);
+		}
+	}
+
+	private static void writePrometheusFile(Path file) {
+		try {
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(tmp, prometheusText().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Scrittura metriche in \"{}\" fallita: {}", file, e.getMessage());
+		}
+	}
+
+	static String prometheusText() {
+		StringWriter writer = new StringWriter();
+		try {
+			writePrometheus(writer);
+		} catch (IOException e) {
+			// StringWriter non genera IOException
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Formato di esposizione testuale Prometheus 0.0.4.
+	 */
+	static void writePrometheus(Writer writer) throws IOException {
+		Map<String, DriveOperationMetrics> sorted = new TreeMap<>(operations);
+
+		writer.write("# HELP gdrive_requests_total Chiamate Drive per operazione\n");
+		writer.write("# TYPE gdrive_requests_total counter\n");
+		for (DriveOperationMetrics metrics : sorted.values()) {
+			writer.write(String.format("gdrive_requests_total{operation=\"%s\"} %d\n", metrics.operation, metrics.getCount()));
+		}
+
+		writer.write("# HELP gdrive_request_errors_total Chiamate Drive in errore per operazione e stato HTTP\n");
+		writer.write("# TYPE gdrive_request_errors_total counter\n");
+		for (DriveOperationMetrics metrics : sorted.values()) {
+			for (Map.Entry<String, Long> error : metrics.getErrorsByStatus().entrySet()) {
+				writer.write(String.format("gdrive_request_errors_total{operation=\"%s\",status=\"%s\"} %d\n",
+						metrics.operation, error.getKey(), error.getValue()));
+			}
+		}
+
+		writer.write("# HELP gdrive_bytes_total Byte trasferiti per operazione e direzione\n");
+		writer.write("# TYPE gdrive_bytes_total counter\n");
+		for (DriveOperationMetrics metrics : sorted.values()) {
+			writer.write(String.format("gdrive_bytes_total{operation=\"%s\",direction=\"in\"} %d\n", metrics.operation, metrics.getBytesIn()));
+			writer.write(String.format("gdrive_bytes_total{operation=\"%s\",direction=\"out\"} %d\n", metrics.operation, metrics.getBytesOut()));
+		}
+
+		writer.write("# HELP gdrive_requests_in_flight Chiamate Drive in corso\n");
+		writer.write("# TYPE gdrive_requests_in_flight gauge\n");
+		writer.write(String.format("gdrive_requests_in_flight %d\n", inFlight.get()));
+
+		DaemonStatus.writePrometheus(writer);
+		Stages.writePrometheus(writer);
+
+		writer.write("# HELP gdrive_request_duration_seconds Latenza delle chiamate Drive (fino alla ricezione degli header)\n");
+		writer.write("# TYPE gdrive_request_duration_seconds summary\n");
+		for (DriveOperationMetrics metrics : sorted.values()) {
+			Histogram latency = metrics.latencySnapshot();
+			for (double quantile : QUANTILES) {
+				writer.write(String.format(java.util.Locale.ROOT, "gdrive_request_duration_seconds{operation=\"%s\",quantile=\"%s\"} %.6f\n",
+						metrics.operation, quantile, latency.getValueAtPercentile(quantile * 100) / 1e6));
+			}
+			writer.write(String.format(java.util.Locale.ROOT, "gdrive_request_duration_seconds_sum{operation=\"%s\"} %.6f\n",
+					metrics.operation, metrics.getLatencySumMicros() / 1e6));
+			writer.write(String.format("gdrive_request_duration_seconds_count{operation=\"%s\"} %d\n",
+					metrics.operation, latency.getTotalCount()));
+		}
+		writer.flush();
+	}
+}
@@ -0,0 +1,135 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Contatori di un tipo di operazione Drive. Tutti gli aggiornamenti sono lock-free
+ * (LongAdder e ConcurrentHistogram): i thread di lavoro non si contendono un lock.
+ * Le latenze sono registrate in microsecondi, fino a un'ora.
+ */
+class DriveOperationMetrics implements DriveOperationMetricsMXBean {
+
+	private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	final String operation;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder latencyMicros = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+	private final ConcurrentHistogram latency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+
+	DriveOperationMetrics(String operation) {
+		this.operation = operation;
+	}
+
+	/**
+	 * Chiamata completata (anche con stato di errore): latenza fino alla ricezione degli header.
+	 */
+	void recordCall(long nanos, int statusCode) {
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 1), MAX_LATENCY_MICROS);
+		count.increment();
+		latencyMicros.add(micros);
+		latency.recordValue(micros);
+		if (statusCode >= 400) {
+			recordError(Integer.toString(statusCode));
+		}
+	}
+
+	/**
+	 * Chiamata fallita senza risposta (timeout, connessione chiusa, ...).
+	 */
+	void recordIOError(long nanos) {
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 1), MAX_LATENCY_MICROS);
+		count.increment();
+		latencyMicros.add(micros);
+		latency.recordValue(micros);
+		recordError("io");
+	}
+
+	private void recordError(String status) {
+		errors.computeIfAbsent(status, k -> new LongAdder()).increment();
+	}
+
+	void addBytesIn(long bytes) {
+		bytesIn.add(bytes);
+	}
+
+	void addBytesOut(long bytes) {
+		bytesOut.add(bytes);
+	}
+
+	Histogram latencySnapshot() {
+		return latency.copy();
+	}
+
+	long getLatencySumMicros() {
+		return latencyMicros.sum();
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getErrorCount() {
+		long total = 0;
+		for (LongAdder adder : errors.values()) {
+			total += adder.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public Map<String, Long> getErrorsByStatus() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public double getLatencyMeanMillis() {
+		long calls = count.sum();
+		return calls > 0 ? latencyMicros.sum() / 1000.0 / calls : 0;
+	}
+
+	@Override
+	public double getLatencyP50Millis() {
+		return latency.getValueAtPercentile(50) / 1000.0;
+	}
+
+	@Override
+	public double getLatencyP90Millis() {
+		return latency.getValueAtPercentile(90) / 1000.0;
+	}
+
+	@Override
+	public double getLatencyP99Millis() {
+		return latency.getValueAtPercentile(99) / 1000.0;
+	}
+
+	@Override
+	public double getLatencyMaxMillis() {
+		return latency.getMaxValue() / 1000.0;
+	}
+}
@@ -0,0 +1,33 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.Map;
+
+/**
+ * Metriche JMX di un tipo di operazione Drive (list, get, create, update, delete, download, upload).
+ * Registrate come "it.anitia.batch.googledrive.reorganize:type=DriveMetrics,operation=...".
+ */
+public interface DriveOperationMetricsMXBean {
+
+	long getCount();
+
+	long getErrorCount();
+
+	/**
+	 * Errori per codice di stato HTTP ("io" per errori di rete senza risposta).
+	 */
+	Map<String, Long> getErrorsByStatus();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	double getLatencyMeanMillis();
+
+	double getLatencyP50Millis();
+
+	double getLatencyP90Millis();
+
+	double getLatencyP99Millis();
+
+	double getLatencyMaxMillis();
+}
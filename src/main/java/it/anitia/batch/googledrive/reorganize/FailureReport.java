@@ -0,0 +1,157 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Operazioni di un job fallite dopo tutti i tentativi (operation.retry): vengono rinviate al
+ * ripasso finale del job, eseguito quando gli stadi hanno completato il resto del lavoro; quelle
+ * che falliscono anche nel ripasso sono aggiunte al report dei fallimenti (operation.failureReport,
+ * in workingDir) a fine esecuzione. In modalita' daemon non c'e' ripasso: i fallimenti sono
+ * aggiunti al report a ogni ciclo del daemon e poi scartati, quindi la memoria non cresce con
+ * la durata del processo.
+ * <p>
+ * Formato del report (una riga per operazione, separatori TAB):
+ * <pre>
+ * istante  job  operazione  ID  nome  errore
+ * </pre>
+ */
+class FailureReport {
+
+	final static Logger logger = LogManager.getLogger(FailureReport.class);
+
+	/**
+	 * Operazione fallita, con l'azione che la ripete nel ripasso finale (null: non ripetibile).
+	 */
+	static final class Failure {
+		final Instant time = Instant.now();
+		final String operation;
+		final String id;
+		final String name;
+		final String error;
+		final Runnable retry;
+
+		Failure(String operation, String id, String name, IOException error, Runnable retry) {
+			this.operation = operation;
+			this.id = id;
+			this.name = name;
+			this.error = error.getMessage();
+			this.retry = retry;
+		}
+	}
+
+	private final Queue<Failure> deferred = new ConcurrentLinkedQueue<>();
+	private final Queue<Failure> failed = new ConcurrentLinkedQueue<>();
+	// Ripasso finale in corso: un nuovo fallimento e' definitivo
+	private volatile boolean finalPass;
+	// false in modalita' daemon: i file falliti li riprende la scansione completa successiva
+	private volatile boolean deferEnabled = true;
+
+	/**
+	 * Operazione fallita dopo tutti i tentativi: true se rinviata al ripasso finale, false se il
+	 * fallimento e' definitivo (registrato nel report).
+	 */
+	boolean failed(String operation, String id, String name, IOException error, Runnable retry) {
+		// Senza ripasso l'azione di ripetizione (e quanto trattiene) non serve
+		Failure failure = new Failure(operation, id, name, error, deferEnabled ? retry : null);
+		if (retry != null && deferEnabled && !finalPass) {
+			deferred.add(failure);
+			return true;
+		}
+		failed.add(failure);
+		return false;
+	}
+
+	void disableDefer() {
+		deferEnabled = false;
+	}
+
+	/**
+	 * Avvia il ripasso finale: restituisce le operazioni rinviate (da ripetere) e fino a
+	 * {@link #endFinalPass()} i nuovi fallimenti sono definitivi.
+	 */
+	List<Failure> startFinalPass() {
+		List<Failure> pending = new ArrayList<>();
+		Failure failure;
+		while ((failure = deferred.poll()) != null) {
+			pending.add(failure);
+		}
+		finalPass = !pending.isEmpty();
+		return pending;
+	}
+
+	void endFinalPass() {
+		finalPass = false;
+	}
+
+	/**
+	 * Rimuove e restituisce i fallimenti definitivi e le operazioni rinviate mai ripetute (job
+	 * interrotto prima del ripasso).
+	 */
+	private List<Failure> drainUnrecovered() {
+		List<Failure> unrecovered = new ArrayList<>();
+		Failure failure;
+		while ((failure = failed.poll()) != null) {
+			unrecovered.add(failure);
+		}
+		while ((failure = deferred.poll()) != null) {
+			unrecovered.add(failure);
+		}
+		return unrecovered;
+	}
+
+	/**
+	 * Aggiunge al report le operazioni non riuscite dei job non ancora scritte e le scarta
+	 * (nessun file se non ce ne sono).
+	 */
+	static void write(List<Job> jobs) {
+		if (Settings.operation.failureReport == null || Settings.operation.failureReport.isBlank()) {
+			return;
+		}
+		Map<Job, List<Failure>> unrecovered = new LinkedHashMap<>();
+		int count = 0;
+		for (Job job : jobs) {
+			List<Failure> failures = job.failures.drainUnrecovered();
+			if (!failures.isEmpty()) {
+				unrecovered.put(job, failures);
+				count += failures.size();
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+		Path report = Paths.get(Settings.workingDir, Settings.operation.failureReport);
+		try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			for (Map.Entry<Job, List<Failure>> entry : unrecovered.entrySet()) {
+				for (Failure failure : entry.getValue()) {
+					writer.write(String.join("\t", failure.time.toString(), entry.getKey().name, failure.operation,
+							field(failure.id), field(failure.name), field(failure.error)));
+					writer.write('\n');
+				}
+			}
+			logger.warn("{} operazioni non riuscite dopo tutti i tentativi: elenco in {}", count, report);
+		} catch (IOException e) {
+			logger.error("Scrittura del report delle operazioni fallite {} non riuscita: {}", report, e.getMessage());
+		}
+	}
+
+	private static String field(String value) {
+		return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+}
@@ -0,0 +1,430 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pool di thread di uno stadio dell'elaborazione ({@link Stages}), condiviso tra i job di
+ * un'esecuzione. Ogni job accoda i propri task in una coda dedicata ({@link Lane}); i thread
+ * prelevano a turno dalle code non vuote (round robin), quindi un job con milioni di file non
+ * ritarda quelli piu' piccoli avviati insieme e il limite di concorrenza dello stadio resta unico.
+ * <p>
+ * Con queueCapacity > 0 ogni coda e' limitata: chi accoda in una coda piena attende (lo stadio
+ * a monte rallenta invece di accumulare task in memoria). Il tempo di lavoro dei thread, l'attesa
+ * dei task in coda e l'attesa di chi accoda sono misurati per l'utilizzo dello stadio.
+ * <p>
+ * Un task puo' essere riaccodato dopo un ritardo ({@link Lane#schedule}, nuovo tentativo di
+ * un'operazione fallita): il thread non resta fermo nell'attesa e passa agli altri task; la coda
+ * non e' completata finche' ha task in attesa del ritardo.
+ */
+class FairExecutor {
+
+	final static Logger logger = LogManager.getLogger(FairExecutor.class);
+
+	final String name;
+	final int threads;
+	private final int queueCapacity;
+	private final long startNanos = System.nanoTime();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition taskAvailable = lock.newCondition();
+	private final List<Lane> lanes = new ArrayList<>();
+	private int nextLane;
+	private boolean shutdown;
+	// Thread che riaccoda i task ritardati (creato al primo uso)
+	private ScheduledExecutorService scheduler;
+
+	private final LongAdder tasks = new LongAdder();
+	private final LongAdder busyNanos = new LongAdder();
+	private final LongAdder queueWaitNanos = new LongAdder();
+	private final LongAdder blockedNanos = new LongAdder();
+
+	/**
+	 * Task in coda con l'istante di accodamento.
+	 */
+	private static final class Queued {
+		final Runnable task;
+		final long queuedNanos;
+
+		Queued(Runnable task) {
+			this.task = task;
+			this.queuedNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Coda dei task di un job.
+	 */
+	final class Lane {
+		final String name;
+		private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+		private final Condition idle = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+		private int running;
+		// Task in attesa del ritardo prima di essere riaccodati
+		private int delayed;
+		// Incrementata da cancel() e shutdown(): i task ritardati prima vengono scartati
+		private int generation;
+
+		private Lane(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Accoda il task; con la coda piena attende che si liberi un posto.
+		 */
+		void submit(Runnable task) {
+			lock.lock();
+			try {
+				if (isFull()) {
+					long start = System.nanoTime();
+					while (isFull()) {
+						notFull.awaitUninterruptibly();
+					}
+					blockedNanos.add(System.nanoTime() - start);
+				}
+				enqueue(task);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Accoda il task solo se la coda non e' piena; false altrimenti (il chiamante lo esegue).
+		 */
+		boolean offer(Runnable task) {
+			lock.lock();
+			try {
+				if (isFull()) {
+					return false;
+				}
+				enqueue(task);
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Riaccoda il task dopo il ritardo indicato senza occupare un thread dello stadio; alla
+		 * scadenza il task entra in coda anche se piena (il thread del ritardo non puo' attendere).
+		 */
+		void schedule(Runnable task, long delay, TimeUnit unit) {
+			lock.lock();
+			try {
+				if (shutdown) {
+					throw new IllegalStateException("Executor chiuso");
+				}
+				delayed++;
+				int scheduledGeneration = generation;
+				scheduler().schedule(() -> release(task, scheduledGeneration), delay, unit);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void release(Runnable task, int scheduledGeneration) {
+			lock.lock();
+			try {
+				if (scheduledGeneration != generation) {
+					return;
+				}
+				delayed--;
+				queue.add(new Queued(task));
+				taskAvailable.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Task in attesa del ritardo (non ancora riaccodati).
+		 */
+		int delayed() {
+			lock.lock();
+			try {
+				return delayed;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private boolean isBusy() {
+			return !queue.isEmpty() || running > 0 || delayed > 0;
+		}
+
+		private void signalIfIdle() {
+			if (!isBusy()) {
+				idle.signalAll();
+			}
+		}
+
+		private boolean isFull() {
+			return !shutdown && queueCapacity > 0 && queue.size() >= queueCapacity;
+		}
+
+		private void enqueue(Runnable task) {
+			if (shutdown) {
+				throw new IllegalStateException("Executor chiuso");
+			}
+			queue.add(new Queued(task));
+			taskAvailable.signal();
+		}
+
+		/**
+		 * Attende il completamento dei task accodati, compresi quelli ritardati.
+		 */
+		void await() throws InterruptedException {
+			lock.lock();
+			try {
+				while (isBusy()) {
+					idle.await();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Attende il completamento dei task accodati per al massimo timeout; false se non completati.
+		 */
+		boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			long remaining = unit.toNanos(timeout);
+			lock.lock();
+			try {
+				while (isBusy()) {
+					if (remaining <= 0) {
+						return false;
+					}
+					remaining = idle.awaitNanos(remaining);
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Scarta i task accodati non ancora avviati, compresi quelli ritardati (arresto);
+		 * restituisce quanti.
+		 */
+		int cancel() {
+			lock.lock();
+			try {
+				int discarded = queue.size() + delayed;
+				queue.clear();
+				delayed = 0;
+				generation++;
+				notFull.signalAll();
+				signalIfIdle();
+				return discarded;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * name: nome dello stadio (thread "name-N"); queueCapacity: task per coda (0: illimitata).
+	 */
+	FairExecutor(String name, int threads, int queueCapacity) {
+		this.name = name;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		for (int i = 0; i < threads; i++) {
+			startWorker(name + "-" + (i + 1));
+		}
+	}
+
+	private void startWorker(String threadName) {
+		Thread worker = new Thread(this::work, threadName);
+		// Daemon: un errore del chiamante prima di shutdown() non tiene vivo il processo
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	Lane newLane(String name) {
+		lock.lock();
+		try {
+			Lane lane = new Lane(name);
+			lanes.add(lane);
+			return lane;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Task in coda (non ancora avviati) di tutti i job.
+	 */
+	int queued() {
+		lock.lock();
+		try {
+			int queued = 0;
+			for (Lane lane : lanes) {
+				queued += lane.queue.size();
+			}
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Task in attesa del ritardo di tutti i job.
+	 */
+	int delayed() {
+		lock.lock();
+		try {
+			int delayed = 0;
+			for (Lane lane : lanes) {
+				delayed += lane.delayed;
+			}
+			return delayed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Task completati (con esito positivo o in errore).
+	 */
+	long tasks() {
+		return tasks.sum();
+	}
+
+	/**
+	 * Tempo di lavoro dei thread sui task completati.
+	 */
+	long busyNanos() {
+		return busyNanos.sum();
+	}
+
+	/**
+	 * Attesa complessiva dei task avviati tra accodamento e avvio.
+	 */
+	long queueWaitNanos() {
+		return queueWaitNanos.sum();
+	}
+
+	/**
+	 * Attesa complessiva di chi accoda con la coda piena (pressione sullo stadio a monte).
+	 */
+	long blockedNanos() {
+		return blockedNanos.sum();
+	}
+
+	/**
+	 * Frazione del tempo dall'avvio in cui i thread hanno lavorato (0..1).
+	 */
+	double utilization() {
+		long elapsed = System.nanoTime() - startNanos;
+		return elapsed > 0 && threads > 0 ? Math.min(1.0, busyNanos() / ((double) elapsed * threads)) : 0;
+	}
+
+	/**
+	 * I thread terminano dopo aver eseguito i task gia' accodati; i task ancora ritardati
+	 * vengono scartati.
+	 */
+	void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+			}
+			taskAvailable.signalAll();
+			for (Lane lane : lanes) {
+				lane.delayed = 0;
+				lane.generation++;
+				lane.notFull.signalAll();
+				lane.signalIfIdle();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			Lane lane;
+			Queued queued;
+			lock.lock();
+			try {
+				while ((lane = nextLane()) == null) {
+					if (shutdown) {
+						return;
+					}
+					taskAvailable.awaitUninterruptibly();
+				}
+				queued = lane.queue.poll();
+				lane.running++;
+				lane.notFull.signal();
+			} finally {
+				lock.unlock();
+			}
+			long start = System.nanoTime();
+			queueWaitNanos.add(start - queued.queuedNanos);
+			try {
+				queued.task.run();
+			} catch (RuntimeException e) {
+				logger.error("Errore non gestito in un task {} del job \"{}\": {}", name, lane.name, e.toString());
+			} catch (Error e) {
+				// Es. OutOfMemoryError: il thread termina, ma lo stadio non deve restare con un thread in meno
+				logger.error("Errore grave in un task {} del job \"{}\", thread {} sostituito: {}", name, lane.name,
+						Thread.currentThread().getName(), e.toString());
+				startWorker(Thread.currentThread().getName());
+				throw e;
+			} finally {
+				busyNanos.add(System.nanoTime() - start);
+				tasks.increment();
+				lock.lock();
+				try {
+					lane.running--;
+					lane.signalIfIdle();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Thread dei task ritardati dello stadio (con lock).
+	 */
+	private ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, name + "-retry");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Prossima coda non vuota a partire da quella successiva all'ultima servita (con lock).
+	 */
+	private Lane nextLane() {
+		int size = lanes.size();
+		for (int i = 0; i < size; i++) {
+			int index = (nextLane + i) % size;
+			Lane lane = lanes.get(index);
+			if (!lane.queue.isEmpty()) {
+				nextLane = index + 1;
+				return lane;
+			}
+		}
+		return null;
+	}
+}
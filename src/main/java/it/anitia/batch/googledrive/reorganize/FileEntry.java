@@ -0,0 +1,105 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+
+/**
+ * File individuato dalla scansione, in forma compatta: tiene solo i campi usati da reorganize e
+ * glacier con tipi primitivi (modifiedTime in epoch millis, size long, MD5 in due long) al posto
+ * del File del client Drive (mappa GenericData, Long, DateTime e stringhe per ogni campo).
+ * <p>
+ * parentId e' l'ID della cartella elencata: la stessa istanza e' condivisa da tutte le entry
+ * della cartella ed evita la lettura dei parents al momento dello spostamento.
+ */
+final class FileEntry {
+
+	static final long NO_TIME = Long.MIN_VALUE;
+	static final long NO_SIZE = -1;
+
+	final String id;
+	final String name;
+	final String parentId;
+	final long modifiedMillis;
+	final long size;
+	private final long md5High;
+	private final long md5Low;
+	private final boolean hasMd5;
+	// MD5 non nel formato esadecimale atteso (32 cifre): conservato cosi' com'e'
+	private final String md5Text;
+
+	FileEntry(String id, String name, String parentId, long modifiedMillis, long size, String md5) {
+		this.id = id;
+		this.name = name;
+		this.parentId = parentId;
+		this.modifiedMillis = modifiedMillis;
+		this.size = size;
+		if (md5 != null && md5.length() == 32 && isHex(md5)) {
+			this.md5High = parseHex(md5, 0);
+			this.md5Low = parseHex(md5, 16);
+			this.hasMd5 = true;
+			this.md5Text = null;
+		} else {
+			this.md5High = 0;
+			this.md5Low = 0;
+			this.hasMd5 = false;
+			this.md5Text = md5;
+		}
+	}
+
+	static FileEntry of(File file, String parentId) {
+		DateTime modifiedTime = file.getModifiedTime();
+		Long size = file.getSize();
+		return new FileEntry(file.getId(), file.getName(), parentId,
+				modifiedTime != null ? modifiedTime.getValue() : NO_TIME,
+				size != null ? size : NO_SIZE,
+				file.getMd5Checksum());
+	}
+
+	boolean hasModifiedTime() {
+		return modifiedMillis != NO_TIME;
+	}
+
+	/**
+	 * Dimensione in byte, 0 se Drive non la riporta (es. documenti Google).
+	 */
+	long sizeOrZero() {
+		return size > 0 ? size : 0;
+	}
+
+	/**
+	 * md5Checksum di Drive (esadecimale minuscolo), null se assente.
+	 */
+	String md5() {
+		if (!hasMd5) {
+			return md5Text;
+		}
+		char[] hex = new char[32];
+		formatHex(md5High, hex, 0);
+		formatHex(md5Low, hex, 16);
+		return new String(hex);
+	}
+
+	private static boolean isHex(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.digit(s.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseHex(String s, int start) {
+		long value = 0;
+		for (int i = start; i < start + 16; i++) {
+			value = (value << 4) | Character.digit(s.charAt(i), 16);
+		}
+		return value;
+	}
+
+	private static void formatHex(long value, char[] hex, int start) {
+		for (int i = start + 15; i >= start; i--) {
+			hex[i] = Character.forDigit((int) (value & 0xF), 16);
+			value >>>= 4;
+		}
+	}
+}
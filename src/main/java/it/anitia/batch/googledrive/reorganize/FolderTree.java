@@ -0,0 +1,123 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Albero delle cartelle della sorgente raccolto durante reorganize o glacier, con il numero di
+ * elementi (file e sottocartelle) rimasti in ogni cartella: scansione e spostamenti lo aggiornano,
+ * la pulizia finale lo usa per eliminare le cartelle vuote senza ripercorrere la sorgente.
+ * <p>
+ * Il conteggio non vede cio' che arriva nella sorgente dopo la scansione: prima della pulizia
+ * le cartelle con modifiche nel feed di Drive (da {@link #changesToken}) vengono segnate come
+ * non vuote ({@link #added}). La radice non viene mai eliminata (profondita' 0).
+ */
+class FolderTree {
+
+	/**
+	 * Cartella della sorgente.
+	 */
+	static final class Node {
+		final String id;
+		final String name;
+		final Node parent;
+		final int depth;
+		// File non letti dalla scansione (glacier, sopra le cartelle mese): vuota solo dopo verifica su Drive
+		final boolean verify;
+		private final AtomicInteger remaining = new AtomicInteger();
+
+		private Node(String id, String name, Node parent, boolean verify) {
+			this.id = id;
+			this.name = name;
+			this.parent = parent;
+			this.depth = parent != null ? parent.depth + 1 : 0;
+			this.verify = verify;
+		}
+
+		boolean isEmpty() {
+			return remaining.get() == 0;
+		}
+	}
+
+	final String rootId;
+	// Token del feed delle modifiche letto prima della scansione
+	final String changesToken;
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+	private volatile int maxDepth;
+
+	FolderTree(String rootId, String changesToken) {
+		this.rootId = rootId;
+		this.changesToken = changesToken;
+		nodes.put(rootId, new Node(rootId, "", null, false));
+	}
+
+	/**
+	 * Sottocartella individuata dalla scansione. contentsListed: la scansione ne leggera' i file
+	 * (altrimenti la cartella viene verificata su Drive prima dell'eliminazione).
+	 */
+	void folder(String parentId, String id, String name, boolean contentsListed) {
+		Node parent = nodes.get(parentId);
+		if (parent == null) {
+			return;
+		}
+		Node node = new Node(id, name, parent, !contentsListed);
+		if (nodes.putIfAbsent(id, node) == null) {
+			parent.remaining.incrementAndGet();
+			if (node.depth > maxDepth) {
+				maxDepth = node.depth;
+			}
+		}
+	}
+
+	/**
+	 * Elementi della cartella che restano fino a prova contraria (file, cartelle non seguite).
+	 */
+	void items(String folderId, int count) {
+		Node node = nodes.get(folderId);
+		if (node != null) {
+			node.remaining.addAndGet(count);
+		}
+	}
+
+	/**
+	 * Elemento comparso nella cartella dopo la scansione: la cartella non e' vuota.
+	 */
+	void added(String folderId) {
+		items(folderId, 1);
+	}
+
+	/**
+	 * Elementi spostati, archiviati o eliminati dalla cartella.
+	 */
+	void removed(String folderId, int count) {
+		items(folderId, -count);
+	}
+
+	Node get(String id) {
+		return nodes.get(id);
+	}
+
+	int size() {
+		return nodes.size();
+	}
+
+	int maxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Cartelle alla profondita' indicata (1: figlie della radice).
+	 */
+	List<Node> level(int depth) {
+		List<Node> level = new ArrayList<>();
+		for (Node node : nodes.values()) {
+			if (node.depth == depth) {
+				level.add(node);
+			}
+		}
+		return level;
+	}
+}
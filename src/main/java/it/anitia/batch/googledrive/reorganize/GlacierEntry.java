@@ -0,0 +1,29 @@
+package it.anitia.batch.googledrive.reorganize;
+
+/**
+ * Descrive un file archiviato in uno ZIP glacier: riferimento al file originale
+ * su Drive, posizione dell'entry nello ZIP e checksum verificati durante lo streaming.
+ * Un duplicato (stesso contenuto di un altro file del gruppo) non ha un'entry propria:
+ * ref e' il nome dell'entry che contiene il contenuto, di cui riporta posizione e checksum.
+ */
+class GlacierEntry {
+
+	String entryName;
+	String driveId;
+	String driveName;
+	String date;
+	long localHeaderOffset;
+	long compressedSize;
+	long size;
+	long crc;
+	String md5;
+	boolean verified;
+	String ref;
+
+	GlacierEntry(String entryName, String driveId, String driveName, String date) {
+		this.entryName = entryName;
+		this.driveId = driveId;
+		this.driveName = driveName;
+		this.date = date;
+	}
+}
@@ -0,0 +1,132 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gruppo glacier pianificato dai soli metadati del listing: file ordinati per data, contenuti
+ * distinti (ogni duplicato finisce nello ZIP del proprio originale) e parti ZIP entro
+ * glacier.maxZipSizeMB. Ogni parte e' un'unita' di lavoro indipendente (download, ZIP, upload,
+ * eliminazioni) con un costo stimato: byte da scaricare piu' un costo fisso per file. Le parti
+ * vengono avviate dalla piu' costosa (LPT), cosi' i gruppi grandi non restano per ultimi e le
+ * parti piccole riempiono i thread liberi a fine esecuzione.
+ */
+class GlacierGroup {
+
+	// Costo fisso di un file (chiamate di download ed eliminazione) in byte equivalenti: ~50 ms a ~5 MB/s
+	static final long FILE_COST_BYTES = 256 * 1024;
+
+	final String folderId;
+	final String groupKey;
+	final List<String> pathSegments;
+	// File del gruppo ordinati per data (nome, altrimenti modifiedTime)
+	final List<FileEntry> files;
+	final int[] dateKeys;
+	final String dateMin;
+	final String dateMax;
+	// Indici in files dei contenuti distinti e, per ognuno, dei suoi duplicati
+	final List<Integer> contents = new ArrayList<>();
+	final Map<Integer, List<Integer>> duplicates = new HashMap<>();
+	// Fine (esclusa) di ogni parte negli indici di contents
+	final int[] partEnds;
+
+	/**
+	 * Parte ZIP del gruppo (l'unico ZIP se il gruppo non supera glacier.maxZipSizeMB).
+	 */
+	final class Part {
+		final int index;
+		final long bytes;
+		final int fileCount;
+
+		private Part(int index, long bytes, int fileCount) {
+			this.index = index;
+			this.bytes = bytes;
+			this.fileCount = fileCount;
+		}
+
+		GlacierGroup group() {
+			return GlacierGroup.this;
+		}
+
+		/**
+		 * Primo contenuto della parte (indice in contents).
+		 */
+		int firstContent() {
+			return index == 0 ? 0 : partEnds[index - 1];
+		}
+
+		int endContent() {
+			return partEnds[index];
+		}
+
+		long cost() {
+			return bytes + fileCount * FILE_COST_BYTES;
+		}
+
+		String zipName() {
+			if (partEnds.length == 1) {
+				return groupKey + "_" + dateMin + "-" + dateMax + ".zip";
+			}
+			return groupKey + "_" + dateMin + "-" + dateMax + "_part" + (index + 1) + ".zip";
+		}
+	}
+
+	/**
+	 * Pianifica il gruppo; groupFiles viene ordinato per data.
+	 */
+	GlacierGroup(String folderId, String groupKey, List<FileEntry> groupFiles, long maxZipBytes, List<String> pathSegments) {
+		this.folderId = folderId;
+		this.groupKey = groupKey;
+		this.pathSegments = pathSegments;
+		this.files = groupFiles;
+		this.dateKeys = App.sortByDate(groupFiles);
+
+		// Find dateMin and dateMax (fallback to modifiedTime if no date in name)
+		int packedMin = -1;
+		int packedMax = -1;
+		for (int key : dateKeys) {
+			if (key >= 0) {
+				if (packedMin < 0 || key < packedMin) packedMin = key;
+				if (packedMax < 0 || key > packedMax) packedMax = key;
+			}
+		}
+		this.dateMin = packedMin >= 0 ? App.formatDateCompact(packedMin) : "00000000";
+		this.dateMax = packedMax >= 0 ? App.formatDateCompact(packedMax) : "00000000";
+
+		int[] duplicateOf = App.duplicateOf(groupFiles);
+		for (int i = 0; i < duplicateOf.length; i++) {
+			if (duplicateOf[i] < 0) {
+				contents.add(i);
+			} else {
+				duplicates.computeIfAbsent(duplicateOf[i], k -> new ArrayList<>()).add(i);
+			}
+		}
+		this.partEnds = App.zipPartEnds(App.distinctContents(groupFiles, duplicateOf), maxZipBytes);
+	}
+
+	List<Integer> duplicatesOf(int fileIndex) {
+		return duplicates.getOrDefault(fileIndex, Collections.emptyList());
+	}
+
+	/**
+	 * Parti ZIP con byte da scaricare (contenuti distinti) e file archiviati (duplicati compresi).
+	 */
+	List<Part> parts() {
+		List<Part> parts = new ArrayList<>(partEnds.length);
+		int contentIndex = 0;
+		for (int part = 0; part < partEnds.length; part++) {
+			long bytes = 0;
+			int fileCount = 0;
+			for (; contentIndex < partEnds[part]; contentIndex++) {
+				int fileIndex = contents.get(contentIndex);
+				bytes += files.get(fileIndex).sizeOrZero();
+				fileCount += 1 + duplicatesOf(fileIndex).size();
+			}
+			parts.add(new Part(part, bytes, fileCount));
+		}
+		return parts;
+	}
+}
@@ -0,0 +1,168 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Indice (sidecar) di uno ZIP glacier, caricato accanto all'archivio come "{zip}.idx".
+ * Formato testo UTF-8 separato da tab, una riga per entry:
+ * <pre>
+ * # glacier-index v1	{nomeZip}	{md5Zip}
+ * entryName	driveId	data	localHeaderOffset	compressedSize	size	crc	md5	ref	driveName
+ * </pre>
+ * Gli offset permettono di recuperare una singola entry con una Range request sullo ZIP.
+ * ref (vuoto per le entry reali) e' il nome dell'entry da cui leggere il contenuto per i file
+ * duplicati; driveName e' il nome del file originale su Drive, diverso da entryName per i file
+ * omonimi rinominati _N nello ZIP. Le righe degli indici precedenti, senza ref o driveName,
+ * restano valide (driveName = entryName).
+ */
+class GlacierIndex {
+
+	static final String SUFFIX = ".idx";
+	static final String MIME_TYPE = "text/tab-separated-values";
+	private static final String HEADER = "# glacier-index v1";
+
+	String zipName;
+	String zipMd5;
+	List<GlacierEntry> entries = new ArrayList<>();
+	// Riferimenti su Drive, valorizzati in fase di recupero
+	String driveParentId;
+	String zipDriveId;
+
+	private GlacierIndex() {
+	}
+
+	static String indexName(String zipName) {
+		return zipName + SUFFIX;
+	}
+
+	static void write(GlacierZip zip, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writer.write(HEADER);
+		writer.write('\t');
+		writer.write(escape(zip.file.getName()));
+		writer.write('\t');
+		writer.write(zip.md5 != null ? zip.md5 : "");
+		writer.write('\n');
+		for (GlacierEntry e : zip.entries) {
+			writer.write(escape(e.entryName));
+			writer.write('\t');
+			writer.write(e.driveId);
+			writer.write('\t');
+			writer.write(e.date);
+			writer.write('\t');
+			writer.write(Long.toString(e.localHeaderOffset));
+			writer.write('\t');
+			writer.write(Long.toString(e.compressedSize));
+			writer.write('\t');
+			writer.write(Long.toString(e.size));
+			writer.write('\t');
+			writer.write(Long.toHexString(e.crc));
+			writer.write('\t');
+			writer.write(e.md5 != null ? e.md5 : "");
+			writer.write('\t');
+			writer.write(e.ref != null ? escape(e.ref) : "");
+			writer.write('\t');
+			writer.write(escape(e.driveName));
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	static GlacierIndex read(InputStream in) throws IOException {
+		GlacierIndex index = new GlacierIndex();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line = reader.readLine();
+		if (line == null || !line.startsWith(HEADER)) {
+			throw new IOException("Indice glacier non valido: intestazione assente");
+		}
+		String[] header = line.split("\t", -1);
+		index.zipName = header.length > 1 ? unescape(header[1]) : null;
+		index.zipMd5 = header.length > 2 && !header[2].isEmpty() ? header[2] : null;
+
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\t", -1);
+			if (fields.length < 8) {
+				throw new IOException("Indice glacier non valido: riga \"" + line + "\"");
+			}
+			String entryName = unescape(fields[0]);
+			String driveName = fields.length > 9 && !fields[9].isEmpty() ? unescape(fields[9]) : entryName;
+			GlacierEntry e = new GlacierEntry(entryName, fields[1], driveName, fields[2]);
+			e.localHeaderOffset = Long.parseLong(fields[3]);
+			e.compressedSize = Long.parseLong(fields[4]);
+			e.size = Long.parseLong(fields[5]);
+			e.crc = Long.parseLong(fields[6], 16);
+			e.md5 = fields[7].isEmpty() ? null : fields[7];
+			e.ref = fields.length > 8 && !fields[8].isEmpty() ? unescape(fields[8]) : null;
+			e.verified = true;
+			index.entries.add(e);
+		}
+		return index;
+	}
+
+	/**
+	 * Entry dei file originali con il nome indicato, nell'ordine dello ZIP: piu' di una se il
+	 * gruppo conteneva file omonimi (nello ZIP con suffisso _N).
+	 */
+	List<GlacierEntry> find(String fileName) {
+		List<GlacierEntry> found = new ArrayList<>(1);
+		for (GlacierEntry e : entries) {
+			if (e.driveName.equals(fileName)) {
+				found.add(e);
+			}
+		}
+		return found;
+	}
+
+	private static String escape(String value) {
+		if (value.indexOf('\\') < 0 && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\': sb.append("\\\\"); break;
+			case '\t': sb.append("\\t"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char n = value.charAt(++i);
+				switch (n) {
+				case 't': sb.append('\t'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				default: sb.append(n);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
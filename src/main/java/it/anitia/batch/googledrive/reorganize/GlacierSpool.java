@@ -0,0 +1,183 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spool in memoria delle entry glacier scaricate prima della scrittura nello ZIP.
+ * <p>
+ * I file fino a glacier.spoolMaxEntryKB vengono scaricati in blocchi ByteBuffer diretti da
+ * {@value #CHUNK_SIZE} byte presi da un pool condiviso, limitato a glacier.spoolMemoryMB:
+ * niente file temporaneo (creazione, scrittura, rilettura e cancellazione) per i piccoli log.
+ * I file piu' grandi, o quelli per cui il budget e' esaurito, restano sul disco
+ * (tmp/ della working dir), dove possono anche essere scaricati a intervalli paralleli.
+ * <p>
+ * I blocchi vengono allocati solo al primo uso e poi riutilizzati fino alla fine del processo.
+ */
+class GlacierSpool {
+
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+	private static final LongAdder memoryEntries = new LongAdder();
+	private static final LongAdder diskEntries = new LongAdder();
+	private static Semaphore budget;
+
+	private GlacierSpool() {
+	}
+
+	/**
+	 * Riserva i blocchi per un'entry di size byte. Ritorna null se l'entry va spoolata su disco
+	 * (oltre la soglia, spool disattivato o budget esaurito).
+	 */
+	static Entry reserve(long size) {
+		Semaphore permits = budget();
+		long maxEntryBytes = Settings.glacier.spoolMaxEntryKB * 1024L;
+		if (permits == null || size <= 0 || size > maxEntryBytes) {
+			diskEntries.increment();
+			return null;
+		}
+		int chunks = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		if (!permits.tryAcquire(chunks)) {
+			diskEntries.increment();
+			return null;
+		}
+		memoryEntries.increment();
+		Entry entry = new Entry(permits);
+		for (int i = 0; i < chunks; i++) {
+			entry.chunks.add(acquireChunk());
+		}
+		entry.pooledChunks = chunks;
+		return entry;
+	}
+
+	private static synchronized Semaphore budget() {
+		if (budget == null) {
+			int maxChunks = (int) Math.min(Integer.MAX_VALUE, Settings.glacier.spoolMemoryMB * 1024L * 1024L / CHUNK_SIZE);
+			if (maxChunks <= 0 || Settings.glacier.spoolMaxEntryKB <= 0) {
+				return null;
+			}
+			budget = new Semaphore(maxChunks);
+		}
+		return budget;
+	}
+
+	private static ByteBuffer acquireChunk() {
+		ByteBuffer chunk = pool.poll();
+		if (chunk == null) {
+			chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		}
+		chunk.clear();
+		return chunk;
+	}
+
+	/**
+	 * Entry spoolate in memoria e su disco dall'avvio.
+	 */
+	static String summary() {
+		return String.format("%d in memoria, %d su disco", memoryEntries.sum(), diskEntries.sum());
+	}
+
+	/**
+	 * Contenuto di un'entry in memoria. E' l'OutputStream del download: close() non rilascia
+	 * i blocchi (lo stream viene chiuso dal download), il rilascio avviene con {@link #release()}
+	 * dopo la copia nello ZIP.
+	 */
+	static final class Entry extends OutputStream {
+
+		private final Semaphore permits;
+		private final List<ByteBuffer> chunks = new ArrayList<>();
+		private int pooledChunks;
+		private int current;
+
+		private Entry(Semaphore permits) {
+			this.permits = permits;
+		}
+
+		/**
+		 * Riporta lo spool a vuoto mantenendo i blocchi (nuovo tentativo di download).
+		 */
+		Entry reset() {
+			for (ByteBuffer chunk : chunks) {
+				chunk.clear();
+			}
+			current = 0;
+			return this;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			writable().put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				ByteBuffer chunk = writable();
+				int n = Math.min(len, chunk.remaining());
+				chunk.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		private ByteBuffer writable() {
+			ByteBuffer chunk = chunks.get(current);
+			if (chunk.hasRemaining()) {
+				return chunk;
+			}
+			current++;
+			if (current == chunks.size()) {
+				// Contenuto piu' grande della dimensione dichiarata da Drive: blocco dal pool se il budget
+				// lo consente, altrimenti su heap (fuori dal pool)
+				if (permits.tryAcquire()) {
+					chunks.add(acquireChunk());
+					pooledChunks++;
+				} else {
+					chunks.add(ByteBuffer.allocate(CHUNK_SIZE));
+				}
+			}
+			return chunks.get(current);
+		}
+
+		/**
+		 * Copia il contenuto nello stream (tipicamente lo ZipOutputStream) tramite il buffer indicato.
+		 */
+		void writeTo(OutputStream out, byte[] buffer) throws IOException {
+			for (int i = 0; i <= current && i < chunks.size(); i++) {
+				ByteBuffer chunk = chunks.get(i).duplicate();
+				chunk.flip();
+				while (chunk.hasRemaining()) {
+					int n = Math.min(buffer.length, chunk.remaining());
+					chunk.get(buffer, 0, n);
+					out.write(buffer, 0, n);
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			// Il rilascio dei blocchi e' esplicito (release)
+		}
+
+		/**
+		 * Restituisce i blocchi al pool e libera il budget.
+		 */
+		void release() {
+			for (ByteBuffer chunk : chunks) {
+				if (chunk.isDirect()) {
+					pool.offer(chunk);
+				}
+			}
+			chunks.clear();
+			permits.release(pooledChunks);
+			pooledChunks = 0;
+		}
+	}
+}
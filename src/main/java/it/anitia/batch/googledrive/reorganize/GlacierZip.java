@@ -0,0 +1,21 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Archivio ZIP glacier creato in locale: file, MD5 calcolato in scrittura,
+ * elenco delle entry contenute e relativo indice sidecar.
+ */
+class GlacierZip {
+
+	java.io.File file;
+	String md5;
+	java.io.File indexFile;
+	String indexMd5;
+	List<GlacierEntry> entries = new ArrayList<>();
+
+	GlacierZip(java.io.File file) {
+		this.file = file;
+	}
+}
@@ -0,0 +1,217 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Coppia sorgente -> destinazione (e cartella glacier) elaborata da reorganize o glacier, con i
+ * contatori del proprio riepilogo. Senza jobs.file l'unico job e' quello di folder.*; con
+ * jobs.file i job dell'elenco sono eseguiti insieme nello stesso processo.
+ * <p>
+ * Formato di jobs.file (properties), per ogni job NOME:
+ * <pre>
+ * NOME.source.id=...
+ * NOME.source.recursive=true
+ * NOME.destination.id=...
+ * NOME.glacier.id=...
+ * </pre>
+ * destination.id e' obbligatorio solo per reorganize (-r, -daemon); con glacier (-g) i job senza
+ * glacier.id sono saltati.
+ */
+class Job {
+
+	final static Logger logger = LogManager.getLogger(Job.class);
+
+	static final String DEFAULT_NAME = "default";
+
+	final String name;
+	final String sourceId;
+	final boolean sourceRecursive;
+	final String destinationId;
+	final String glacierId;
+
+	// Code del job negli stadi dell'elaborazione
+	Stages.Lanes lanes;
+	// Primo errore di un task degli stadi che interrompe il job (propagato al termine dell'attesa)
+	private final AtomicReference<IOException> stageFailure = new AtomicReference<>();
+	// Solo in modalita' daemon: cartelle della sorgente (ID -> relativePath) e file accodati dal feed delle modifiche
+	Map<String, String> sourceFolders;
+	final Set<String> pendingFiles = ConcurrentHashMap.newKeySet();
+	// Albero delle cartelle della sorgente per la pulizia finale (null: pulizia con listing su Drive)
+	FolderTree tree;
+	// Con workers.leaseDir: lease dell'unita' di lavoro in elaborazione (null fuori dalle unita')
+	volatile WorkLeases.Lease lease;
+	// Operazioni fallite dopo tutti i tentativi (ripasso finale e report)
+	final FailureReport failures = new FailureReport();
+	// Parti glacier raccolte dalla scansione (thread del job), avviate al termine in ordine di costo
+	final List<GlacierGroup.Part> glacierParts = new ArrayList<>();
+
+	final AtomicInteger filesProcessed = new AtomicInteger(0);
+	final AtomicInteger filesMoved = new AtomicInteger(0);
+	final AtomicInteger filesError = new AtomicInteger(0);
+	final AtomicInteger glacierFilesArchived = new AtomicInteger(0);
+	final AtomicInteger glacierZipsCreated = new AtomicInteger(0);
+	final AtomicInteger glacierDuplicates = new AtomicInteger(0);
+	final AtomicLong glacierDuplicateBytes = new AtomicLong(0);
+	int foldersDeleted;
+	long elapsedNanos;
+	// Eccezione che ha interrotto il job (null se completato)
+	Exception failure;
+
+	Job(String name, String sourceId, boolean sourceRecursive, String destinationId, String glacierId) {
+		this.name = name;
+		this.sourceId = sourceId;
+		this.sourceRecursive = sourceRecursive;
+		this.destinationId = destinationId;
+		this.glacierId = glacierId;
+	}
+
+	/**
+	 * Errore di un task degli stadi (scansione di una cartella, gruppo glacier): il job prosegue
+	 * con gli altri task e l'errore viene propagato da {@link #rethrowStageFailure()}.
+	 */
+	void stageFailed(IOException e) {
+		stageFailure.compareAndSet(null, e);
+	}
+
+	/**
+	 * True se il lease dell'unita' in elaborazione e' stato ripreso da un altro worker: la
+	 * scansione si interrompe e spostamenti, upload ed eliminazioni non vengono piu' eseguiti.
+	 */
+	boolean isLeaseLost() {
+		WorkLeases.Lease current = lease;
+		return current != null && current.isLost();
+	}
+
+	void rethrowStageFailure() throws IOException {
+		IOException failure = stageFailure.getAndSet(null);
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Job da eseguire: quelli di jobs.file se configurato, altrimenti il solo job di folder.*.
+	 * Con glacier restano solo i job con glacier.id (gli altri sono saltati con un warning): la
+	 * lista puo' essere vuota.
+	 */
+	static List<Job> configured(boolean glacier) throws IOException {
+		List<Job> jobs = Settings.hasJobsFile() ? load(Settings.jobs.file, glacier)
+				: Collections.singletonList(new Job(DEFAULT_NAME, Settings.folder.source.id,
+						Settings.folder.source.recursive, Settings.folder.destination.id, Settings.folder.glacier.id));
+		if (!glacier) {
+			return jobs;
+		}
+		List<Job> glacierJobs = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			if (job.glacierId == null || job.glacierId.isBlank()) {
+				logger.warn("Job \"{}\" saltato: configurazione \"{}\" assente, necessaria per la modalita' glacier",
+						job.name, Settings.hasJobsFile() ? job.name + ".glacier.id" : "folder.glacier.id");
+			} else {
+				glacierJobs.add(job);
+			}
+		}
+		return glacierJobs;
+	}
+
+	/**
+	 * Legge i job da un file properties (un job per ogni chiave NOME.source.id, in ordine di nome).
+	 * NOME.destination.id e' obbligatorio solo per reorganize (glacier false).
+	 */
+	static List<Job> load(String file, boolean glacier) throws IOException {
+		Properties properties = new Properties();
+		try (FileInputStream fis = new FileInputStream(file)) {
+			properties.load(fis);
+		}
+		TreeSet<String> names = new TreeSet<>();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.endsWith(".source.id")) {
+				names.add(key.substring(0, key.length() - ".source.id".length()));
+			}
+		}
+		if (names.isEmpty()) {
+			throw new IOException(String.format("Nessun job (chiavi NOME.source.id) in \"%s\"", file));
+		}
+		List<Job> jobs = new ArrayList<>(names.size());
+		for (String name : names) {
+			String sourceId = value(properties, name + ".source.id");
+			String destinationId = value(properties, name + ".destination.id");
+			if (sourceId == null) {
+				throw new IOException(String.format("Job \"%s\": configurazione \"%s.source.id\" vuota", name, name));
+			}
+			if (destinationId == null && !glacier) {
+				throw new IOException(String.format("Job \"%s\": configurazione \"%s.destination.id\" assente", name, name));
+			}
+			String recursive = value(properties, name + ".source.recursive");
+			jobs.add(new Job(name, sourceId, recursive == null || Boolean.parseBoolean(recursive),
+					destinationId, value(properties, name + ".glacier.id")));
+		}
+		logger.info("Letti {} job da {}: {}", jobs.size(), file, names);
+		return jobs;
+	}
+
+	private static String value(Properties properties, String key) {
+		String value = properties.getProperty(key);
+		return value == null || value.isBlank() ? null : value.trim();
+	}
+
+	/**
+	 * Riepilogo del job (reorganize o glacier). Con piu' job il titolo riporta il nome (suffix)
+	 * e il riepilogo anche durata ed eventuale errore che ha interrotto il job.
+	 */
+	void logSummary(boolean glacier, String suffix) {
+		boolean named = !suffix.isEmpty();
+		if (glacier) {
+			logger.info("=== RIEPILOGO GLACIER{} ===", suffix);
+			logger.info("File archiviati:    {}", glacierFilesArchived.get());
+			logger.info("ZIP creati:         {}", glacierZipsCreated.get());
+			logger.info("Duplicati:          {} ({} non scaricati)", glacierDuplicates.get(),
+					CapacityEstimate.formatBytes(glacierDuplicateBytes.get()));
+		} else {
+			logger.info("=== RIEPILOGO{} ===", suffix);
+			logger.info("File elaborati:     {}", filesProcessed.get());
+			logger.info("File spostati:      {}", filesMoved.get());
+			logger.info("File in errore:     {}", filesError.get());
+		}
+		logger.info("Cartelle eliminate: {}", foldersDeleted);
+		if (named) {
+			logger.info("Durata:             {}", CapacityEstimate.formatDuration(elapsedNanos / 1e9));
+			if (failure != null) {
+				logger.error("Job interrotto:     {}: {}", failure.getClass().getName(), failure.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Somma dei contatori dei job (riepilogo complessivo).
+	 */
+	static Job total(List<Job> jobs) {
+		Job total = new Job("", null, false, null, null);
+		for (Job job : jobs) {
+			total.filesProcessed.addAndGet(job.filesProcessed.get());
+			total.filesMoved.addAndGet(job.filesMoved.get());
+			total.filesError.addAndGet(job.filesError.get());
+			total.glacierFilesArchived.addAndGet(job.glacierFilesArchived.get());
+			total.glacierZipsCreated.addAndGet(job.glacierZipsCreated.get());
+			total.glacierDuplicates.addAndGet(job.glacierDuplicates.get());
+			total.glacierDuplicateBytes.addAndGet(job.glacierDuplicateBytes.get());
+			total.foldersDeleted += job.foldersDeleted;
+			total.elapsedNanos = Math.max(total.elapsedNanos, job.elapsedNanos);
+		}
+		return total;
+	}
+}
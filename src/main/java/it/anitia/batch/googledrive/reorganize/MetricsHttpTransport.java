@@ -0,0 +1,249 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+/**
+ * HttpTransport che avvolge quello reale (NetHttpTransport) e registra per ogni chiamata Drive
+ * tipo di operazione, latenza, stato HTTP e byte trasferiti in {@link DriveMetrics}.
+ * <p>
+ * NetHttpTransport e' final e buildRequest e' protected: la richiesta di basso livello
+ * del transport avvolto viene costruita via reflection.
+ */
+class MetricsHttpTransport extends HttpTransport {
+
+	private static final Method BUILD_REQUEST;
+
+	static {
+		try {
+			BUILD_REQUEST = HttpTransport.class.getDeclaredMethod("buildRequest", String.class, String.class);
+			BUILD_REQUEST.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("HttpTransport.buildRequest non disponibile", e);
+		}
+	}
+
+	private final HttpTransport delegate;
+
+	MetricsHttpTransport(HttpTransport delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public boolean supportsMethod(String method) throws IOException {
+		return delegate.supportsMethod(method);
+	}
+
+	@Override
+	public boolean isMtls() {
+		return delegate.isMtls();
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		delegate.shutdown();
+	}
+
+	@Override
+	protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+		return new MetricsRequest(buildRequest(delegate, method, url), method, url);
+	}
+
+	/**
+	 * Richiesta di basso livello del transport indicato (buildRequest e' protected).
+	 */
+	static LowLevelHttpRequest buildRequest(HttpTransport delegate, String method, String url) throws IOException {
+		try {
+			return (LowLevelHttpRequest) BUILD_REQUEST.invoke(delegate, method, url);
+		} catch (IllegalAccessException e) {
+			throw new IOException(e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static class MetricsRequest extends LowLevelHttpRequest {
+
+		private final LowLevelHttpRequest request;
+		private final String url;
+		private String method;
+
+		MetricsRequest(LowLevelHttpRequest request, String method, String url) {
+			this.request = request;
+			this.method = method;
+			this.url = url;
+		}
+
+		@Override
+		public void addHeader(String name, String value) throws IOException {
+			// PATCH non supportato da NetHttpTransport: il client Drive invia POST con override del metodo
+			if ("X-HTTP-Method-Override".equalsIgnoreCase(name)) {
+				method = value;
+			}
+			request.addHeader(name, value);
+		}
+
+		@Override
+		public void setTimeout(int connectTimeout, int readTimeout) throws IOException {
+			request.setTimeout(connectTimeout, readTimeout);
+		}
+
+		@Override
+		public void setWriteTimeout(int writeTimeout) throws IOException {
+			request.setWriteTimeout(writeTimeout);
+		}
+
+		@Override
+		public LowLevelHttpResponse execute() throws IOException {
+			DriveOperationMetrics metrics = DriveMetrics.operation(DriveMetrics.classify(method, url));
+			request.setContentLength(getContentLength());
+			request.setContentEncoding(getContentEncoding());
+			request.setContentType(getContentType());
+			// Tipo deprecato, ma e' ancora quello di LowLevelHttpRequest: google-http-client non ha un sostituto
+			@SuppressWarnings("deprecation")
+			StreamingContent content = getStreamingContent();
+			if (content != null) {
+				request.setStreamingContent(out -> {
+					CountingOutputStream counter = new CountingOutputStream(out);
+					try {
+						content.writeTo(counter);
+					} finally {
+						metrics.addBytesOut(counter.getCount());
+					}
+				});
+			}
+
+			DriveMetrics.callStarted();
+			long start = System.nanoTime();
+			LowLevelHttpResponse response;
+			try {
+				response = request.execute();
+			} catch (IOException e) {
+				metrics.recordIOError(System.nanoTime() - start);
+				throw e;
+			} finally {
+				DriveMetrics.callEnded();
+			}
+			metrics.recordCall(System.nanoTime() - start, response.getStatusCode());
+			return new MetricsResponse(response, metrics);
+		}
+	}
+
+	private static class MetricsResponse extends LowLevelHttpResponse {
+
+		private final LowLevelHttpResponse response;
+		private final DriveOperationMetrics metrics;
+
+		MetricsResponse(LowLevelHttpResponse response, DriveOperationMetrics metrics) {
+			this.response = response;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			InputStream content = response.getContent();
+			return content != null ? new CountingInputStream(content, metrics) : null;
+		}
+
+		@Override
+		public String getContentEncoding() throws IOException {
+			return response.getContentEncoding();
+		}
+
+		@Override
+		public long getContentLength() throws IOException {
+			return response.getContentLength();
+		}
+
+		@Override
+		public String getContentType() throws IOException {
+			return response.getContentType();
+		}
+
+		@Override
+		public String getStatusLine() throws IOException {
+			return response.getStatusLine();
+		}
+
+		@Override
+		public int getStatusCode() throws IOException {
+			return response.getStatusCode();
+		}
+
+		@Override
+		public String getReasonPhrase() throws IOException {
+			return response.getReasonPhrase();
+		}
+
+		@Override
+		public int getHeaderCount() throws IOException {
+			return response.getHeaderCount();
+		}
+
+		@Override
+		public String getHeaderName(int index) throws IOException {
+			return response.getHeaderName(index);
+		}
+
+		@Override
+		public String getHeaderValue(int index) throws IOException {
+			return response.getHeaderValue(index);
+		}
+
+		@Override
+		public void disconnect() throws IOException {
+			response.disconnect();
+		}
+	}
+
+	/**
+	 * Conta i byte (compressi, cosi' come ricevuti) letti dal corpo della risposta.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private final DriveOperationMetrics metrics;
+
+		CountingInputStream(InputStream in, DriveOperationMetrics metrics) {
+			super(in);
+			this.metrics = metrics;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				metrics.addBytesIn(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				metrics.addBytesIn(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			if (skipped > 0) {
+				metrics.addBytesIn(skipped);
+			}
+			return skipped;
+		}
+	}
+}
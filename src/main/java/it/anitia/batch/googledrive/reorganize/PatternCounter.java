@@ -0,0 +1,184 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Conteggio concorrente dei pattern dei nomi file per la modalita' analyze.
+ * I thread accumulano i conteggi di una pagina in una mappa locale e li uniscono con merge(),
+ * cosi' la contesa resta per pagina e non per file. Il totale e' tenuto incrementalmente.
+ * <ul>
+ * <li>{@link #exact()}: conteggio esatto di tutti i pattern (LongAdder per pattern);</li>
+ * <li>{@link #topK(int)}: algoritmo Space-Saving, memoria fissa a k pattern; i conteggi sono
+ * stime per eccesso con errore massimo noto per ciascun pattern.</li>
+ * </ul>
+ */
+abstract class PatternCounter {
+
+	private final LongAdder total = new LongAdder();
+
+	static PatternCounter exact() {
+		return new Exact();
+	}
+
+	static PatternCounter topK(int k) {
+		return new SpaceSaving(k);
+	}
+
+	/**
+	 * Aggiunge i conteggi (pattern -> numero di file) raccolti localmente da un thread.
+	 */
+	void merge(Map<String, Integer> localCounts) {
+		long added = 0;
+		for (int count : localCounts.values()) {
+			added += count;
+		}
+		doMerge(localCounts);
+		total.add(added);
+	}
+
+	long total() {
+		return total.sum();
+	}
+
+	abstract void doMerge(Map<String, Integer> localCounts);
+
+	/**
+	 * Pattern ordinati per conteggio decrescente.
+	 */
+	abstract List<Result> results();
+
+	/**
+	 * Numero di pattern distinti contati (per il top-K: pattern monitorati).
+	 */
+	abstract int size();
+
+	abstract boolean isApproximate();
+
+	static class Result {
+		final String pattern;
+		final long count;
+		// Sovrastima massima del conteggio (0 per il conteggio esatto)
+		final long error;
+
+		Result(String pattern, long count, long error) {
+			this.pattern = pattern;
+			this.count = count;
+			this.error = error;
+		}
+	}
+
+	private static final Comparator<Result> BY_COUNT_DESC = Comparator.comparingLong((Result r) -> r.count).reversed();
+
+	private static class Exact extends PatternCounter {
+
+		private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+		@Override
+		void doMerge(Map<String, Integer> localCounts) {
+			for (Map.Entry<String, Integer> entry : localCounts.entrySet()) {
+				counts.computeIfAbsent(entry.getKey(), k -> new LongAdder()).add(entry.getValue());
+			}
+		}
+
+		@Override
+		List<Result> results() {
+			List<Result> results = new ArrayList<>(counts.size());
+			for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+				results.add(new Result(entry.getKey(), entry.getValue().sum(), 0));
+			}
+			results.sort(BY_COUNT_DESC);
+			return results;
+		}
+
+		@Override
+		int size() {
+			return counts.size();
+		}
+
+		@Override
+		boolean isApproximate() {
+			return false;
+		}
+	}
+
+	/**
+	 * Space-Saving pesato (Metwally et al.): al massimo k contatori; un pattern nuovo con tutti
+	 * i contatori occupati sostituisce quello con conteggio minimo ereditandone il valore come errore.
+	 */
+	private static class SpaceSaving extends PatternCounter {
+
+		private static class Counter {
+			final String pattern;
+			long count;
+			long error;
+			final long sequence;
+
+			Counter(String pattern, long count, long error, long sequence) {
+				this.pattern = pattern;
+				this.count = count;
+				this.error = error;
+				this.sequence = sequence;
+			}
+		}
+
+		private final int k;
+		private final Map<String, Counter> counters = new HashMap<>();
+		private final TreeSet<Counter> byCount = new TreeSet<>(
+				Comparator.comparingLong((Counter c) -> c.count).thenComparingLong(c -> c.sequence));
+		private long sequence = 0;
+
+		SpaceSaving(int k) {
+			this.k = k;
+		}
+
+		@Override
+		synchronized void doMerge(Map<String, Integer> localCounts) {
+			for (Map.Entry<String, Integer> entry : localCounts.entrySet()) {
+				String pattern = entry.getKey();
+				long weight = entry.getValue();
+				Counter counter = counters.get(pattern);
+				if (counter != null) {
+					byCount.remove(counter);
+					counter.count += weight;
+					byCount.add(counter);
+				} else if (counters.size() < k) {
+					counter = new Counter(pattern, weight, 0, sequence++);
+					counters.put(pattern, counter);
+					byCount.add(counter);
+				} else {
+					Counter min = byCount.pollFirst();
+					counters.remove(min.pattern);
+					counter = new Counter(pattern, min.count + weight, min.count, sequence++);
+					counters.put(pattern, counter);
+					byCount.add(counter);
+				}
+			}
+		}
+
+		@Override
+		synchronized List<Result> results() {
+			List<Result> results = new ArrayList<>(counters.size());
+			for (Counter counter : byCount.descendingSet()) {
+				results.add(new Result(counter.pattern, counter.count, counter.error));
+			}
+			return results;
+		}
+
+		@Override
+		synchronized int size() {
+			return counters.size();
+		}
+
+		@Override
+		boolean isApproximate() {
+			return true;
+		}
+	}
+}
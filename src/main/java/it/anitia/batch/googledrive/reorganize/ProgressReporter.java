@@ -0,0 +1,158 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Avanzamento periodico delle esecuzioni lunghe (ogni progress.intervalSeconds): file elaborati
+ * su file individuati, file/s e MB/s nell'ultimo intervallo, coda dell'executor, chiamate Drive
+ * in corso, retry al minuto, ETA e utilizzo degli stadi nell'intervallo.
+ * <p>
+ * I thread di lavoro incrementano solo dei LongAdder (nessun lock, nessuna contesa);
+ * somme, ritmi e stime sono calcolati dal thread del reporter.
+ */
+class ProgressReporter {
+
+	final static Logger logger = LogManager.getLogger(ProgressReporter.class);
+
+	private static final LongAdder discovered = new LongAdder();
+	private static final LongAdder processed = new LongAdder();
+	private static final LongAdder retries = new LongAdder();
+	private static volatile boolean crawlCompleted = false;
+	private static volatile IntSupplier queue;
+	private static volatile Stages stages;
+
+	private static ScheduledExecutorService scheduler;
+	private static long startNanos;
+	private static long lastNanos;
+	private static long lastProcessed;
+	private static long lastBytes;
+	private static long lastRetries;
+
+	private ProgressReporter() {
+	}
+
+	/**
+	 * File individuati dalla scansione (da elaborare).
+	 */
+	static void discovered(long files) {
+		discovered.add(files);
+	}
+
+	/**
+	 * File elaborati (con esito positivo o in errore).
+	 */
+	static void processed(long files) {
+		processed.add(files);
+	}
+
+	static void retryScheduled() {
+		retries.increment();
+	}
+
+	/**
+	 * Da chiamare al termine della scansione: da qui in poi l'ETA e' definitiva.
+	 */
+	static void crawlCompleted() {
+		crawlCompleted = true;
+	}
+
+	/**
+	 * Executor di cui riportare la profondita' della coda (null se non applicabile).
+	 */
+	static void setExecutor(ExecutorService executorService) {
+		setQueue(executorService instanceof ThreadPoolExecutor
+				? ((ThreadPoolExecutor) executorService).getQueue()::size
+				: null);
+	}
+
+	/**
+	 * Profondita' della coda dei task da riportare (null se non applicabile).
+	 */
+	static void setQueue(IntSupplier queueSize) {
+		queue = queueSize;
+	}
+
+	/**
+	 * Stadi dell'esecuzione di cui riportare coda e utilizzo (null al termine).
+	 */
+	static void setStages(Stages current) {
+		stages = current;
+		setQueue(current != null ? current::queued : null);
+	}
+
+	static synchronized void start() {
+		if (Settings.progress.intervalSeconds <= 0 || scheduler != null) {
+			return;
+		}
+		startNanos = System.nanoTime();
+		lastNanos = startNanos;
+		lastBytes = DriveMetrics.totalBytes();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "progress-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(ProgressReporter::report, Settings.progress.intervalSeconds,
+				Settings.progress.intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	static synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		scheduler = null;
+		crawlCompleted = true;
+		report();
+	}
+
+	private static synchronized void report() {
+		long now = System.nanoTime();
+		long done = processed.sum();
+		long found = Math.max(discovered.sum(), done);
+		long bytes = DriveMetrics.totalBytes();
+		long retried = retries.sum();
+
+		double intervalSeconds = Math.max((now - lastNanos) / 1e9, 1e-3);
+		double elapsedSeconds = Math.max((now - startNanos) / 1e9, 1e-3);
+		double filesPerSecond = (done - lastProcessed) / intervalSeconds;
+		double megabytesPerSecond = (bytes - lastBytes) / intervalSeconds / (1024.0 * 1024.0);
+		double retriesPerMinute = (retried - lastRetries) / intervalSeconds * 60;
+
+		// ETA sul ritmo medio dall'avvio: meno sensibile alle pause (retry, cartelle grandi) del ritmo istantaneo
+		double averageRate = done / elapsedSeconds;
+		String eta;
+		if (done >= found && crawlCompleted) {
+			eta = "-";
+		} else if (averageRate > 0) {
+			eta = CapacityEstimate.formatDuration((found - done) / averageRate) + (crawlCompleted ? "" : " (scansione in corso)");
+		} else {
+			eta = "n.d.";
+		}
+
+		IntSupplier queueSize = queue;
+		String queued = queueSize != null ? Integer.toString(queueSize.getAsInt()) : "-";
+
+		Stages current = stages;
+		String utilization = current != null ? ", stadi " + current.intervalUtilization() : "";
+
+		logger.info("Avanzamento: {}/{} file ({}%), {} file/s, {} MB/s, coda {}, chiamate in corso {}, retry/min {}, ETA {}{}",
+				done, found, found > 0 ? done * 100 / found : 100,
+				String.format("%.1f", filesPerSecond), String.format("%.2f", megabytesPerSecond),
+				queued, DriveMetrics.getInFlight(), String.format("%.1f", retriesPerMinute), eta, utilization);
+
+		lastNanos = now;
+		lastProcessed = done;
+		lastBytes = bytes;
+		lastRetries = retried;
+	}
+}
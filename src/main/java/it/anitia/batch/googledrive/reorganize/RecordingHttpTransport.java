@@ -0,0 +1,458 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.StreamingContent;
+
+/**
+ * HttpTransport che avvolge quello reale e registra ogni scambio con Drive nell'archivio
+ * indicato da traffic.record (vedi {@link TrafficArchive}), per riprodurlo con
+ * {@link ReplayHttpTransport}.
+ * <p>
+ * I corpi delle risposte sono salvati decompressi. Con randomContent il contenuto dei download
+ * (alt=media) non viene salvato: il seme del contenuto generato in replay e' l'md5Checksum del
+ * file letto dai metadati registrati, cosi' file identici restano identici. Lo stesso vale,
+ * anche senza randomContent, per i download oltre maxBodyBytes: il corpo non viene tenuto in
+ * memoria. L'archivio e' completato (tabella degli MD5) da {@link #shutdown()}.
+ */
+class RecordingHttpTransport extends HttpTransport {
+
+	final static Logger logger = LogManager.getLogger(RecordingHttpTransport.class);
+
+	// Header delle risposte riprodotti in replay (gli altri dipendono dalla singola connessione)
+	private static final String[] RECORDED_HEADERS = { "Location", "Content-Range", "Range" };
+
+	private final HttpTransport delegate;
+	private final Path file;
+	private final TrafficArchive.Writer writer;
+	private final boolean randomContent;
+	// Oltre questa dimensione il contenuto di un download e' comunque generato
+	private final long maxBodyBytes;
+	// ID file -> md5Checksum dai metadati registrati (seme del contenuto generato)
+	private final Map<String, String> md5ById = new ConcurrentHashMap<>();
+	// md5Checksum -> dimensione dei file il cui contenuto e' stato generato
+	private final Map<String, Long> generatedContents = new ConcurrentHashMap<>();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	RecordingHttpTransport(HttpTransport delegate, Path file, boolean randomContent, long maxBodyBytes) throws IOException {
+		this.delegate = delegate;
+		this.file = file;
+		this.writer = new TrafficArchive.Writer(file);
+		this.randomContent = randomContent;
+		this.maxBodyBytes = maxBodyBytes;
+		logger.info("Registrazione del traffico Drive in {}{}", file, randomContent ? " (contenuto dei download generato)" : "");
+	}
+
+	@Override
+	public boolean supportsMethod(String method) throws IOException {
+		return delegate.supportsMethod(method);
+	}
+
+	@Override
+	public boolean isMtls() {
+		return delegate.isMtls();
+	}
+
+	/**
+	 * Completa e chiude l'archivio.
+	 */
+	@Override
+	public void shutdown() throws IOException {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			for (Map.Entry<String, Long> content : generatedContents.entrySet()) {
+				writer.writeMd5Mapping(content.getKey(), TrafficArchive.randomContentMd5(content.getKey(), content.getValue()));
+			}
+			logger.info("Traffico Drive registrato in {}: {} scambi", file, writer.getExchanges());
+		} finally {
+			writer.close();
+			delegate.shutdown();
+		}
+	}
+
+	@Override
+	protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+		return new RecordingRequest(MetricsHttpTransport.buildRequest(delegate, method, url), method, url);
+	}
+
+	private void record(TrafficArchive.Exchange exchange) {
+		if (closed.get()) {
+			return;
+		}
+		try {
+			writer.write(exchange);
+		} catch (IOException e) {
+			logger.error("Errore di scrittura nell'archivio di traffico {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Raccoglie gli md5Checksum dei file presenti nei metadati (files.list, files.get).
+	 */
+	private void collectMd5(byte[] json) {
+		try {
+			collectMd5(GsonFactory.getDefaultInstance().fromString(new String(json, StandardCharsets.UTF_8), GenericJson.class));
+		} catch (IOException | IllegalArgumentException e) {
+			logger.debug("Metadati non leggibili nella registrazione: {}", e.getMessage());
+		}
+	}
+
+	private void collectMd5(Object value) {
+		if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			Object id = map.get("id");
+			Object md5 = map.get("md5Checksum");
+			if (id instanceof String && md5 instanceof String) {
+				md5ById.put((String) id, (String) md5);
+			}
+			for (Object child : map.values()) {
+				collectMd5(child);
+			}
+		} else if (value instanceof List) {
+			for (Object child : (List<?>) value) {
+				collectMd5(child);
+			}
+		}
+	}
+
+	/**
+	 * ID del file di una richiesta .../files/{id}?alt=media.
+	 */
+	private static String mediaFileId(String url) {
+		int query = url.indexOf('?');
+		String path = query >= 0 ? url.substring(0, query) : url;
+		int files = path.lastIndexOf("/files/");
+		return files >= 0 ? path.substring(files + "/files/".length()) : path;
+	}
+
+	private static boolean isMedia(String url) {
+		return url.contains("alt=media");
+	}
+
+	private class RecordingRequest extends LowLevelHttpRequest {
+
+		private final LowLevelHttpRequest request;
+		private final String url;
+		private String method;
+		private String range;
+		private String contentRange;
+
+		RecordingRequest(LowLevelHttpRequest request, String method, String url) {
+			this.request = request;
+			this.method = method;
+			this.url = url;
+		}
+
+		@Override
+		public void addHeader(String name, String value) throws IOException {
+			if ("X-HTTP-Method-Override".equalsIgnoreCase(name)) {
+				method = value;
+			} else if ("Range".equalsIgnoreCase(name)) {
+				range = value;
+			} else if ("Content-Range".equalsIgnoreCase(name)) {
+				contentRange = value;
+			}
+			request.addHeader(name, value);
+		}
+
+		@Override
+		public void setTimeout(int connectTimeout, int readTimeout) throws IOException {
+			request.setTimeout(connectTimeout, readTimeout);
+		}
+
+		@Override
+		public void setWriteTimeout(int writeTimeout) throws IOException {
+			request.setWriteTimeout(writeTimeout);
+		}
+
+		@Override
+		public LowLevelHttpResponse execute() throws IOException {
+			request.setContentLength(getContentLength());
+			request.setContentEncoding(getContentEncoding());
+			request.setContentType(getContentType());
+			// Corpo JSON catturato per la chiave, degli altri (upload) conta solo la lunghezza
+			boolean json = TrafficArchive.isJson(getContentType());
+			ByteArrayOutputStream body = json ? new ByteArrayOutputStream() : null;
+			long[] bodyLength = new long[1];
+			@SuppressWarnings("deprecation")
+			StreamingContent content = getStreamingContent();
+			if (content != null) {
+				request.setStreamingContent(out -> {
+					CountingOutputStream counter = new CountingOutputStream(out);
+					content.writeTo(json ? new TeeOutputStream(counter, body) : counter);
+					bodyLength[0] = counter.getCount();
+				});
+			}
+
+			long start = System.nanoTime();
+			LowLevelHttpResponse response = request.execute();
+			long latencyMicros = (System.nanoTime() - start) / 1000;
+
+			byte[] requestBody = json ? TrafficArchive.decode(body.toByteArray(), getContentEncoding()) : null;
+			String key = TrafficArchive.key(method, url, range, contentRange, getContentType(), requestBody, bodyLength[0]);
+			return new RecordingResponse(response, key, url, latencyMicros);
+		}
+	}
+
+	private class RecordingResponse extends LowLevelHttpResponse {
+
+		private final LowLevelHttpResponse response;
+		private final String key;
+		private final String url;
+		private final long latencyMicros;
+		private final long headersNanos = System.nanoTime();
+		private final AtomicBoolean recorded = new AtomicBoolean();
+		// Download di cui si puo' generare il contenuto (alt=media, 2xx, non compresso)
+		private final boolean media;
+		// Corpo catturato, o solo contato per i download con contenuto generato
+		private ByteArrayOutputStream body;
+		private long bodyLength;
+
+		RecordingResponse(LowLevelHttpResponse response, String key, String url, long latencyMicros) throws IOException {
+			this.response = response;
+			this.key = key;
+			this.url = url;
+			this.latencyMicros = latencyMicros;
+			this.media = isMedia(url) && response.getStatusCode() / 100 == 2
+					&& !"gzip".equalsIgnoreCase(response.getContentEncoding());
+			if (media && !randomContent && fileSize() > maxBodyBytes) {
+				logger.warn("Download di {} oltre traffic.maxBodyMB ({} byte): registrato con contenuto generato", mediaFileId(url), fileSize());
+			}
+			this.body = media && (randomContent || fileSize() > maxBodyBytes) ? null : new ByteArrayOutputStream();
+			if (response.getStatusCode() == 204 || response.getContentLength() == 0) {
+				finish();
+			}
+		}
+
+		/**
+		 * Registra lo scambio (una sola volta) a corpo letto, chiuso o connessione rilasciata.
+		 */
+		private void finish() throws IOException {
+			if (!recorded.compareAndSet(false, true)) {
+				return;
+			}
+			long transferMicros = (System.nanoTime() - headersNanos) / 1000;
+			List<String> headers = new ArrayList<>();
+			for (int i = 0; i < response.getHeaderCount(); i++) {
+				for (String recordedHeader : RECORDED_HEADERS) {
+					if (recordedHeader.equalsIgnoreCase(response.getHeaderName(i))) {
+						headers.add(recordedHeader);
+						headers.add(response.getHeaderValue(i));
+					}
+				}
+			}
+			String[] headerArray = headers.toArray(new String[0]);
+			if (body == null) {
+				String fileId = mediaFileId(url);
+				String md5 = md5ById.get(fileId);
+				String seed = md5 != null ? md5 : fileId;
+				long offset = 0;
+				long total = bodyLength;
+				String range = header("Content-Range");
+				if (range != null && range.startsWith("bytes ") && range.indexOf('-') > 0 && range.indexOf('/') > 0) {
+					offset = Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')));
+					String size = range.substring(range.indexOf('/') + 1);
+					total = "*".equals(size) ? offset + bodyLength : Long.parseLong(size);
+				}
+				if (md5 != null) {
+					generatedContents.put(md5, total);
+				}
+				record(new TrafficArchive.Exchange(key, response.getStatusCode(), response.getReasonPhrase(),
+						response.getContentType(), null, headerArray, latencyMicros, transferMicros,
+						null, seed, offset, bodyLength, total));
+				return;
+			}
+			byte[] bytes = TrafficArchive.decode(body.toByteArray(), response.getContentEncoding());
+			if (TrafficArchive.isJson(response.getContentType())) {
+				collectMd5(bytes);
+			}
+			record(new TrafficArchive.Exchange(key, response.getStatusCode(), response.getReasonPhrase(),
+					response.getContentType(), null, headerArray, latencyMicros, transferMicros, bytes));
+		}
+
+		/**
+		 * Dimensione dell'intero file scaricato: totale di Content-Range o Content-Length, -1 se ignota.
+		 */
+		private long fileSize() throws IOException {
+			String range = header("Content-Range");
+			if (range != null && range.indexOf('/') > 0 && !range.endsWith("/*")) {
+				try {
+					return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+				} catch (NumberFormatException e) {
+					logger.debug("Content-Range non leggibile: {}", range);
+				}
+			}
+			return response.getContentLength();
+		}
+
+		private String header(String name) throws IOException {
+			for (int i = 0; i < response.getHeaderCount(); i++) {
+				if (name.equalsIgnoreCase(response.getHeaderName(i))) {
+					return response.getHeaderValue(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			InputStream content = response.getContent();
+			if (content == null) {
+				finish();
+				return null;
+			}
+			return new FilterInputStream(content) {
+
+				@Override
+				public int read() throws IOException {
+					int b = in.read();
+					if (b < 0) {
+						finish();
+					} else {
+						captured(new byte[] { (byte) b }, 0, 1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = in.read(b, off, len);
+					if (n < 0) {
+						finish();
+					} else {
+						captured(b, off, n);
+					}
+					return n;
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						in.close();
+					} finally {
+						finish();
+					}
+				}
+			};
+		}
+
+		private void captured(byte[] b, int off, int len) {
+			if (body != null) {
+				if (media && body.size() + (long) len > maxBodyBytes) {
+					// Dimensione non dichiarata e corpo oltre il limite: si passa al contenuto generato
+					logger.warn("Download di {} oltre traffic.maxBodyMB: registrato con contenuto generato", mediaFileId(url));
+					body = null;
+				} else {
+					body.write(b, off, len);
+				}
+			}
+			bodyLength += len;
+		}
+
+		@Override
+		public String getContentEncoding() throws IOException {
+			return response.getContentEncoding();
+		}
+
+		@Override
+		public long getContentLength() throws IOException {
+			return response.getContentLength();
+		}
+
+		@Override
+		public String getContentType() throws IOException {
+			return response.getContentType();
+		}
+
+		@Override
+		public String getStatusLine() throws IOException {
+			return response.getStatusLine();
+		}
+
+		@Override
+		public int getStatusCode() throws IOException {
+			return response.getStatusCode();
+		}
+
+		@Override
+		public String getReasonPhrase() throws IOException {
+			return response.getReasonPhrase();
+		}
+
+		@Override
+		public int getHeaderCount() throws IOException {
+			return response.getHeaderCount();
+		}
+
+		@Override
+		public String getHeaderName(int index) throws IOException {
+			return response.getHeaderName(index);
+		}
+
+		@Override
+		public String getHeaderValue(int index) throws IOException {
+			return response.getHeaderValue(index);
+		}
+
+		@Override
+		public void disconnect() throws IOException {
+			try {
+				finish();
+			} finally {
+				response.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Scrive su due stream: quello della richiesta e il buffer di cattura.
+	 */
+	private static class TeeOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final OutputStream copy;
+
+		TeeOutputStream(OutputStream out, OutputStream copy) {
+			this.out = out;
+			this.copy = copy;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			copy.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			copy.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+/**
+ * HttpTransport che non contatta Drive: risponde con gli scambi registrati in un archivio
+ * (traffic.replay, vedi {@link TrafficArchive}), rispettando le latenze registrate.
+ * <p>
+ * Le richieste sono abbinate per chiave normalizzata; richieste con la stessa chiave ricevono
+ * le risposte nell'ordine di registrazione, l'ultima viene ripetuta se le richieste sono piu'
+ * di quelle registrate. Una richiesta mai registrata fallisce con IOException.
+ * L'archivio e' caricato interamente in memoria.
+ */
+class ReplayHttpTransport extends HttpTransport {
+
+	final static Logger logger = LogManager.getLogger(ReplayHttpTransport.class);
+
+	// Metodi supportati da NetHttpTransport: stesse richieste (PATCH come POST con override) della registrazione
+	private static final String[] SUPPORTED_METHODS = { "DELETE", "GET", "HEAD", "OPTIONS", "POST", "PUT", "TRACE" };
+	private static final Pattern MD5_CHECKSUM = Pattern.compile("(\"md5Checksum\"\\s*:\\s*\")([0-9a-fA-F]{32})(\")");
+
+	private final Path file;
+	private final Map<String, Recorded> exchanges = new HashMap<>();
+	private final LongAdder served = new LongAdder();
+	private final LongAdder repeated = new LongAdder();
+	private final LongAdder missing = new LongAdder();
+	// MD5 del contenuto inviato per sessione di upload: il contenuto caricato in replay differisce
+	// da quello registrato se i download sono generati, l'md5Checksum restituito deve corrispondere
+	private final Map<String, MessageDigest> uploadDigests = new ConcurrentHashMap<>();
+
+	/**
+	 * Risposte registrate per una chiave e prossima da servire.
+	 */
+	private static final class Recorded {
+		final List<TrafficArchive.Exchange> exchanges = new ArrayList<>(1);
+		final AtomicInteger next = new AtomicInteger();
+	}
+
+	ReplayHttpTransport(Path file) throws IOException {
+		this.file = file;
+		Map<String, String> md5Mapping = new HashMap<>();
+		List<TrafficArchive.Exchange> loaded = new ArrayList<>();
+		TrafficArchive.read(file, loaded::add, md5Mapping);
+		for (TrafficArchive.Exchange exchange : loaded) {
+			if (!md5Mapping.isEmpty() && exchange.body != null && TrafficArchive.isJson(exchange.contentType)) {
+				exchange.body = replaceMd5(exchange.body, md5Mapping);
+			}
+			exchanges.computeIfAbsent(exchange.key, k -> new Recorded()).exchanges.add(exchange);
+		}
+		logger.info("Replay del traffico Drive da {}: {} scambi, {} richieste distinte", file, loaded.size(), exchanges.size());
+	}
+
+	/**
+	 * md5Checksum dei metadati sostituiti con l'MD5 del contenuto generato in registrazione.
+	 */
+	private static byte[] replaceMd5(byte[] json, Map<String, String> md5Mapping) {
+		return replaceMd5(json, md5Mapping, null);
+	}
+
+	/**
+	 * md5Checksum sostituiti secondo la mappa, o tutti con uploadedMd5 se indicato.
+	 */
+	private static byte[] replaceMd5(byte[] json, Map<String, String> md5Mapping, String uploadedMd5) {
+		String text = new String(json, StandardCharsets.UTF_8);
+		if (!text.contains("md5Checksum")) {
+			return json;
+		}
+		Matcher matcher = MD5_CHECKSUM.matcher(text);
+		StringBuffer replaced = new StringBuffer(text.length());
+		while (matcher.find()) {
+			String md5 = uploadedMd5 != null ? uploadedMd5 : md5Mapping.getOrDefault(matcher.group(2), matcher.group(2));
+			matcher.appendReplacement(replaced, matcher.group(1) + md5 + matcher.group(3));
+		}
+		matcher.appendTail(replaced);
+		return replaced.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public boolean supportsMethod(String method) {
+		return Arrays.binarySearch(SUPPORTED_METHODS, method) >= 0;
+	}
+
+	/**
+	 * Riepilogo delle richieste servite dall'archivio.
+	 */
+	@Override
+	public void shutdown() {
+		logger.info("Replay del traffico Drive da {}: {} richieste servite, {} oltre le registrate (ultima risposta ripetuta), {} non registrate",
+				file, served.sum(), repeated.sum(), missing.sum());
+	}
+
+	@Override
+	protected LowLevelHttpRequest buildRequest(String method, String url) {
+		return new ReplayRequest(method, url);
+	}
+
+	private TrafficArchive.Exchange next(String key) {
+		Recorded recorded = exchanges.get(key);
+		if (recorded == null) {
+			return null;
+		}
+		int index = recorded.next.getAndIncrement();
+		if (index >= recorded.exchanges.size()) {
+			repeated.increment();
+			index = recorded.exchanges.size() - 1;
+		}
+		return recorded.exchanges.get(index);
+	}
+
+	private static MessageDigest newMd5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static void sleepMicros(long micros) throws IOException {
+		if (micros <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.MICROSECONDS.sleep(micros);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Replay interrotto", e);
+		}
+	}
+
+	private class ReplayRequest extends LowLevelHttpRequest {
+
+		private final String url;
+		private String method;
+		private String range;
+		private String contentRange;
+
+		ReplayRequest(String method, String url) {
+			this.method = method;
+			this.url = url;
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if ("X-HTTP-Method-Override".equalsIgnoreCase(name)) {
+				method = value;
+			} else if ("Range".equalsIgnoreCase(name)) {
+				range = value;
+			} else if ("Content-Range".equalsIgnoreCase(name)) {
+				contentRange = value;
+			}
+		}
+
+		@Override
+		public LowLevelHttpResponse execute() throws IOException {
+			// Il corpo viene comunque prodotto (lettura dei file da caricare) come nell'invio reale
+			boolean json = TrafficArchive.isJson(getContentType());
+			ByteArrayOutputStream body = json ? new ByteArrayOutputStream() : null;
+			String uploadSession = TrafficArchive.uploadSession(url);
+			OutputStream sink = json ? body : OutputStream.nullOutputStream();
+			if (uploadSession != null && !json) {
+				sink = new DigestOutputStream(sink, uploadDigests.computeIfAbsent(uploadSession, k -> newMd5()));
+			}
+			CountingOutputStream counter = new CountingOutputStream(sink);
+			@SuppressWarnings("deprecation")
+			StreamingContent content = getStreamingContent();
+			if (content != null) {
+				content.writeTo(counter);
+			}
+			byte[] requestBody = json ? TrafficArchive.decode(body.toByteArray(), getContentEncoding()) : null;
+			String key = TrafficArchive.key(method, url, range, contentRange, getContentType(), requestBody, counter.getCount());
+
+			TrafficArchive.Exchange exchange = next(key);
+			if (exchange == null) {
+				missing.increment();
+				logger.warn("Richiesta non presente nell'archivio di traffico: {}", key);
+				throw new IOException("Richiesta non presente nell'archivio di traffico: " + method + " " + url);
+			}
+			served.increment();
+			sleepMicros(exchange.latencyMicros);
+			byte[] responseBody = exchange.body;
+			if (uploadSession != null && exchange.status / 100 == 2 && responseBody != null && TrafficArchive.isJson(exchange.contentType)) {
+				// Upload completato: md5Checksum del contenuto effettivamente inviato
+				MessageDigest digest = uploadDigests.remove(uploadSession);
+				if (digest != null) {
+					responseBody = replaceMd5(responseBody, null, hex(digest.digest()));
+				}
+			}
+			return new ReplayResponse(exchange, responseBody);
+		}
+	}
+
+	private static class ReplayResponse extends LowLevelHttpResponse {
+
+		private final TrafficArchive.Exchange exchange;
+		private final byte[] body;
+
+		ReplayResponse(TrafficArchive.Exchange exchange, byte[] body) {
+			this.exchange = exchange;
+			this.body = body;
+		}
+
+		@Override
+		public InputStream getContent() {
+			InputStream content = exchange.isRandom()
+					? TrafficArchive.randomContentStream(exchange.randomSeed, exchange.randomOffset, exchange.randomLength)
+					: new ByteArrayInputStream(body);
+			// Tempo di trasferimento del corpo registrato, atteso a fine lettura
+			return new FilterInputStream(content) {
+
+				private boolean transferred;
+
+				@Override
+				public int read() throws IOException {
+					int b = in.read();
+					if (b < 0) {
+						transferred();
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = in.read(b, off, len);
+					if (n < 0) {
+						transferred();
+					}
+					return n;
+				}
+
+				private void transferred() throws IOException {
+					if (!transferred) {
+						transferred = true;
+						sleepMicros(exchange.transferMicros);
+					}
+				}
+			};
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return exchange.contentEncoding;
+		}
+
+		@Override
+		public long getContentLength() {
+			return exchange.isRandom() ? exchange.randomLength : body.length;
+		}
+
+		@Override
+		public String getContentType() {
+			return exchange.contentType;
+		}
+
+		@Override
+		public String getStatusLine() {
+			return "HTTP/1.1 " + exchange.status + (exchange.reasonPhrase != null ? " " + exchange.reasonPhrase : "");
+		}
+
+		@Override
+		public int getStatusCode() {
+			return exchange.status;
+		}
+
+		@Override
+		public String getReasonPhrase() {
+			return exchange.reasonPhrase;
+		}
+
+		@Override
+		public int getHeaderCount() {
+			return exchange.headers.length / 2;
+		}
+
+		@Override
+		public String getHeaderName(int index) {
+			return exchange.headers[index * 2];
+		}
+
+		@Override
+		public String getHeaderValue(int index) {
+			return exchange.headers[index * 2 + 1];
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Operazione di uno stadio ritentata senza occupare il thread: un tentativo fallito riaccoda il
+ * task nella stessa coda dopo operation.sleepRetry secondi ({@link FairExecutor.Lane#schedule})
+ * e il thread passa subito ad altri task. Dopo operation.retry tentativi l'errore va a failure,
+ * che di norma rinvia l'operazione al ripasso finale del job ({@link FailureReport}). Un errore
+ * non previsto (RuntimeException) va subito a failure, senza altri tentativi: chi attende
+ * l'esito dell'operazione (es. il download di un file dello ZIP) viene comunque avvisato.
+ */
+class RetryTask implements Runnable {
+
+	final static Logger logger = LogManager.getLogger(RetryTask.class);
+
+	/**
+	 * Un tentativo dell'operazione.
+	 */
+	interface Operation {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Tentativi esauriti.
+	 */
+	interface Failure {
+		void failed(IOException e);
+	}
+
+	private final FairExecutor.Lane lane;
+	private final String description;
+	private final Operation operation;
+	private final Failure failure;
+	private final IntSupplier progress;
+	private int attempt;
+
+	private RetryTask(FairExecutor.Lane lane, String description, IntSupplier progress, Operation operation,
+			Failure failure) {
+		this.lane = lane;
+		this.description = description;
+		this.progress = progress;
+		this.operation = operation;
+		this.failure = failure;
+	}
+
+	/**
+	 * Accoda l'operazione nella coda lane; description compare nei log dei tentativi
+	 * (es. "spostamento file \"a.pdf\"").
+	 */
+	static void submit(FairExecutor.Lane lane, String description, Operation operation, Failure failure) {
+		lane.submit(new RetryTask(lane, description, null, operation, failure));
+	}
+
+	/**
+	 * Come {@link #submit(FairExecutor.Lane, String, Operation, Failure)} per un'operazione che
+	 * riprende da dove si era interrotta (progress: passi completati): un tentativo fallito dopo
+	 * aver completato qualche passo riparte dal primo tentativo.
+	 */
+	static void submit(FairExecutor.Lane lane, String description, IntSupplier progress, Operation operation,
+			Failure failure) {
+		lane.submit(new RetryTask(lane, description, progress, operation, failure));
+	}
+
+	@Override
+	public void run() {
+		attempt++;
+		int start = progress != null ? progress.getAsInt() : 0;
+		try {
+			operation.run();
+		} catch (IOException e) {
+			if (progress != null && progress.getAsInt() > start) {
+				attempt = 1;
+			}
+			logger.warn("Tentativo {}/{} di {} fallito: {}", attempt, Settings.operation.retry, description, e.getMessage());
+			if (attempt >= Settings.operation.retry) {
+				failure.failed(e);
+				return;
+			}
+			logger.info("Nuovo tentativo di {} tra {} secondi", description, Settings.operation.sleepRetry);
+			ProgressReporter.retryScheduled();
+			lane.schedule(this, Settings.operation.sleepRetry, TimeUnit.SECONDS);
+		} catch (RuntimeException e) {
+			logger.error("Errore non previsto in {}: {}", description, e.toString());
+			failure.failed(new IOException(e.toString(), e));
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.services.drive.DriveScopes;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+
+/**
+ * Ripartizione delle chiamate Drive su piu' service account (serviceAccountKeyFiles), tutti con
+ * accesso alle stesse cartelle condivise: la quota per utente di Drive vale per ciascun account,
+ * quella complessiva cresce con il numero di account.
+ * <p>
+ * Ogni richiesta viene firmata con il prossimo account disponibile (round robin). Una risposta
+ * di rate limit (429, 403 rateLimitExceeded/userRateLimitExceeded) mette l'account in pausa per
+ * drive.throttleCooldownSeconds e la richiesta viene ripetuta subito con un altro account; se
+ * sono tutti in pausa viene ripetuta con il primo che torna disponibile, al termine della sua
+ * pausa (entro i tentativi della richiesta HTTP, poi l'errore arriva all'applicazione).
+ * I PUT di un upload resumable restano sull'account che ha aperto la sessione.
+ */
+class ServiceAccountPool implements HttpRequestInitializer {
+
+	final static Logger logger = LogManager.getLogger(ServiceAccountPool.class);
+
+	// Byte del corpo di un 403 letti per riconoscere il rate limit (il corpo resta leggibile)
+	private static final int ERROR_PEEK_BYTES = 16 * 1024;
+
+	private final List<Account> accounts;
+	private final long cooldownNanos;
+	private final AtomicInteger next = new AtomicInteger();
+	// Sessione di upload resumable (upload_id) -> account che l'ha aperta
+	private final Map<String, Account> uploadSessions = new ConcurrentHashMap<>();
+
+	/**
+	 * Service account con i contatori delle chiamate firmate.
+	 */
+	static final class Account {
+		final String name;
+		final HttpCredentialsAdapter credentials;
+		final LongAdder calls = new LongAdder();
+		final LongAdder throttled = new LongAdder();
+		final LongAdder failovers = new LongAdder();
+		final LongAdder waits = new LongAdder();
+		volatile long throttledUntilNanos;
+
+		Account(String name, HttpCredentialsAdapter credentials) {
+			this.name = name;
+			this.credentials = credentials;
+		}
+
+		boolean isThrottled(long now) {
+			return now - throttledUntilNanos < 0;
+		}
+	}
+
+	ServiceAccountPool(List<Account> accounts, int cooldownSeconds) {
+		if (accounts.isEmpty()) {
+			throw new IllegalArgumentException("Nessun service account");
+		}
+		this.accounts = accounts;
+		this.cooldownNanos = TimeUnit.SECONDS.toNanos(cooldownSeconds);
+	}
+
+	/**
+	 * Carica le credenziali dai file indicati, con scope Drive.
+	 */
+	static ServiceAccountPool load(List<String> keyFiles, int cooldownSeconds) throws IOException {
+		List<Account> accounts = new ArrayList<>(keyFiles.size());
+		for (String keyFile : keyFiles) {
+			GoogleCredentials credentials;
+			try (InputStream in = Files.newInputStream(Paths.get(keyFile))) {
+				credentials = GoogleCredentials.fromStream(in).createScoped(Collections.singleton(DriveScopes.DRIVE));
+			}
+			String name = credentials instanceof ServiceAccountCredentials
+					? ((ServiceAccountCredentials) credentials).getClientEmail()
+					: keyFile;
+			accounts.add(new Account(name, new HttpCredentialsAdapter(credentials)));
+		}
+		logger.info("Chiamate Drive ripartite su {} service account", accounts.size());
+		return new ServiceAccountPool(accounts, cooldownSeconds);
+	}
+
+	List<Account> getAccounts() {
+		return accounts;
+	}
+
+	@Override
+	public void initialize(HttpRequest request) throws IOException {
+		String uploadSession = TrafficArchive.uploadSession(request.getUrl().build());
+		Account sticky = uploadSession != null ? uploadSessions.get(uploadSession) : null;
+		Account[] current = { sticky != null ? sticky : select(null) };
+		sign(request, current[0]);
+
+		HttpUnsuccessfulResponseHandler handler = new HttpUnsuccessfulResponseHandler() {
+			@Override
+			public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry) throws IOException {
+				Account account = current[0];
+				if (isRateLimit(response)) {
+					account.throttled.increment();
+					account.throttledUntilNanos = System.nanoTime() + cooldownNanos;
+					if (!supportsRetry) {
+						return false;
+					}
+					Account other = uploadSession == null ? select(account) : null;
+					if (other != null) {
+						logger.debug("Rate limit su {}: richiesta ripetuta con {}", account.name, other.name);
+						account.failovers.increment();
+					} else {
+						// Tutti gli account in pausa (o sessione di upload legata all'account)
+						other = uploadSession == null ? select(null) : account;
+						if (!awaitCooldown(other)) {
+							return false;
+						}
+					}
+					current[0] = other;
+					sign(request, other);
+					request.setUnsuccessfulResponseHandler(this);
+					return true;
+				}
+				// 401: rinnovo del token dell'account della richiesta
+				boolean retry = account.credentials.handleResponse(request, response, supportsRetry);
+				request.setUnsuccessfulResponseHandler(this);
+				return retry;
+			}
+		};
+		request.setUnsuccessfulResponseHandler(handler);
+		request.setResponseInterceptor(response -> {
+			String location = response.getHeaders().getLocation();
+			String session = location != null ? TrafficArchive.uploadSession(location) : null;
+			if (session != null) {
+				uploadSessions.put(session, current[0]);
+			} else if (uploadSession != null && response.isSuccessStatusCode()) {
+				uploadSessions.remove(uploadSession);
+			}
+		});
+	}
+
+	/**
+	 * Attende la fine della pausa dell'account. False se interrotto.
+	 */
+	private static boolean awaitCooldown(Account account) {
+		long waitNanos = account.throttledUntilNanos - System.nanoTime();
+		if (waitNanos <= 0) {
+			return true;
+		}
+		account.waits.increment();
+		logger.debug("Rate limit su tutti gli account: attesa di {} ms per {}", TimeUnit.NANOSECONDS.toMillis(waitNanos), account.name);
+		try {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static void sign(HttpRequest request, Account account) throws IOException {
+		account.credentials.initialize(request);
+		account.calls.increment();
+	}
+
+	/**
+	 * Prossimo account non in pausa, escluso quello indicato; se sono tutti in pausa quello che
+	 * torna disponibile per primo (null se e' l'escluso o non ce ne sono altri).
+	 */
+	private Account select(Account excluded) {
+		long now = System.nanoTime();
+		int start = Math.floorMod(next.getAndIncrement(), accounts.size());
+		Account soonest = null;
+		for (int i = 0; i < accounts.size(); i++) {
+			Account account = accounts.get((start + i) % accounts.size());
+			if (account == excluded) {
+				continue;
+			}
+			if (!account.isThrottled(now)) {
+				return account;
+			}
+			if (soonest == null || account.throttledUntilNanos - soonest.throttledUntilNanos < 0) {
+				soonest = account;
+			}
+		}
+		return excluded == null ? soonest : null;
+	}
+
+	/**
+	 * 429 o 403 con motivo rateLimitExceeded/userRateLimitExceeded. Il corpo dell'errore viene
+	 * letto con mark/reset: resta disponibile per l'eccezione del client.
+	 */
+	private static boolean isRateLimit(HttpResponse response) throws IOException {
+		if (response.getStatusCode() == 429) {
+			return true;
+		}
+		if (response.getStatusCode() != 403) {
+			return false;
+		}
+		InputStream content = response.getContent();
+		if (content == null || !content.markSupported()) {
+			return false;
+		}
+		content.mark(ERROR_PEEK_BYTES);
+		byte[] peek = new byte[ERROR_PEEK_BYTES];
+		int length = 0;
+		int n;
+		while (length < peek.length && (n = content.read(peek, length, peek.length - length)) > 0) {
+			length += n;
+		}
+		content.reset();
+		String body = new String(peek, 0, length, StandardCharsets.UTF_8);
+		return body.contains("rateLimitExceeded") || body.contains("userRateLimitExceeded");
+	}
+
+	/**
+	 * Chiamate, rate limit, richieste ripetute con un altro account e attese di fine pausa, per account.
+	 */
+	void logSummary() {
+		logger.info("=== SERVICE ACCOUNT ===");
+		for (Account account : accounts) {
+			logger.info("{}: {} chiamate, {} rate limit, {} ripetute su altro account, {} attese",
+					account.name, account.calls.sum(), account.throttled.sum(), account.failovers.sum(), account.waits.sum());
+		}
+	}
+}
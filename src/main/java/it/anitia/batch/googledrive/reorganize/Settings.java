@@ -3,6 +3,8 @@ package it.anitia.batch.googledrive.reorganize;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.logging.log4j.LogManager;
@@ -13,11 +15,20 @@ public class Settings {
 	final static Logger logger = LogManager.getLogger(Settings.class);
 
 	public static String serviceAccountKeyFile = "config/upload-gdrive-443816-e667cf3f212b.json";
+	// Elenco separato da virgole; se valorizzato sostituisce serviceAccountKeyFile
+	public static String serviceAccountKeyFiles;
+
+	public static class drive {
+		public static String rootUrl;
+		public static int throttleCooldownSeconds = 10;
+	}
 
 	public static class operation {
 		public static int retry = 3;
 		public static int sleepRetry = 10;
 		public static int maxThreads = 10;
+		// File (in workingDir) a cui aggiungere le operazioni fallite anche nel ripasso finale (vuoto: nessun report)
+		public static String failureReport = "failures.tsv";
 	}
 
 	public static String workingDir = ".";
@@ -37,6 +48,148 @@ public class Settings {
 
 	public static class glacier {
 		public static int maxZipSizeMB = 10;
+		public static int spoolMemoryMB = 64;
+		public static int spoolMaxEntryKB = 1024;
+	}
+
+	public static class download {
+		public static int rangeThresholdMB = 64;
+		public static int rangeCount = 4;
+	}
+
+	public static class analyze {
+		public static int topK = 0;
+	}
+
+	public static class metrics {
+		public static boolean jmx = true;
+		public static String prometheusFile;
+		public static int httpPort = 0;
+		public static int intervalSeconds = 60;
+	}
+
+	public static class progress {
+		public static int intervalSeconds = 60;
+	}
+
+	public static class logging {
+		public static String profile = "default";
+	}
+
+	public static class traffic {
+		public static String record;
+		public static String replay;
+		public static boolean randomContent = true;
+		public static int maxBodyMB = 64;
+	}
+
+	public static class jobs {
+		public static String file;
+	}
+
+	public static class daemon {
+		public static int pollSeconds = 30;
+		public static int resyncHours = 24;
+		public static int shutdownSeconds = 60;
+	}
+
+	public static class cache {
+		public static int folderMaxEntries = 100000;
+	}
+
+	public static class workers {
+		// Directory condivisa dei lease; se valorizzata -r e -g dividono il lavoro con gli altri processi
+		public static String leaseDir;
+		// Identificativo del processo (default: host e PID)
+		public static String id;
+		// Identificativo dell'esecuzione comune ai worker (obbligatorio con leaseDir)
+		public static String runId;
+		public static int leaseSeconds = 60;
+	}
+
+	// Thread per stadio dell'elaborazione (0: operation.maxThreads)
+	public static class stages {
+		public static class discover {
+			public static int threads = 4;
+		}
+		public static class resolve {
+			public static int threads = 0;
+		}
+		public static class mutate {
+			public static int threads = 0;
+		}
+		public static class download {
+			public static int threads = 4;
+		}
+		public static class compress {
+			public static int threads = 2;
+		}
+		public static class upload {
+			public static int threads = 2;
+		}
+		// Task per coda di ogni job in ogni stadio (0: illimitata)
+		public static int queueSize = 10000;
+	}
+
+	/**
+	 * True se le chiamate Drive vanno a un endpoint diverso da quello di Google (drive.rootUrl).
+	 */
+	static boolean hasCustomRootUrl() {
+		return drive.rootUrl != null && !drive.rootUrl.isBlank();
+	}
+
+	/**
+	 * File delle credenziali dei service account: serviceAccountKeyFiles se valorizzato,
+	 * altrimenti il solo serviceAccountKeyFile.
+	 */
+	static List<String> getServiceAccountKeyFiles() {
+		List<String> keyFiles = new ArrayList<>();
+		if (serviceAccountKeyFiles != null) {
+			for (String keyFile : serviceAccountKeyFiles.split(",")) {
+				if (!keyFile.isBlank()) {
+					keyFiles.add(keyFile.trim());
+				}
+			}
+		}
+		if (keyFiles.isEmpty()) {
+			keyFiles.add(serviceAccountKeyFile);
+		}
+		return keyFiles;
+	}
+
+	/**
+	 * True se le chiamate Drive sono servite da un archivio di traffico registrato (traffic.replay).
+	 */
+	static boolean hasTrafficReplay() {
+		return traffic.replay != null && !traffic.replay.isBlank();
+	}
+
+	/**
+	 * True se le chiamate Drive vanno registrate in un archivio di traffico (traffic.record).
+	 */
+	static boolean hasTrafficRecord() {
+		return traffic.record != null && !traffic.record.isBlank();
+	}
+
+	/**
+	 * True se reorganize e glacier dividono il lavoro con altri processi (workers.leaseDir).
+	 */
+	static boolean hasLeaseDir() {
+		return workers.leaseDir != null && !workers.leaseDir.isBlank();
+	}
+
+	/**
+	 * Thread effettivi di uno stadio: threads se positivo, altrimenti operation.maxThreads.
+	 */
+	static int stageThreads(int threads) {
+		return Math.max(1, threads > 0 ? threads : operation.maxThreads);
+	}
+
+	/**
+	 * True se reorganize e glacier elaborano i job elencati in jobs.file invece di folder.*.
+	 */
+	static boolean hasJobsFile() {
+		return jobs.file != null && !jobs.file.isBlank();
 	}
 
 	private Settings() {
@@ -50,6 +203,12 @@ public class Settings {
 		// System properties override
 		if (System.getProperty("googledrivereorganize.serviceAccountKeyFile") != null)
 			serviceAccountKeyFile = System.getProperty("googledrivereorganize.serviceAccountKeyFile");
+		if (System.getProperty("googledrivereorganize.serviceAccountKeyFiles") != null)
+			serviceAccountKeyFiles = System.getProperty("googledrivereorganize.serviceAccountKeyFiles");
+		if (System.getProperty("googledrivereorganize.drive.rootUrl") != null)
+			drive.rootUrl = System.getProperty("googledrivereorganize.drive.rootUrl");
+		if (System.getProperty("googledrivereorganize.drive.throttleCooldownSeconds") != null)
+			drive.throttleCooldownSeconds = Integer.parseInt(System.getProperty("googledrivereorganize.drive.throttleCooldownSeconds"));
 
 		if (System.getProperty("googledrivereorganize.operation.retry") != null)
 			operation.retry = Integer.parseInt(System.getProperty("googledrivereorganize.operation.retry"));
@@ -57,6 +216,8 @@ public class Settings {
 			operation.sleepRetry = Integer.parseInt(System.getProperty("googledrivereorganize.operation.sleepRetry"));
 		if (System.getProperty("googledrivereorganize.operation.maxThreads") != null)
 			operation.maxThreads = Integer.parseInt(System.getProperty("googledrivereorganize.operation.maxThreads"));
+		if (System.getProperty("googledrivereorganize.operation.failureReport") != null)
+			operation.failureReport = System.getProperty("googledrivereorganize.operation.failureReport");
 
 		if (System.getProperty("googledrivereorganize.workingDir") != null)
 			workingDir = System.getProperty("googledrivereorganize.workingDir");
@@ -73,6 +234,74 @@ public class Settings {
 			folder.glacier.id = System.getProperty("googledrivereorganize.folder.glacier.id");
 		if (System.getProperty("googledrivereorganize.glacier.maxZipSizeMB") != null)
 			glacier.maxZipSizeMB = Integer.parseInt(System.getProperty("googledrivereorganize.glacier.maxZipSizeMB"));
+		if (System.getProperty("googledrivereorganize.glacier.spoolMemoryMB") != null)
+			glacier.spoolMemoryMB = Integer.parseInt(System.getProperty("googledrivereorganize.glacier.spoolMemoryMB"));
+		if (System.getProperty("googledrivereorganize.glacier.spoolMaxEntryKB") != null)
+			glacier.spoolMaxEntryKB = Integer.parseInt(System.getProperty("googledrivereorganize.glacier.spoolMaxEntryKB"));
+
+		if (System.getProperty("googledrivereorganize.download.rangeThresholdMB") != null)
+			download.rangeThresholdMB = Integer.parseInt(System.getProperty("googledrivereorganize.download.rangeThresholdMB"));
+		if (System.getProperty("googledrivereorganize.download.rangeCount") != null)
+			download.rangeCount = Integer.parseInt(System.getProperty("googledrivereorganize.download.rangeCount"));
+
+		if (System.getProperty("googledrivereorganize.analyze.topK") != null)
+			analyze.topK = Integer.parseInt(System.getProperty("googledrivereorganize.analyze.topK"));
+
+		if (System.getProperty("googledrivereorganize.metrics.jmx") != null)
+			metrics.jmx = Boolean.parseBoolean(System.getProperty("googledrivereorganize.metrics.jmx"));
+		if (System.getProperty("googledrivereorganize.metrics.prometheusFile") != null)
+			metrics.prometheusFile = System.getProperty("googledrivereorganize.metrics.prometheusFile");
+		if (System.getProperty("googledrivereorganize.metrics.httpPort") != null)
+			metrics.httpPort = Integer.parseInt(System.getProperty("googledrivereorganize.metrics.httpPort"));
+		if (System.getProperty("googledrivereorganize.metrics.intervalSeconds") != null)
+			metrics.intervalSeconds = Integer.parseInt(System.getProperty("googledrivereorganize.metrics.intervalSeconds"));
+
+		if (System.getProperty("googledrivereorganize.progress.intervalSeconds") != null)
+			progress.intervalSeconds = Integer.parseInt(System.getProperty("googledrivereorganize.progress.intervalSeconds"));
+
+		if (System.getProperty("googledrivereorganize.logging.profile") != null)
+			logging.profile = System.getProperty("googledrivereorganize.logging.profile");
+
+		if (System.getProperty("googledrivereorganize.traffic.record") != null)
+			traffic.record = System.getProperty("googledrivereorganize.traffic.record");
+		if (System.getProperty("googledrivereorganize.traffic.replay") != null)
+			traffic.replay = System.getProperty("googledrivereorganize.traffic.replay");
+		if (System.getProperty("googledrivereorganize.traffic.randomContent") != null)
+			traffic.randomContent = Boolean.parseBoolean(System.getProperty("googledrivereorganize.traffic.randomContent"));
+		if (System.getProperty("googledrivereorganize.traffic.maxBodyMB") != null)
+			traffic.maxBodyMB = Integer.parseInt(System.getProperty("googledrivereorganize.traffic.maxBodyMB"));
+		if (System.getProperty("googledrivereorganize.jobs.file") != null)
+			jobs.file = System.getProperty("googledrivereorganize.jobs.file");
+		if (System.getProperty("googledrivereorganize.daemon.pollSeconds") != null)
+			daemon.pollSeconds = Integer.parseInt(System.getProperty("googledrivereorganize.daemon.pollSeconds"));
+		if (System.getProperty("googledrivereorganize.daemon.resyncHours") != null)
+			daemon.resyncHours = Integer.parseInt(System.getProperty("googledrivereorganize.daemon.resyncHours"));
+		if (System.getProperty("googledrivereorganize.daemon.shutdownSeconds") != null)
+			daemon.shutdownSeconds = Integer.parseInt(System.getProperty("googledrivereorganize.daemon.shutdownSeconds"));
+		if (System.getProperty("googledrivereorganize.cache.folderMaxEntries") != null)
+			cache.folderMaxEntries = Integer.parseInt(System.getProperty("googledrivereorganize.cache.folderMaxEntries"));
+		if (System.getProperty("googledrivereorganize.workers.leaseDir") != null)
+			workers.leaseDir = System.getProperty("googledrivereorganize.workers.leaseDir");
+		if (System.getProperty("googledrivereorganize.workers.id") != null)
+			workers.id = System.getProperty("googledrivereorganize.workers.id");
+		if (System.getProperty("googledrivereorganize.workers.runId") != null)
+			workers.runId = System.getProperty("googledrivereorganize.workers.runId");
+		if (System.getProperty("googledrivereorganize.workers.leaseSeconds") != null)
+			workers.leaseSeconds = Integer.parseInt(System.getProperty("googledrivereorganize.workers.leaseSeconds"));
+		if (System.getProperty("googledrivereorganize.stages.discover.threads") != null)
+			stages.discover.threads = Integer.parseInt(System.getProperty("googledrivereorganize.stages.discover.threads"));
+		if (System.getProperty("googledrivereorganize.stages.resolve.threads") != null)
+			stages.resolve.threads = Integer.parseInt(System.getProperty("googledrivereorganize.stages.resolve.threads"));
+		if (System.getProperty("googledrivereorganize.stages.mutate.threads") != null)
+			stages.mutate.threads = Integer.parseInt(System.getProperty("googledrivereorganize.stages.mutate.threads"));
+		if (System.getProperty("googledrivereorganize.stages.download.threads") != null)
+			stages.download.threads = Integer.parseInt(System.getProperty("googledrivereorganize.stages.download.threads"));
+		if (System.getProperty("googledrivereorganize.stages.compress.threads") != null)
+			stages.compress.threads = Integer.parseInt(System.getProperty("googledrivereorganize.stages.compress.threads"));
+		if (System.getProperty("googledrivereorganize.stages.upload.threads") != null)
+			stages.upload.threads = Integer.parseInt(System.getProperty("googledrivereorganize.stages.upload.threads"));
+		if (System.getProperty("googledrivereorganize.stages.queueSize") != null)
+			stages.queueSize = Integer.parseInt(System.getProperty("googledrivereorganize.stages.queueSize"));
 
 		file = new File(propertiesFile);
 
@@ -83,6 +312,12 @@ public class Settings {
 
 				if (properties.containsKey("serviceAccountKeyFile"))
 					serviceAccountKeyFile = properties.get("serviceAccountKeyFile").toString();
+				if (properties.containsKey("serviceAccountKeyFiles"))
+					serviceAccountKeyFiles = properties.get("serviceAccountKeyFiles").toString();
+				if (properties.containsKey("drive.rootUrl"))
+					drive.rootUrl = properties.get("drive.rootUrl").toString();
+				if (properties.containsKey("drive.throttleCooldownSeconds"))
+					drive.throttleCooldownSeconds = Integer.parseInt(properties.get("drive.throttleCooldownSeconds").toString());
 
 				if (properties.containsKey("operation.retry"))
 					operation.retry = Integer.parseInt(properties.get("operation.retry").toString());
@@ -90,6 +325,8 @@ public class Settings {
 					operation.sleepRetry = Integer.parseInt(properties.get("operation.sleepRetry").toString());
 				if (properties.containsKey("operation.maxThreads"))
 					operation.maxThreads = Integer.parseInt(properties.get("operation.maxThreads").toString());
+				if (properties.containsKey("operation.failureReport"))
+					operation.failureReport = properties.get("operation.failureReport").toString();
 
 				if (properties.containsKey("workingDir"))
 					workingDir = properties.get("workingDir").toString();
@@ -106,6 +343,74 @@ public class Settings {
 					folder.glacier.id = properties.get("folder.glacier.id").toString();
 				if (properties.containsKey("glacier.maxZipSizeMB"))
 					glacier.maxZipSizeMB = Integer.parseInt(properties.get("glacier.maxZipSizeMB").toString());
+				if (properties.containsKey("glacier.spoolMemoryMB"))
+					glacier.spoolMemoryMB = Integer.parseInt(properties.get("glacier.spoolMemoryMB").toString());
+				if (properties.containsKey("glacier.spoolMaxEntryKB"))
+					glacier.spoolMaxEntryKB = Integer.parseInt(properties.get("glacier.spoolMaxEntryKB").toString());
+
+				if (properties.containsKey("download.rangeThresholdMB"))
+					download.rangeThresholdMB = Integer.parseInt(properties.get("download.rangeThresholdMB").toString());
+				if (properties.containsKey("download.rangeCount"))
+					download.rangeCount = Integer.parseInt(properties.get("download.rangeCount").toString());
+
+				if (properties.containsKey("analyze.topK"))
+					analyze.topK = Integer.parseInt(properties.get("analyze.topK").toString());
+
+				if (properties.containsKey("metrics.jmx"))
+					metrics.jmx = Boolean.parseBoolean(properties.get("metrics.jmx").toString());
+				if (properties.containsKey("metrics.prometheusFile"))
+					metrics.prometheusFile = properties.get("metrics.prometheusFile").toString();
+				if (properties.containsKey("metrics.httpPort"))
+					metrics.httpPort = Integer.parseInt(properties.get("metrics.httpPort").toString());
+				if (properties.containsKey("metrics.intervalSeconds"))
+					metrics.intervalSeconds = Integer.parseInt(properties.get("metrics.intervalSeconds").toString());
+
+				if (properties.containsKey("progress.intervalSeconds"))
+					progress.intervalSeconds = Integer.parseInt(properties.get("progress.intervalSeconds").toString());
+
+				if (properties.containsKey("logging.profile"))
+					logging.profile = properties.get("logging.profile").toString();
+
+				if (properties.containsKey("traffic.record"))
+					traffic.record = properties.get("traffic.record").toString();
+				if (properties.containsKey("traffic.replay"))
+					traffic.replay = properties.get("traffic.replay").toString();
+				if (properties.containsKey("traffic.randomContent"))
+					traffic.randomContent = Boolean.parseBoolean(properties.get("traffic.randomContent").toString());
+				if (properties.containsKey("traffic.maxBodyMB"))
+					traffic.maxBodyMB = Integer.parseInt(properties.get("traffic.maxBodyMB").toString());
+				if (properties.containsKey("jobs.file"))
+					jobs.file = properties.get("jobs.file").toString();
+				if (properties.containsKey("daemon.pollSeconds"))
+					daemon.pollSeconds = Integer.parseInt(properties.get("daemon.pollSeconds").toString());
+				if (properties.containsKey("daemon.resyncHours"))
+					daemon.resyncHours = Integer.parseInt(properties.get("daemon.resyncHours").toString());
+				if (properties.containsKey("daemon.shutdownSeconds"))
+					daemon.shutdownSeconds = Integer.parseInt(properties.get("daemon.shutdownSeconds").toString());
+				if (properties.containsKey("cache.folderMaxEntries"))
+					cache.folderMaxEntries = Integer.parseInt(properties.get("cache.folderMaxEntries").toString());
+				if (properties.containsKey("workers.leaseDir"))
+					workers.leaseDir = properties.get("workers.leaseDir").toString();
+				if (properties.containsKey("workers.id"))
+					workers.id = properties.get("workers.id").toString();
+				if (properties.containsKey("workers.runId"))
+					workers.runId = properties.get("workers.runId").toString();
+				if (properties.containsKey("workers.leaseSeconds"))
+					workers.leaseSeconds = Integer.parseInt(properties.get("workers.leaseSeconds").toString());
+				if (properties.containsKey("stages.discover.threads"))
+					stages.discover.threads = Integer.parseInt(properties.get("stages.discover.threads").toString());
+				if (properties.containsKey("stages.resolve.threads"))
+					stages.resolve.threads = Integer.parseInt(properties.get("stages.resolve.threads").toString());
+				if (properties.containsKey("stages.mutate.threads"))
+					stages.mutate.threads = Integer.parseInt(properties.get("stages.mutate.threads").toString());
+				if (properties.containsKey("stages.download.threads"))
+					stages.download.threads = Integer.parseInt(properties.get("stages.download.threads").toString());
+				if (properties.containsKey("stages.compress.threads"))
+					stages.compress.threads = Integer.parseInt(properties.get("stages.compress.threads").toString());
+				if (properties.containsKey("stages.upload.threads"))
+					stages.upload.threads = Integer.parseInt(properties.get("stages.upload.threads").toString());
+				if (properties.containsKey("stages.queueSize"))
+					stages.queueSize = Integer.parseInt(properties.get("stages.queueSize").toString());
 			}
 			catch (IOException e) {
 				throw e;
@@ -113,24 +418,71 @@ public class Settings {
 		}
 
 		logger.info("serviceAccountKeyFile........: '{}'", serviceAccountKeyFile);
+		logger.info("serviceAccountKeyFiles.......: '{}'", serviceAccountKeyFiles);
+		logger.info("drive.rootUrl................: '{}'", drive.rootUrl);
+		logger.info("drive.throttleCooldownSeconds: {}", drive.throttleCooldownSeconds);
 		logger.info("workingDir...................: '{}'", workingDir);
 		logger.info("operation.retry..............: {}", operation.retry);
 		logger.info("operation.sleepRetry.........: {}", operation.sleepRetry);
 		logger.info("operation.maxThreads.........: {}", operation.maxThreads);
+		logger.info("operation.failureReport......: '{}'", operation.failureReport);
 		logger.info("folder.source.id.............: '{}'", folder.source.id);
 		logger.info("folder.source.recursive......: {}", folder.source.recursive);
 		logger.info("folder.destination.id........: '{}'", folder.destination.id);
 		logger.info("folder.glacier.id............: '{}'", folder.glacier.id);
 		logger.info("glacier.maxZipSizeMB.........: {}", glacier.maxZipSizeMB);
+		logger.info("glacier.spoolMemoryMB........: {}", glacier.spoolMemoryMB);
+		logger.info("glacier.spoolMaxEntryKB......: {}", glacier.spoolMaxEntryKB);
+		logger.info("download.rangeThresholdMB....: {}", download.rangeThresholdMB);
+		logger.info("download.rangeCount..........: {}", download.rangeCount);
+		logger.info("analyze.topK.................: {}", analyze.topK);
+		logger.info("metrics.jmx..................: {}", metrics.jmx);
+		logger.info("metrics.prometheusFile.......: '{}'", metrics.prometheusFile);
+		logger.info("metrics.httpPort.............: {}", metrics.httpPort);
+		logger.info("metrics.intervalSeconds......: {}", metrics.intervalSeconds);
+		logger.info("progress.intervalSeconds.....: {}", progress.intervalSeconds);
+		logger.info("logging.profile..............: '{}'", logging.profile);
+		logger.info("traffic.record...............: '{}'", traffic.record);
+		logger.info("traffic.replay...............: '{}'", traffic.replay);
+		logger.info("traffic.randomContent........: {}", traffic.randomContent);
+		logger.info("traffic.maxBodyMB............: {}", traffic.maxBodyMB);
+		logger.info("jobs.file....................: '{}'", jobs.file);
+		logger.info("daemon.pollSeconds...........: {}", daemon.pollSeconds);
+		logger.info("daemon.resyncHours...........: {}", daemon.resyncHours);
+		logger.info("daemon.shutdownSeconds.......: {}", daemon.shutdownSeconds);
+		logger.info("cache.folderMaxEntries.......: {}", cache.folderMaxEntries);
+		logger.info("workers.leaseDir.............: '{}'", workers.leaseDir);
+		logger.info("workers.id...................: '{}'", workers.id);
+		logger.info("workers.runId................: '{}'", workers.runId);
+		logger.info("workers.leaseSeconds.........: {}", workers.leaseSeconds);
+		logger.info("stages.discover.threads......: {}", stages.discover.threads);
+		logger.info("stages.resolve.threads.......: {}", stages.resolve.threads);
+		logger.info("stages.mutate.threads........: {}", stages.mutate.threads);
+		logger.info("stages.download.threads......: {}", stages.download.threads);
+		logger.info("stages.compress.threads......: {}", stages.compress.threads);
+		logger.info("stages.upload.threads........: {}", stages.upload.threads);
+		logger.info("stages.queueSize.............: {}", stages.queueSize);
 
-		if (null == folder.source.id || folder.source.id.isBlank() || folder.source.id.isEmpty())
-			throw new Exception("configurazione \"folder.source.id\" assente");
+		// Con jobs.file sorgente e destinazione sono indicate per ogni job; folder.destination.id
+		// serve solo a reorganize ed e' verificato da App
+		if (hasJobsFile()) {
+			if (!new File(jobs.file).exists())
+				throw new Exception(String.format("File dei job \"%s\" non trovato", jobs.file));
+		} else {
+			if (null == folder.source.id || folder.source.id.isBlank() || folder.source.id.isEmpty())
+				throw new Exception("configurazione \"folder.source.id\" assente");
+		}
 
-		if (null == folder.destination.id || folder.destination.id.isBlank() || folder.destination.id.isEmpty())
-			throw new Exception("configurazione \"folder.destination.id\" assente");
+		if (hasTrafficRecord() && hasTrafficReplay())
+			throw new Exception("configurazioni \"traffic.record\" e \"traffic.replay\" alternative");
 
-		file = new File(serviceAccountKeyFile);
-		if (!file.exists())
-			throw new Exception(String.format("Service Account Key File \"%s\" non trovato", serviceAccountKeyFile));
+		// Con un endpoint alternativo (es. server Drive di test) o in replay le credenziali sono facoltative
+		if (!hasCustomRootUrl() && !hasTrafficReplay()) {
+			for (String keyFile : getServiceAccountKeyFiles()) {
+				file = new File(keyFile);
+				if (!file.exists())
+					throw new Exception(String.format("Service Account Key File \"%s\" non trovato", keyFile));
+			}
+		}
 	}
 }
@@ -0,0 +1,256 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stadi dell'elaborazione di un'esecuzione, ognuno con il proprio pool di thread e le proprie
+ * code ({@link FairExecutor}), cosi' le operazioni lente di uno stadio non sottraggono thread
+ * alle chiamate degli altri (bulkhead):
+ * <ul>
+ * <li>reorganize: discover (lettura delle cartelle della sorgente e classificazione dei file),
+ * resolve (cartella di destinazione e nome libero), mutate (spostamento);</li>
+ * <li>glacier: compress (scrittura degli ZIP di un gruppo), download (file del gruppo, in
+ * anticipo rispetto alla scrittura), upload (ZIP e indici), mutate (eliminazione degli originali).</li>
+ * </ul>
+ * Thread e dimensione delle code sono configurabili (stages.*); l'utilizzo di ogni stadio e'
+ * riportato nell'avanzamento, nel riepilogo e nelle metriche Prometheus: lo stadio con l'utilizzo
+ * piu' alto e' il collo di bottiglia.
+ */
+class Stages {
+
+	final static Logger logger = LogManager.getLogger(Stages.class);
+
+	// Stadi dell'esecuzione in corso (metriche Prometheus)
+	private static volatile Stages current;
+
+	final FairExecutor discover;
+	final FairExecutor resolve;
+	final FairExecutor mutate;
+	final FairExecutor compress;
+	final FairExecutor download;
+	final FairExecutor upload;
+	private final List<FairExecutor> all = new ArrayList<>();
+	// Tempo di lavoro e istante dell'ultimo avanzamento, per l'utilizzo nell'intervallo
+	private final long[] lastBusyNanos;
+	private long lastNanos = System.nanoTime();
+
+	/**
+	 * Code di un job negli stadi (null per gli stadi non usati dall'esecuzione).
+	 */
+	final class Lanes {
+		final FairExecutor.Lane discover;
+		final FairExecutor.Lane resolve;
+		final FairExecutor.Lane mutate;
+		final FairExecutor.Lane compress;
+		final FairExecutor.Lane download;
+		final FairExecutor.Lane upload;
+		// Nell'ordine dell'elaborazione: un task accoda solo negli stadi successivi
+		private final List<FairExecutor.Lane> ordered = new ArrayList<>();
+
+		private Lanes(String name) {
+			this.discover = add(Stages.this.discover, name);
+			this.resolve = add(Stages.this.resolve, name);
+			this.compress = add(Stages.this.compress, name);
+			this.download = add(Stages.this.download, name);
+			this.upload = add(Stages.this.upload, name);
+			this.mutate = add(Stages.this.mutate, name);
+		}
+
+		private FairExecutor.Lane add(FairExecutor stage, String name) {
+			if (stage == null) {
+				return null;
+			}
+			FairExecutor.Lane lane = stage.newLane(name);
+			ordered.add(lane);
+			return lane;
+		}
+
+		/**
+		 * Attende il completamento dei task del job in tutti gli stadi.
+		 */
+		void await() throws InterruptedException {
+			for (FairExecutor.Lane lane : ordered) {
+				lane.await();
+			}
+		}
+
+		/**
+		 * Come {@link #await()} per al massimo timeout; false se non completati.
+		 */
+		boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			for (FairExecutor.Lane lane : ordered) {
+				if (!lane.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Scarta i task non ancora avviati in tutti gli stadi; restituisce quanti.
+		 */
+		int cancel() {
+			int discarded = 0;
+			for (FairExecutor.Lane lane : ordered) {
+				discarded += lane.cancel();
+			}
+			return discarded;
+		}
+	}
+
+	/**
+	 * Stadi di reorganize (glacier false) o di glacier.
+	 */
+	Stages(boolean glacier) {
+		int queueSize = Math.max(0, Settings.stages.queueSize);
+		if (glacier) {
+			discover = null;
+			resolve = null;
+			compress = add("compress", Settings.stages.compress.threads, queueSize);
+			download = add("download", Settings.stages.download.threads, queueSize);
+			// Gli ZIP in attesa di upload occupano disco: la compressione si ferma se l'upload e' indietro
+			upload = add("upload", Settings.stages.upload.threads, Settings.stageThreads(Settings.stages.upload.threads));
+		} else {
+			discover = add("discover", Settings.stages.discover.threads, queueSize);
+			resolve = add("resolve", Settings.stages.resolve.threads, queueSize);
+			compress = null;
+			download = null;
+			upload = null;
+		}
+		mutate = add("mutate", Settings.stages.mutate.threads, queueSize);
+		lastBusyNanos = new long[all.size()];
+		current = this;
+	}
+
+	private FairExecutor add(String name, int threads, int queueSize) {
+		FairExecutor stage = new FairExecutor(name, Settings.stageThreads(threads), queueSize);
+		all.add(stage);
+		return stage;
+	}
+
+	Lanes newLanes(String jobName) {
+		return new Lanes(jobName);
+	}
+
+	/**
+	 * Task in coda (non ancora avviati) di tutti gli stadi.
+	 */
+	int queued() {
+		int queued = 0;
+		for (FairExecutor stage : all) {
+			queued += stage.queued();
+		}
+		return queued;
+	}
+
+	/**
+	 * Utilizzo di ogni stadio dall'ultima chiamata (avanzamento), es. "resolve 95%, mutate 40%".
+	 */
+	synchronized String intervalUtilization() {
+		long now = System.nanoTime();
+		long elapsed = Math.max(1, now - lastNanos);
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < all.size(); i++) {
+			FairExecutor stage = all.get(i);
+			long busy = stage.busyNanos();
+			double utilization = Math.min(1.0, (busy - lastBusyNanos[i]) / ((double) elapsed * stage.threads));
+			lastBusyNanos[i] = busy;
+			if (line.length() > 0) {
+				line.append(", ");
+			}
+			line.append(stage.name).append(' ').append(Math.round(utilization * 100)).append('%');
+		}
+		lastNanos = now;
+		return line.toString();
+	}
+
+	/**
+	 * I thread degli stadi terminano dopo i task gia' accodati.
+	 */
+	void shutdown() {
+		for (FairExecutor stage : all) {
+			stage.shutdown();
+		}
+	}
+
+	/**
+	 * Utilizzo, task e attese di ogni stadio sull'intera esecuzione, con lo stadio piu' utilizzato.
+	 */
+	void logSummary() {
+		logger.info("=== STADI ===");
+		FairExecutor bottleneck = null;
+		for (FairExecutor stage : all) {
+			long tasks = stage.tasks();
+			logger.info("{} {} thread, utilizzo {}%, {} task, attesa in coda media {} ms, attesa con coda piena {} s",
+					String.format("%-9s", stage.name + ":"), stage.threads, Math.round(stage.utilization() * 100), tasks,
+					tasks > 0 ? TimeUnit.NANOSECONDS.toMillis(stage.queueWaitNanos() / tasks) : 0,
+					String.format(Locale.ROOT, "%.1f", stage.blockedNanos() / 1e9));
+			if (tasks > 0 && (bottleneck == null || stage.utilization() > bottleneck.utilization())) {
+				bottleneck = stage;
+			}
+		}
+		if (bottleneck != null) {
+			logger.info("Stadio piu' utilizzato: {} (stages.{}.threads={})", bottleneck.name, bottleneck.name,
+					bottleneck.threads);
+		}
+	}
+
+	/**
+	 * Metriche Prometheus degli stadi dell'esecuzione in corso (nessuna se non avviata).
+	 */
+	static void writePrometheus(Writer writer) throws IOException {
+		Stages stages = current;
+		List<FairExecutor> stageList = stages != null ? stages.all : Collections.emptyList();
+		if (stageList.isEmpty()) {
+			return;
+		}
+		writer.write("# HELP gdrive_stage_threads Thread dello stadio\n");
+		writer.write("# TYPE gdrive_stage_threads gauge\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format("gdrive_stage_threads{stage=\"%s\"} %d\n", stage.name, stage.threads));
+		}
+		writer.write("# HELP gdrive_stage_queue_depth Task in coda nello stadio\n");
+		writer.write("# TYPE gdrive_stage_queue_depth gauge\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format("gdrive_stage_queue_depth{stage=\"%s\"} %d\n", stage.name, stage.queued()));
+		}
+		writer.write("# HELP gdrive_stage_delayed_retries Task in attesa di un nuovo tentativo nello stadio\n");
+		writer.write("# TYPE gdrive_stage_delayed_retries gauge\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format("gdrive_stage_delayed_retries{stage=\"%s\"} %d\n", stage.name, stage.delayed()));
+		}
+		writer.write("# HELP gdrive_stage_tasks_total Task completati dallo stadio\n");
+		writer.write("# TYPE gdrive_stage_tasks_total counter\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format("gdrive_stage_tasks_total{stage=\"%s\"} %d\n", stage.name, stage.tasks()));
+		}
+		writer.write("# HELP gdrive_stage_busy_seconds_total Tempo di lavoro dei thread dello stadio (utilizzo: rate / thread)\n");
+		writer.write("# TYPE gdrive_stage_busy_seconds_total counter\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format(Locale.ROOT, "gdrive_stage_busy_seconds_total{stage=\"%s\"} %.3f\n",
+					stage.name, stage.busyNanos() / 1e9));
+		}
+		writer.write("# HELP gdrive_stage_queue_wait_seconds_total Attesa dei task in coda prima dell'avvio\n");
+		writer.write("# TYPE gdrive_stage_queue_wait_seconds_total counter\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format(Locale.ROOT, "gdrive_stage_queue_wait_seconds_total{stage=\"%s\"} %.3f\n",
+					stage.name, stage.queueWaitNanos() / 1e9));
+		}
+		writer.write("# HELP gdrive_stage_blocked_seconds_total Attesa di chi accoda con la coda dello stadio piena\n");
+		writer.write("# TYPE gdrive_stage_blocked_seconds_total counter\n");
+		for (FairExecutor stage : stageList) {
+			writer.write(String.format(Locale.ROOT, "gdrive_stage_blocked_seconds_total{stage=\"%s\"} %.3f\n",
+					stage.name, stage.blockedNanos() / 1e9));
+		}
+	}
+}
@@ -0,0 +1,422 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archivio del traffico Drive registrato (traffic.record) e riprodotto (traffic.replay).
+ * <p>
+ * Formato: stream gzip di record binari (DataOutputStream). Ogni scambio contiene la chiave
+ * normalizzata della richiesta ({@link #key}), stato, header rilevanti, latenza e corpo della
+ * risposta. Con traffic.randomContent il contenuto dei download non e' salvato: al suo posto
+ * seme, offset e lunghezza, da cui {@link #randomContent} rigenera byte pseudocasuali identici
+ * a ogni lettura. In coda all'archivio la tabella md5Checksum originale -&gt; MD5 del contenuto
+ * generato, applicata in replay ai metadati (verifica MD5 e deduplica glacier restano coerenti).
+ */
+final class TrafficArchive {
+
+	private static final int MAGIC = 0x47445254; // "GDRT"
+	private static final int VERSION = 1;
+	private static final byte END = 0;
+	private static final byte EXCHANGE = 1;
+	private static final byte MD5_MAPPING = 2;
+	private static final byte BODY_BYTES = 0;
+	private static final byte BODY_RANDOM = 1;
+	// Blocchi del contenuto generato: un blocco si rigenera dal solo (seme, indice)
+	private static final int RANDOM_BLOCK_SIZE = 64 * 1024;
+
+	private TrafficArchive() {
+	}
+
+	/**
+	 * Scambio registrato: risposta a una richiesta identificata dalla chiave normalizzata.
+	 */
+	static final class Exchange {
+		final String key;
+		final int status;
+		final String reasonPhrase;
+		final String contentType;
+		final String contentEncoding;
+		// Header della risposta, a coppie nome/valore (Location, Content-Range, Range...)
+		final String[] headers;
+		final long latencyMicros;
+		final long transferMicros;
+		// Corpo registrato (null se generato)
+		byte[] body;
+		// Contenuto generato: seme, offset nel file, lunghezza e dimensione totale del file
+		final String randomSeed;
+		final long randomOffset;
+		final long randomLength;
+		final long randomTotal;
+
+		Exchange(String key, int status, String reasonPhrase, String contentType, String contentEncoding, String[] headers,
+				long latencyMicros, long transferMicros, byte[] body) {
+			this(key, status, reasonPhrase, contentType, contentEncoding, headers, latencyMicros, transferMicros, body, null, 0, 0, 0);
+		}
+
+		Exchange(String key, int status, String reasonPhrase, String contentType, String contentEncoding, String[] headers,
+				long latencyMicros, long transferMicros, byte[] body, String randomSeed, long randomOffset, long randomLength,
+				long randomTotal) {
+			this.key = key;
+			this.status = status;
+			this.reasonPhrase = reasonPhrase;
+			this.contentType = contentType;
+			this.contentEncoding = contentEncoding;
+			this.headers = headers;
+			this.latencyMicros = latencyMicros;
+			this.transferMicros = transferMicros;
+			this.body = body;
+			this.randomSeed = randomSeed;
+			this.randomOffset = randomOffset;
+			this.randomLength = randomLength;
+			this.randomTotal = randomTotal;
+		}
+
+		boolean isRandom() {
+			return randomSeed != null;
+		}
+	}
+
+	// ==================== CHIAVE ====================
+
+	/**
+	 * Chiave di una richiesta, indipendente dall'endpoint e dall'ordine dei parametri:
+	 * metodo effettivo, path, parametri della query ordinati, header Range/Content-Range e corpo
+	 * (testo se JSON, altrimenti la sola lunghezza). Per il contenuto di un upload resumable
+	 * bastano metodo e sessione (upload_id): la dimensione dello ZIP cambia se il contenuto dei
+	 * download e' generato.
+	 */
+	static String key(String method, String url, String range, String contentRange, String contentType, byte[] body, long bodyLength) {
+		StringBuilder key = new StringBuilder(method).append(' ');
+		try {
+			URI uri = new URI(url);
+			key.append(uri.getRawPath());
+			String query = uri.getRawQuery();
+			if (query != null && !query.isEmpty()) {
+				String[] params = query.split("&");
+				Arrays.sort(params);
+				key.append('?').append(String.join("&", params));
+			}
+		} catch (URISyntaxException e) {
+			key.append(url);
+		}
+		if (body != null && isJson(contentType)) {
+			key.append(' ').append(new String(body, StandardCharsets.UTF_8));
+		} else if (uploadSession(url) == null) {
+			if (range != null) {
+				key.append(" Range:").append(range);
+			}
+			if (contentRange != null) {
+				key.append(" Content-Range:").append(contentRange);
+			}
+			if (bodyLength > 0) {
+				key.append(" [").append(bodyLength).append(" byte]");
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Sessione di upload resumable (parametro upload_id) della richiesta, null se assente.
+	 */
+	static String uploadSession(String url) {
+		int start = url.indexOf("upload_id=");
+		if (start < 0) {
+			return null;
+		}
+		start += "upload_id=".length();
+		int end = url.indexOf('&', start);
+		return end >= 0 ? url.substring(start, end) : url.substring(start);
+	}
+
+	static boolean isJson(String contentType) {
+		return contentType != null && contentType.startsWith("application/json");
+	}
+
+	/**
+	 * Corpo decompresso se inviato/ricevuto con Content-Encoding gzip.
+	 */
+	static byte[] decode(byte[] body, String contentEncoding) throws IOException {
+		if (body == null || !"gzip".equalsIgnoreCase(contentEncoding)) {
+			return body;
+		}
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+			return in.readAllBytes();
+		}
+	}
+
+	// ==================== CONTENUTO GENERATO ====================
+
+	/**
+	 * Scrive length byte del contenuto generato dal seme a partire da offset.
+	 */
+	static void randomContent(String seed, long offset, long length, OutputStream out) throws IOException {
+		long seedHash = seedHash(seed);
+		byte[] block = new byte[RANDOM_BLOCK_SIZE];
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			long blockIndex = position / RANDOM_BLOCK_SIZE;
+			new Random(seedHash ^ (blockIndex * 0x9E3779B97F4A7C15L)).nextBytes(block);
+			int from = (int) (position - blockIndex * RANDOM_BLOCK_SIZE);
+			int n = (int) Math.min(RANDOM_BLOCK_SIZE - from, end - position);
+			out.write(block, from, n);
+			position += n;
+		}
+	}
+
+	/**
+	 * Stream del contenuto generato (length byte da offset), prodotto a blocchi durante la lettura.
+	 */
+	static InputStream randomContentStream(String seed, long offset, long length) {
+		return new InputStream() {
+
+			private final ByteArrayOutputStream block = new ByteArrayOutputStream(RANDOM_BLOCK_SIZE);
+			private byte[] buffer = new byte[0];
+			private int position;
+			private long generated;
+
+			@Override
+			public int read() throws IOException {
+				if (!fill()) {
+					return -1;
+				}
+				return buffer[position++] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				if (!fill()) {
+					return -1;
+				}
+				int n = Math.min(len, buffer.length - position);
+				System.arraycopy(buffer, position, b, off, n);
+				position += n;
+				return n;
+			}
+
+			private boolean fill() throws IOException {
+				if (position < buffer.length) {
+					return true;
+				}
+				if (generated >= length) {
+					return false;
+				}
+				int n = (int) Math.min(RANDOM_BLOCK_SIZE, length - generated);
+				block.reset();
+				randomContent(seed, offset + generated, n, block);
+				buffer = block.toByteArray();
+				position = 0;
+				generated += n;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * MD5 (esadecimale) dell'intero contenuto generato dal seme per un file di size byte.
+	 */
+	static String randomContentMd5(String seed, long size) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		randomContent(seed, 0, size, new OutputStream() {
+			@Override
+			public void write(int b) {
+				md.update((byte) b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				md.update(b, off, len);
+			}
+		});
+		StringBuilder hex = new StringBuilder(32);
+		for (byte b : md.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static long seedHash(String seed) {
+		long h = 1125899906842597L;
+		for (int i = 0; i < seed.length(); i++) {
+			h = 31 * h + seed.charAt(i);
+		}
+		return h;
+	}
+
+	// ==================== SCRITTURA ====================
+
+	/**
+	 * Scrittura dell'archivio, condivisa dai thread di lavoro (record serializzati).
+	 */
+	static final class Writer implements Closeable {
+
+		private final DataOutputStream out;
+		private long exchanges;
+
+		Writer(Path file) throws IOException {
+			Path parent = file.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024), 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		synchronized void write(Exchange exchange) throws IOException {
+			out.writeByte(EXCHANGE);
+			writeString(exchange.key);
+			out.writeShort(exchange.status);
+			writeString(exchange.reasonPhrase);
+			writeString(exchange.contentType);
+			writeString(exchange.contentEncoding);
+			out.writeShort(exchange.headers.length / 2);
+			for (String header : exchange.headers) {
+				writeString(header);
+			}
+			out.writeLong(exchange.latencyMicros);
+			out.writeLong(exchange.transferMicros);
+			if (exchange.isRandom()) {
+				out.writeByte(BODY_RANDOM);
+				writeString(exchange.randomSeed);
+				out.writeLong(exchange.randomOffset);
+				out.writeLong(exchange.randomLength);
+				out.writeLong(exchange.randomTotal);
+			} else {
+				out.writeByte(BODY_BYTES);
+				out.writeInt(exchange.body.length);
+				out.write(exchange.body);
+			}
+			exchanges++;
+		}
+
+		synchronized void writeMd5Mapping(String originalMd5, String replayMd5) throws IOException {
+			out.writeByte(MD5_MAPPING);
+			writeString(originalMd5);
+			writeString(replayMd5);
+		}
+
+		synchronized long getExchanges() {
+			return exchanges;
+		}
+
+		// Stringhe nullable di lunghezza arbitraria (writeUTF e' limitato a 64 KB)
+		private void writeString(String s) throws IOException {
+			if (s == null) {
+				out.writeInt(-1);
+				return;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			out.writeByte(END);
+			out.close();
+		}
+	}
+
+	// ==================== LETTURA ====================
+
+	/**
+	 * Legge l'archivio: ogni scambio va al consumer nell'ordine di registrazione, la tabella
+	 * degli MD5 nella mappa indicata.
+	 */
+	static void read(Path file, Consumer<Exchange> consumer, Map<String, String> md5Mapping) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 64 * 1024), 64 * 1024))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File \"" + file + "\" non e' un archivio di traffico Drive");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Versione archivio di traffico non supportata: " + version);
+			}
+			while (true) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					// Registrazione interrotta senza chiusura: valgono gli scambi completi
+					return;
+				}
+				if (type == END) {
+					return;
+				} else if (type == EXCHANGE) {
+					consumer.accept(readExchange(in));
+				} else if (type == MD5_MAPPING) {
+					md5Mapping.put(readString(in), readString(in));
+				} else {
+					throw new IOException("Record non valido nell'archivio di traffico: " + type);
+				}
+			}
+		}
+	}
+
+	private static Exchange readExchange(DataInputStream in) throws IOException {
+		String key = readString(in);
+		int status = in.readUnsignedShort();
+		String reasonPhrase = readString(in);
+		String contentType = readString(in);
+		String contentEncoding = readString(in);
+		int headerCount = in.readUnsignedShort();
+		List<String> headers = new ArrayList<>(headerCount * 2);
+		for (int i = 0; i < headerCount * 2; i++) {
+			headers.add(readString(in));
+		}
+		long latencyMicros = in.readLong();
+		long transferMicros = in.readLong();
+		String[] headerArray = headers.toArray(new String[0]);
+		if (in.readByte() == BODY_RANDOM) {
+			return new Exchange(key, status, reasonPhrase, contentType, contentEncoding, headerArray, latencyMicros, transferMicros,
+					null, readString(in), in.readLong(), in.readLong(), in.readLong());
+		}
+		byte[] body = new byte[in.readInt()];
+		in.readFully(body);
+		return new Exchange(key, status, reasonPhrase, contentType, contentEncoding, headerArray, latencyMicros, transferMicros, body);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,353 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Divisione del lavoro di reorganize e glacier tra piu' processi (worker) sulla stessa sorgente,
+ * tramite file di lease in una directory condivisa (workers.leaseDir), sullo stesso host o su un
+ * file system condiviso con lock affidabili.
+ * <p>
+ * Il lavoro e' diviso in unita' (reorganize: i file della cartella sorgente e ogni sua
+ * sottocartella di primo livello; glacier: ogni cartella mese; infine la pulizia delle cartelle
+ * vuote). Un worker rivendica un'unita' scrivendone il lease, lo rinnova finche' la elabora e al
+ * termine la segna come completata. Il lease di un worker terminato in modo anomalo non viene
+ * piu' rinnovato: dopo workers.leaseSeconds un altro worker riprende l'unita'. Lease e unita'
+ * completate valgono per un'esecuzione (workers.runId, sottodirectory di workers.leaseDir).
+ * <p>
+ * Rinnovo, completamento e rilascio verificano con il lock dell'esecuzione che il lease sia
+ * ancora di questo worker. Se un altro worker lo ha ripreso (rinnovo arrivato oltre
+ * workers.leaseSeconds, ad esempio dopo una lunga pausa del processo) il lease e' perso
+ * ({@link Lease#isLost()}): il job interrompe la scansione e non esegue piu' spostamenti,
+ * upload ed eliminazioni dell'unita', che non viene segnata come completata.
+ * <p>
+ * La creazione delle cartelle di destinazione e' serializzata tra i processi con lock su file,
+ * ripartiti per cartella padre e nome ({@link #lockFolder}): la verifica su Drive e l'eventuale
+ * creazione avvengono con il lock, quindi due worker non creano la stessa cartella.
+ */
+class WorkLeases implements Closeable {
+
+	final static Logger logger = LogManager.getLogger(WorkLeases.class);
+
+	// File di lock per la creazione delle cartelle (ripartizione per padre/nome)
+	private static final int FOLDER_LOCK_STRIPES = 64;
+	// Attesa massima tra due controlli delle unita' in lease ad altri worker
+	private static final long MAX_WAIT_MILLIS = 5000;
+
+	private final Path runDir;
+	private final String runId;
+	private final Path lockDir;
+	private final String workerId;
+	private final long leaseMillis;
+	// Lease di questo worker, rinnovati periodicamente
+	private final Map<Path, Lease> owned = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService heartbeat;
+	private final LongAdder unitsDone = new LongAdder();
+	private final LongAdder unitsReclaimed = new LongAdder();
+	private final LongAdder unitsSkipped = new LongAdder();
+	private final LongAdder unitsLost = new LongAdder();
+	private final AtomicBoolean allDoneWarned = new AtomicBoolean();
+
+	private enum Claim {
+		CLAIMED, BUSY, DONE
+	}
+
+	/**
+	 * Lease di un'unita' in elaborazione; perso se un altro worker lo ha ripreso.
+	 */
+	static final class Lease {
+		private final String key;
+		private volatile boolean lost;
+
+		private Lease(String key) {
+			this.key = key;
+		}
+
+		boolean isLost() {
+			return lost;
+		}
+	}
+
+	/**
+	 * Elaborazione di un'unita'.
+	 */
+	interface Task {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Unita' di lavoro: chiave (unica nell'esecuzione) ed elaborazione.
+	 */
+	static final class Unit {
+		final String key;
+		final Task task;
+
+		Unit(String key, Task task) {
+			// La chiave diventa il nome dei file di lease
+			this.key = key.replaceAll("[^A-Za-z0-9._-]", "_");
+			this.task = task;
+		}
+	}
+
+	WorkLeases(Path leaseDir, String runId, String workerId, int leaseSeconds) throws IOException {
+		this.lockDir = leaseDir;
+		this.runDir = leaseDir.resolve(runId.replaceAll("[^A-Za-z0-9._-]", "_"));
+		this.runId = runId;
+		this.workerId = workerId;
+		this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+		Files.createDirectories(runDir);
+		heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "lease-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long renewMillis = Math.max(1, leaseMillis / 3);
+		heartbeat.scheduleAtFixedRate(this::renew, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+		logger.info("Worker \"{}\": lavoro condiviso in {}", workerId, runDir);
+	}
+
+	/**
+	 * Lease dalla configurazione workers.* (workers.runId obbligatorio, verificato all'avvio); in
+	 * dry run l'esecuzione e' separata da quella reale.
+	 */
+	static WorkLeases open(boolean dryRun) throws IOException {
+		String workerId = Settings.workers.id;
+		if (workerId == null || workerId.isBlank()) {
+			String host;
+			try {
+				host = InetAddress.getLocalHost().getHostName();
+			} catch (IOException e) {
+				host = "localhost";
+			}
+			workerId = host + "-" + ManagementFactory.getRuntimeMXBean().getPid();
+		}
+		String runId = Settings.workers.runId;
+		return new WorkLeases(Paths.get(Settings.workers.leaseDir), dryRun ? runId + "-dry" : runId,
+				workerId, Settings.workers.leaseSeconds);
+	}
+
+	/**
+	 * Elabora le unita' non completate e non in lease ad altri worker, poi attende quelle in
+	 * lease ad altri fino al loro completamento, riprendendole se il lease scade. Ogni worker
+	 * parte da un'unita' diversa (ordine ruotato in base all'identificativo). Un errore rilascia
+	 * il lease dell'unita' (ripresa da un altro worker) e viene propagato. Durante l'elaborazione
+	 * il lease dell'unita' e' in job.lease; un'unita' il cui lease e' perso non viene completata
+	 * e il worker prosegue con le altre. Se tutte le unita' risultano gia' completate viene
+	 * segnalato: di solito e' un workers.runId di un'esecuzione precedente.
+	 */
+	void runAll(Job job, List<Unit> units) throws IOException {
+		List<Unit> pending = new ArrayList<>(units);
+		int alreadyDone = 0;
+		if (!pending.isEmpty()) {
+			Collections.rotate(pending, Math.floorMod(workerId.hashCode(), pending.size()));
+		}
+		while (!pending.isEmpty()) {
+			boolean progress = false;
+			for (Iterator<Unit> it = pending.iterator(); it.hasNext();) {
+				Unit unit = it.next();
+				Lease lease = new Lease(unit.key);
+				Claim claim = claim(unit, lease);
+				if (claim == Claim.BUSY) {
+					continue;
+				}
+				it.remove();
+				if (claim == Claim.DONE) {
+					unitsSkipped.increment();
+					alreadyDone++;
+					continue;
+				}
+				job.lease = lease;
+				try {
+					unit.task.run();
+				} catch (IOException | RuntimeException e) {
+					if (!lease.isLost()) {
+						release(unit);
+						throw e;
+					}
+					logger.debug("Errore dell'unita' \"{}\" dopo la perdita del lease: {}", unit.key, e.getMessage());
+				} finally {
+					job.lease = null;
+				}
+				if (!lease.isLost()) {
+					complete(unit, lease);
+				}
+				if (lease.isLost()) {
+					logger.warn("Lease dell'unita' \"{}\" perso: unita' interrotta e lasciata al worker che l'ha ripresa", unit.key);
+					unitsLost.increment();
+				}
+				progress = true;
+			}
+			if (!pending.isEmpty() && !progress) {
+				logger.debug("In attesa di {} unita' in lease ad altri worker", pending.size());
+				try {
+					Thread.sleep(Math.min(MAX_WAIT_MILLIS, Math.max(1, leaseMillis / 4)));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Attesa delle unita' degli altri worker interrotta");
+				}
+			}
+		}
+		// Solo se questo worker non ha ancora elaborato nulla (la pulizia finale e' di norma gia' completata da un altro)
+		if (alreadyDone > 0 && alreadyDone == units.size() && unitsDone.sum() == 0 && unitsLost.sum() == 0
+				&& !allDoneWarned.getAndSet(true)) {
+			logger.warn("Tutte le {} unita' risultano gia' completate nell'esecuzione \"{}\": nessun lavoro eseguito (workers.runId di un'esecuzione precedente?)",
+					alreadyDone, runId);
+		}
+	}
+
+	/**
+	 * Lock tra processi per la creazione della cartella folderName in parentId; da chiudere al
+	 * termine. Nello stesso processo le chiamate vanno serializzate dal chiamante (FileLock
+	 * non e' rientrante tra thread della stessa JVM).
+	 */
+	Closeable lockFolder(String parentId, String folderName) throws IOException {
+		int stripe = Math.floorMod((parentId + "/" + folderName).hashCode(), FOLDER_LOCK_STRIPES);
+		FileChannel channel = FileChannel.open(lockDir.resolve("folder-" + stripe + ".lock"),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			channel.lock();
+			return channel;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private Path leasePath(Unit unit) {
+		return runDir.resolve(unit.key + ".lease");
+	}
+
+	private synchronized Claim claim(Unit unit, Lease claimed) throws IOException {
+		Path lease = leasePath(unit);
+		try (FileChannel channel = openRunLock(); FileLock lock = channel.lock()) {
+			if (Files.exists(runDir.resolve(unit.key + ".done"))) {
+				return Claim.DONE;
+			}
+			if (Files.exists(lease)) {
+				String owner = owner(lease);
+				if (!workerId.equals(owner)) {
+					long age = System.currentTimeMillis() - Files.getLastModifiedTime(lease).toMillis();
+					if (age <= leaseMillis) {
+						return Claim.BUSY;
+					}
+					logger.warn("Lease dell'unita' \"{}\" scaduto (worker \"{}\", {} s senza rinnovo): unita' ripresa",
+							unit.key, owner, age / 1000);
+					unitsReclaimed.increment();
+				}
+			}
+			Files.write(lease, (workerId + "\n").getBytes(StandardCharsets.UTF_8));
+			owned.put(lease, claimed);
+			logger.debug("Unita' \"{}\" assegnata a questo worker", unit.key);
+			return Claim.CLAIMED;
+		}
+	}
+
+	/**
+	 * Segna l'unita' come completata, solo se il lease e' ancora di questo worker (altrimenti
+	 * il lease viene segnato come perso).
+	 */
+	private synchronized void complete(Unit unit, Lease completed) throws IOException {
+		Path lease = leasePath(unit);
+		try (FileChannel channel = openRunLock(); FileLock lock = channel.lock()) {
+			owned.remove(lease);
+			if (completed.isLost() || !workerId.equals(owner(lease))) {
+				completed.lost = true;
+				return;
+			}
+			Files.write(runDir.resolve(unit.key + ".done"), (workerId + "\n").getBytes(StandardCharsets.UTF_8));
+			Files.deleteIfExists(lease);
+		}
+		unitsDone.increment();
+	}
+
+	private synchronized void release(Unit unit) {
+		Path lease = leasePath(unit);
+		owned.remove(lease);
+		try (FileChannel channel = openRunLock(); FileLock lock = channel.lock()) {
+			if (workerId.equals(owner(lease))) {
+				Files.deleteIfExists(lease);
+			}
+		} catch (IOException e) {
+			logger.warn("Rilascio del lease dell'unita' \"{}\" non riuscito: {}", unit.key, e.getMessage());
+		}
+	}
+
+	/**
+	 * Rinnovo dei lease di questo worker (thread lease-heartbeat), con il lock dell'esecuzione:
+	 * un lease ripreso da un altro worker viene segnato come perso e non piu' rinnovato.
+	 */
+	private synchronized void renew() {
+		if (owned.isEmpty()) {
+			return;
+		}
+		try (FileChannel channel = openRunLock(); FileLock lock = channel.lock()) {
+			FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+			for (Iterator<Map.Entry<Path, Lease>> it = owned.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<Path, Lease> entry = it.next();
+				String owner = owner(entry.getKey());
+				if (!workerId.equals(owner)) {
+					logger.error("Lease dell'unita' \"{}\" ripreso da {}: elaborazione interrotta",
+							entry.getValue().key, owner != null ? "\"" + owner + "\"" : "un altro worker");
+					entry.getValue().lost = true;
+					it.remove();
+				} else {
+					Files.setLastModifiedTime(entry.getKey(), now);
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Rinnovo dei lease non riuscito: {}", e.getMessage());
+		}
+	}
+
+	private FileChannel openRunLock() throws IOException {
+		return FileChannel.open(runDir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private static String owner(Path lease) throws IOException {
+		if (!Files.exists(lease)) {
+			return null;
+		}
+		return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Unita' elaborate da questo worker, riprese da lease scaduti e gia' completate da altri.
+	 */
+	void logSummary() {
+		logger.info("=== WORKER \"{}\" ===", workerId);
+		logger.info("Unita' elaborate:   {} ({} riprese da lease scaduti)", unitsDone.sum(), unitsReclaimed.sum());
+		logger.info("Unita' di altri:    {}", unitsSkipped.sum());
+		if (unitsLost.sum() > 0) {
+			logger.info("Lease persi:        {}", unitsLost.sum());
+		}
+	}
+
+	@Override
+	public void close() {
+		heartbeat.shutdownNow();
+	}
+}
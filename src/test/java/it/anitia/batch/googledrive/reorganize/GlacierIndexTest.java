@@ -0,0 +1,134 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test dell'indice sidecar glacier: scrittura e rilettura con nomi contenenti tab, a capo e
+ * backslash (escape), lettura delle righe scritte dalle versioni precedenti (senza ref e senza
+ * driveName) e rifiuto degli indici non validi.
+ */
+class GlacierIndexTest {
+
+	// Nomi che richiedono escape, compresi un backslash seguito da 't' e un backslash finale
+	private static final String[] NAMES = { "report\t2024.log", "riga\nnuova.txt", "ritorno\r.csv",
+			"C:\\dati\\export.csv", "letterale\\t.txt", "finale\\", "\\\\doppio", "normale.log" };
+
+	@Test
+	void roundTrip() throws IOException {
+		GlacierZip zip = new GlacierZip(new File("glacier\t2024-01_1.zip"));
+		zip.md5 = "0123456789abcdef0123456789abcdef";
+		for (int i = 0; i < NAMES.length; i++) {
+			GlacierEntry e = new GlacierEntry(NAMES[i], "id" + i, NAMES[i], "2024-01-0" + (i % 9 + 1));
+			e.localHeaderOffset = 1000L * i;
+			e.compressedSize = 10 + i;
+			e.size = 20 + i;
+			e.crc = 0xFFFFFFF0L + (i % 16);
+			e.md5 = i % 2 == 0 ? "md5-" + i : null;
+			zip.entries.add(e);
+		}
+		// Omonimo rinominato _N nello ZIP e duplicato che rimanda a un'entry con caratteri speciali
+		GlacierEntry renamed = new GlacierEntry("riga\nnuova_1.txt", "idR", "riga\nnuova.txt", "2024-01-31");
+		zip.entries.add(renamed);
+		GlacierEntry duplicate = new GlacierEntry("copia\\\tdi report.log", "idD", "copia\\\tdi report.log", "2024-01-15");
+		duplicate.ref = NAMES[0];
+		zip.entries.add(duplicate);
+
+		GlacierIndex index = read(write(zip));
+
+		assertEquals(zip.file.getName(), index.zipName);
+		assertEquals(zip.md5, index.zipMd5);
+		assertEquals(zip.entries.size(), index.entries.size());
+		for (int i = 0; i < zip.entries.size(); i++) {
+			GlacierEntry expected = zip.entries.get(i);
+			GlacierEntry actual = index.entries.get(i);
+			String message = "entry " + i;
+			assertEquals(expected.entryName, actual.entryName, message);
+			assertEquals(expected.driveId, actual.driveId, message);
+			assertEquals(expected.driveName, actual.driveName, message);
+			assertEquals(expected.date, actual.date, message);
+			assertEquals(expected.localHeaderOffset, actual.localHeaderOffset, message);
+			assertEquals(expected.compressedSize, actual.compressedSize, message);
+			assertEquals(expected.size, actual.size, message);
+			assertEquals(expected.crc, actual.crc, message);
+			assertEquals(expected.md5, actual.md5, message);
+			assertEquals(expected.ref, actual.ref, message);
+			assertTrue(actual.verified, message);
+		}
+
+		List<GlacierEntry> found = index.find("riga\nnuova.txt");
+		assertEquals(2, found.size());
+		assertEquals("riga\nnuova.txt", found.get(0).entryName);
+		assertEquals("riga\nnuova_1.txt", found.get(1).entryName);
+	}
+
+	@Test
+	void readPreviousLayouts() throws IOException {
+		String index = "# glacier-index v1\tglacier_2023-12_1.zip\t\n"
+				// 8 colonne: prima di ref e driveName
+				+ "a\\tb.log\tid1\t2023-12-01\t0\t5\t7\tffffffff\tmd5a\n"
+				// 9 colonne: ref senza driveName
+				+ "c\\\\d.log\tid2\t2023-12-02\t60\t5\t7\t1a\t\t\n"
+				+ "dup.log\tid3\t2023-12-03\t0\t5\t7\tffffffff\tmd5a\ta\\tb.log\n"
+				+ "\n"
+				// 10 colonne con driveName vuoto
+				+ "e.log\tid4\t2023-12-04\t120\t5\t7\t0\tmd5e\t\t\n";
+
+		GlacierIndex read = read(index.getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("glacier_2023-12_1.zip", read.zipName);
+		assertNull(read.zipMd5);
+		assertEquals(4, read.entries.size());
+
+		GlacierEntry first = read.entries.get(0);
+		assertEquals("a\tb.log", first.entryName);
+		assertEquals("a\tb.log", first.driveName);
+		assertEquals(0xFFFFFFFFL, first.crc);
+		assertEquals("md5a", first.md5);
+		assertNull(first.ref);
+
+		GlacierEntry second = read.entries.get(1);
+		assertEquals("c\\d.log", second.entryName);
+		assertEquals("c\\d.log", second.driveName);
+		assertEquals(60, second.localHeaderOffset);
+		assertEquals(0x1A, second.crc);
+		assertNull(second.md5);
+		assertNull(second.ref);
+
+		GlacierEntry duplicate = read.entries.get(2);
+		assertEquals("dup.log", duplicate.driveName);
+		assertEquals("a\tb.log", duplicate.ref);
+
+		GlacierEntry last = read.entries.get(3);
+		assertEquals("e.log", last.driveName);
+		assertNull(last.ref);
+	}
+
+	@Test
+	void rejectInvalid() {
+		assertThrows(IOException.class, () -> read("entry\tid\n".getBytes(StandardCharsets.UTF_8)));
+		assertThrows(IOException.class,
+				() -> read("# glacier-index v1\tz.zip\t\nentry\tid\t2024-01-01\t0\t1\n".getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static byte[] write(GlacierZip zip) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GlacierIndex.write(zip, out);
+		return out.toByteArray();
+	}
+
+	private static GlacierIndex read(byte[] index) throws IOException {
+		return GlacierIndex.read(new ByteArrayInputStream(index));
+	}
+}
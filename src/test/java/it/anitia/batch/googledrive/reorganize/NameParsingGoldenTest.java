@@ -0,0 +1,196 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test golden del parsing dei nomi file: le implementazioni senza regex di App devono dare
+ * gli stessi risultati dell'implementazione originale ({@link RegexNameOracle}) sul corpus di
+ * nomi reali (golden/file-names.txt), sui casi limite e su nomi generati con seme fisso.
+ * Le date da modifiedTime dipendono dal fuso di sistema: per verificarne altri eseguire ad
+ * esempio mvn test -DargLine=-Duser.timezone=America/St_Johns (offset variabile e non orario).
+ */
+class NameParsingGoldenTest {
+
+	private static final String[] SERVICES = { "wsorder", "wsinvoice", "gateway", "batch-export", "sync_anagrafiche", "mailer" };
+	private static final String[] CAMS_FLOWS = { "FLUSSO", "ESITI", "RENDICONTO", "ANAGRAFE" };
+	private static final String[] EXTENSIONS = { ".log.gz", ".log", ".csv", ".txt", ".pdf", ".xml.zip", "" };
+	// Alfabeto dei nomi casuali: cifre, separatori, 'D' dei flussi CAMS, punti e terminatori di riga
+	private static final char[] RANDOM_ALPHABET = "0123456789012345678901234567890123456789--__D..ax \n\r\u0085\u2028\u2029".toCharArray();
+
+	private static final int GENERATED_NAMES = 100_000;
+	private static final int RANDOM_NAMES = 200_000;
+	private static final int SORT_BATCHES = 200;
+	// modifiedTime casuali tra il 1900 e il 2100
+	private static final long MIN_MILLIS = -2_208_988_800_000L;
+	private static final long MAX_MILLIS = 4_102_444_800_000L;
+
+	// Corpus, nomi realistici generati e stringhe casuali (stesso insieme a ogni esecuzione)
+	private static List<String> names;
+
+	@BeforeAll
+	static void loadNames() throws IOException {
+		List<String> corpus = new ArrayList<>();
+		try (InputStream in = NameParsingGoldenTest.class.getResourceAsStream("/golden/file-names.txt");
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith("#")) {
+					corpus.add(line);
+				}
+			}
+		}
+		// Casi limite non rappresentabili nel file: nomi vuoti e terminatori di riga ("$" delle regex)
+		corpus.addAll(Arrays.asList("", "\n", "report_1\n", "report_1\r\n", "report-\r", "report_12\u0085",
+				"report__\u2028", "_\n_", "wsorder-2024-01-01\n", "2024-01-01\n_1", "D20240101\u2029", "x_1\n\n"));
+
+		names = new ArrayList<>(corpus.size() + GENERATED_NAMES + RANDOM_NAMES);
+		names.addAll(corpus);
+		Random random = new Random(20240101L);
+		for (int i = 0; i < GENERATED_NAMES; i++) {
+			names.add(generatedName(random));
+		}
+		for (int i = 0; i < RANDOM_NAMES; i++) {
+			names.add(randomName(random));
+		}
+	}
+
+	@Test
+	void normalizeFileNameMatchesRegex() {
+		for (String name : names) {
+			assertEquals(RegexNameOracle.normalizeFileName(name), App.normalizeFileName(name), () -> describe(name));
+		}
+	}
+
+	@Test
+	void normalizeToGroupKeyMatchesRegex() {
+		assertEquals(RegexNameOracle.normalizeToGroupKey(null), App.normalizeToGroupKey(null));
+		for (String name : names) {
+			assertEquals(RegexNameOracle.normalizeToGroupKey(name), App.normalizeToGroupKey(name), () -> describe(name));
+		}
+	}
+
+	@Test
+	void extractDateCompactFromFileNameMatchesRegex() {
+		for (String name : names) {
+			assertEquals(RegexNameOracle.extractDateCompactFromFileName(name), App.extractDateCompactFromFileName(name),
+					() -> describe(name));
+		}
+	}
+
+	@Test
+	void getYearMonthFromGDriveFileMatchesRegex() {
+		Random random = new Random(20240102L);
+		for (String name : names) {
+			FileEntry file = entry(name, random);
+			String[] expected = RegexNameOracle.getYearMonthFromGDriveFile(file);
+			int yearMonth = App.getYearMonthFromGDriveFile(file);
+			assertEquals(expected[0] + "/" + expected[1], App.yearString(yearMonth) + "/" + App.monthString(yearMonth),
+					() -> describe(name) + ", modifiedTime " + file.modifiedMillis);
+		}
+	}
+
+	@Test
+	void extractDateCompactFromModifiedTimeMatchesLocalDate() {
+		Random random = new Random(20240103L);
+		for (int i = 0; i < RANDOM_NAMES; i++) {
+			// Anche a cavallo della mezzanotte e dei cambi d'ora
+			long millis = random.nextInt(4) == 0
+					? Math.floorDiv(MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS)), 3_600_000L) * 3_600_000L
+							+ random.nextInt(2000) - 1000
+					: MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS));
+			FileEntry file = new FileEntry("id", "file", "parent", millis, 0, null);
+			assertEquals(RegexNameOracle.extractDateCompactFromModifiedTime(file), App.extractDateCompactFromModifiedTime(file),
+					() -> "modifiedTime " + millis);
+		}
+		FileEntry noTime = new FileEntry("id", "file", "parent", FileEntry.NO_TIME, 0, null);
+		assertEquals(RegexNameOracle.extractDateCompactFromModifiedTime(noTime), App.extractDateCompactFromModifiedTime(noTime));
+	}
+
+	@Test
+	void sortByDateMatchesRegexComparator() {
+		Random random = new Random(20240104L);
+		for (int batch = 0; batch < SORT_BATCHES; batch++) {
+			List<FileEntry> files = new ArrayList<>();
+			int size = 1 + random.nextInt(500);
+			for (int i = 0; i < size; i++) {
+				files.add(entry(names.get(random.nextInt(names.size())), random));
+			}
+			List<FileEntry> expected = new ArrayList<>(files);
+			RegexNameOracle.sortByDate(expected);
+			List<FileEntry> actual = new ArrayList<>(files);
+			int[] keys = App.sortByDate(actual);
+
+			for (int i = 0; i < size; i++) {
+				FileEntry file = expected.get(i);
+				int index = i;
+				// Stesso ordine (stabile: a parita' di data resta l'ordine originale) e stesse chiavi
+				assertSame(file, actual.get(i), () -> "posizione " + index + ": " + describe(file.name));
+				String date = RegexNameOracle.extractDateCompactFromFileName(file.name);
+				if (date == null) {
+					date = RegexNameOracle.extractDateCompactFromModifiedTime(file);
+				}
+				assertEquals(date, keys[i] >= 0 ? App.formatDateCompact(keys[i]) : null, () -> describe(file.name));
+			}
+		}
+	}
+
+	/**
+	 * File con il nome indicato e modifiedTime casuale (assente in un caso su dieci).
+	 */
+	private static FileEntry entry(String name, Random random) {
+		long millis = random.nextInt(10) == 0 ? FileEntry.NO_TIME
+				: MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS));
+		return new FileEntry(Long.toHexString(random.nextLong()), name, "parent", millis, 0, null);
+	}
+
+	private static String generatedName(Random random) {
+		// Anche fuori dall'intervallo valido (anni, mesi e giorni non validi)
+		int year = 1895 + random.nextInt(210);
+		int month = random.nextInt(14);
+		int day = random.nextInt(33);
+		String copy = random.nextInt(5) == 0 ? "_" + random.nextInt(30) : "";
+		String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+		switch (random.nextInt(5)) {
+		case 0:
+			// CAMS: D + YYYYMMDD + HHmmss
+			return String.format("%s_D%04d%02d%02d%02d%02d%02d%s.csv", CAMS_FLOWS[random.nextInt(CAMS_FLOWS.length)],
+					year, month, day, random.nextInt(24), random.nextInt(60), random.nextInt(60), copy);
+		case 1:
+			return String.format("%s-%04d-%02d-%02d%s%s", SERVICES[random.nextInt(SERVICES.length)], year, month, day, copy, extension);
+		case 2:
+			return String.format("%s_%04d_%02d_%02d%s%s", SERVICES[random.nextInt(SERVICES.length)], year, month, day, copy, extension);
+		case 3:
+			return String.format("%s%04d%02d%02d%s%s", SERVICES[random.nextInt(SERVICES.length)], year, month, day, copy, extension);
+		default:
+			// Due date e separatori ripetuti
+			return String.format("%s__%04d-%02d-%02d_%04d%02d%02d--%s%s", SERVICES[random.nextInt(SERVICES.length)],
+					year, month, day, year, month, day, copy, extension);
+		}
+	}
+
+	private static String randomName(Random random) {
+		char[] name = new char[random.nextInt(24)];
+		for (int i = 0; i < name.length; i++) {
+			name[i] = RANDOM_ALPHABET[random.nextInt(RANDOM_ALPHABET.length)];
+		}
+		return new String(name);
+	}
+
+	private static String describe(String name) {
+		return "nome \"" + name.replace("\n", "\\n").replace("\r", "\\r") + "\"";
+	}
+}
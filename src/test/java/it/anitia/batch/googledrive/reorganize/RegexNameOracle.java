@@ -0,0 +1,159 @@
+package it.anitia.batch.googledrive.reorganize;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implementazione originale a regex del parsing dei nomi file, conservata come oracolo dei test
+ * golden: le versioni senza regex di App devono dare gli stessi risultati su ogni nome.
+ * I metodi sulle date leggono il modifiedTime da FileEntry al posto del File del client Drive.
+ */
+final class RegexNameOracle {
+
+	// 1) YYYY-MM-DD o YYYY_MM_DD (con separatori)
+	static final Pattern DATE_PATTERN = Pattern.compile("(\\d{4})[-_](\\d{2})[-_](\\d{2})");
+	// 2) YYYYMMDD compatto (8 cifre consecutive, anche precedute da D come in CAMS)
+	static final Pattern DATE_COMPACT_PATTERN = Pattern.compile("D?(\\d{4})(\\d{2})(\\d{2})");
+	// 2b) Come sopra ma con opzionale HHmmss (per normalizzazione groupKey)
+	static final Pattern DATE_COMPACT_HHMMSS_PATTERN = Pattern.compile("D?(\\d{4})(\\d{2})(\\d{2})(?:\\d{6})?");
+
+	private RegexNameOracle() {
+	}
+
+	static String normalizeFileName(String fileName) {
+		String result = DATE_PATTERN.matcher(fileName).replaceAll("YYYY-MM-DD");
+		result = DATE_COMPACT_PATTERN.matcher(result).replaceAll("YYYYMMDD");
+		return result;
+	}
+
+	static String normalizeToGroupKey(String fileName) {
+		if (fileName == null) return "";
+		// Rimuovi estensioni (anche multiple come .log.gz)
+		String result = fileName;
+		// Rimuovi tutte le estensioni
+		while (result.contains(".")) {
+			result = result.substring(0, result.lastIndexOf('.'));
+		}
+		// Rimuovi date dai pattern conosciuti (incluso opzionale HHmmss per il formato compatto)
+		result = DATE_PATTERN.matcher(result).replaceAll("");
+		result = DATE_COMPACT_HHMMSS_PATTERN.matcher(result).replaceAll("");
+		// Rimuovi suffissi progressivi finali (es. _1, _2, _23)
+		result = result.replaceAll("_\\d+$", "");
+		// Pulisci separatori residui (trattini/underscore in coda o doppi)
+		result = result.replaceAll("[-_]+$", "");
+		result = result.replaceAll("^[-_]+", "");
+		result = result.replaceAll("[-_]{2,}", "-");
+		return result.isEmpty() ? "noname" : result;
+	}
+
+	/**
+	 * Anno e mese del file ({anno, mese}): dal nome, altrimenti dal modifiedTime, altrimenti oggi.
+	 */
+	static String[] getYearMonthFromGDriveFile(FileEntry file) {
+		// Prima cerca una data nel nome del file
+		String[] fromName = extractDateFromFileName(file.name);
+		if (fromName != null && !"00".equals(fromName[1])) {
+			return fromName;
+		}
+
+		if (fromName != null && "00".equals(fromName[1])) {
+			// Anno dal nome, mese dal modifiedTime
+			String year = fromName[0];
+			if (file.hasModifiedTime()) {
+				LocalDate date = Instant.ofEpochMilli(file.modifiedMillis).atZone(ZoneId.systemDefault()).toLocalDate();
+				return new String[]{year, String.format("%02d", date.getMonthValue())};
+			}
+			return new String[]{year, "01"};
+		}
+
+		// Fallback: usa modifiedTime
+		if (!file.hasModifiedTime()) {
+			LocalDate now = LocalDate.now();
+			return new String[]{String.valueOf(now.getYear()), String.format("%02d", now.getMonthValue())};
+		}
+		LocalDate date = Instant.ofEpochMilli(file.modifiedMillis).atZone(ZoneId.systemDefault()).toLocalDate();
+		return new String[]{String.valueOf(date.getYear()), String.format("%02d", date.getMonthValue())};
+	}
+
+	static String[] extractDateFromFileName(String fileName) {
+		if (fileName == null) {
+			return null;
+		}
+
+		// 1) YYYY-MM-DD o YYYY_MM_DD
+		Matcher matcher = DATE_PATTERN.matcher(fileName);
+		if (matcher.find()) {
+			int y = Integer.parseInt(matcher.group(1));
+			int m = Integer.parseInt(matcher.group(2));
+			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12) {
+				return new String[]{matcher.group(1), matcher.group(2)};
+			}
+		}
+
+		// 2) YYYYMMDD compatto (anche con prefisso D per CAMS)
+		Matcher compactMatcher = DATE_COMPACT_PATTERN.matcher(fileName);
+		if (compactMatcher.find()) {
+			int y = Integer.parseInt(compactMatcher.group(1));
+			int m = Integer.parseInt(compactMatcher.group(2));
+			int d = Integer.parseInt(compactMatcher.group(3));
+			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12 && d >= 1 && d <= 31) {
+				return new String[]{compactMatcher.group(1), compactMatcher.group(2)};
+			}
+		}
+
+		return null;
+	}
+
+	static String extractDateCompactFromFileName(String fileName) {
+		if (fileName == null) return null;
+
+		// 1) YYYY-MM-DD o YYYY_MM_DD
+		Matcher matcher = DATE_PATTERN.matcher(fileName);
+		if (matcher.find()) {
+			int y = Integer.parseInt(matcher.group(1));
+			int m = Integer.parseInt(matcher.group(2));
+			int d = Integer.parseInt(matcher.group(3));
+			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12 && d >= 1 && d <= 31) {
+				return matcher.group(1) + matcher.group(2) + matcher.group(3);
+			}
+		}
+
+		// 2) YYYYMMDD compatto
+		Matcher compactMatcher = DATE_COMPACT_PATTERN.matcher(fileName);
+		if (compactMatcher.find()) {
+			int y = Integer.parseInt(compactMatcher.group(1));
+			int m = Integer.parseInt(compactMatcher.group(2));
+			int d = Integer.parseInt(compactMatcher.group(3));
+			if (y >= 1900 && y <= 2100 && m >= 1 && m <= 12 && d >= 1 && d <= 31) {
+				return compactMatcher.group(1) + compactMatcher.group(2) + compactMatcher.group(3);
+			}
+		}
+		return null;
+	}
+
+	static String extractDateCompactFromModifiedTime(FileEntry file) {
+		if (!file.hasModifiedTime()) return null;
+		LocalDate date = Instant.ofEpochMilli(file.modifiedMillis).atZone(ZoneId.systemDefault()).toLocalDate();
+		return String.format("%04d%02d%02d", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+
+	/**
+	 * Ordinamento glacier originale: data dal nome, altrimenti dal modifiedTime, ricalcolata a
+	 * ogni confronto.
+	 */
+	static void sortByDate(List<FileEntry> driveFiles) {
+		driveFiles.sort((a, b) -> {
+			String dateA = extractDateCompactFromFileName(a.name);
+			if (dateA == null) dateA = extractDateCompactFromModifiedTime(a);
+			String dateB = extractDateCompactFromFileName(b.name);
+			if (dateB == null) dateB = extractDateCompactFromModifiedTime(b);
+			if (dateA == null) dateA = "";
+			if (dateB == null) dateB = "";
+			return dateA.compareTo(dateB);
+		});
+	}
+}